@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.objectpocket.storage.ObjectStore;
+
+/**
+ * Compacts the write ahead log of an {@link ObjectStore} into its files on a
+ * background thread. A compaction is started as soon as one of the thresholds
+ * is exceeded:
+ * <ul>
+ * <li>size of the log</li>
+ * <li>garbage ratio of a type, the share of its stored objects that have been
+ * replaced or removed by the log</li>
+ * <li>time since the first change that has not been compacted yet</li>
+ * </ul>
+ * Callers that add or find objects are not blocked by a compaction. Stores
+ * append to a fresh log while the compaction runs, they only wait while the
+ * log is moved aside and while the compacted files are swapped in, see
+ * {@link ObjectStore#checkpoint(boolean)}. Without write ahead log there is
+ * nothing to compact.
+ *
+ * @author Edmund Klaus
+ *
+ */
+class CompactionScheduler {
+
+    public static final long DEFAULT_MAX_LOG_SIZE = 8L << 20;
+    public static final double DEFAULT_MAX_GARBAGE_RATIO = 0.5;
+    public static final long DEFAULT_MAX_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private final ObjectStore objectStore;
+    private long maxLogSize = DEFAULT_MAX_LOG_SIZE;
+    private double maxGarbageRatio = DEFAULT_MAX_GARBAGE_RATIO;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private boolean prettyPrinting = false;
+
+    // <typeName, ids> objects that have been logged but not compacted yet
+    private Map<String, Set<String>> loggedIds = new ConcurrentHashMap<String, Set<String>>();
+
+    private ScheduledExecutorService executor;
+    private boolean closed = false;
+    private ScheduledFuture<?> delayedCompaction;
+    private boolean compactionPending = false;
+    private volatile long lastCompactionDuration = -1;
+
+    CompactionScheduler(ObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    /**
+     * Resets the logged objects, e.g. after loading.
+     *
+     * @param loggedIds
+     *            {@code Map<typeName, ids>} objects inside the log
+     */
+    void reset(Map<String, Set<String>> loggedIds) {
+        this.loggedIds.clear();
+        addLoggedIds(loggedIds);
+        if (!loggedIds.isEmpty()) {
+            scheduleDelayedCompaction();
+        }
+    }
+
+    /**
+     * Called after changes have been appended to the log. Starts a compaction
+     * if a threshold is exceeded.
+     *
+     * @param appendedIds
+     *            {@code Map<typeName, ids>} changed and removed objects
+     * @param objectCounts
+     *            {@code Map<typeName, count>} number of objects per type
+     */
+    void changesAppended(Map<String, Set<String>> appendedIds, Map<String, Integer> objectCounts) {
+        addLoggedIds(appendedIds);
+        if (objectStore.getWriteAheadLogSize() >= maxLogSize) {
+            compact("log size");
+            return;
+        }
+        for (String typeName : loggedIds.keySet()) {
+            Integer count = objectCounts.get(typeName);
+            double garbageRatio = (double) loggedIds.get(typeName).size() / Math.max(1, count != null ? count : 0);
+            if (garbageRatio >= maxGarbageRatio) {
+                compact("garbage ratio of " + typeName);
+                return;
+            }
+        }
+        scheduleDelayedCompaction();
+    }
+
+    /**
+     * Returns the number of bytes inside the log that wait to be compacted.
+     *
+     * @return
+     */
+    long getBacklog() {
+        return objectStore.getWriteAheadLogSize();
+    }
+
+    /**
+     * Returns the duration of the last compaction.
+     *
+     * @return duration in ms, -1 if no compaction has been done yet
+     */
+    long getLastCompactionDuration() {
+        return lastCompactionDuration;
+    }
+
+    /**
+     * Stops scheduling compactions. A running compaction will be finished,
+     * changes appended afterwards are not compacted anymore.
+     */
+    void shutdown() {
+        ScheduledExecutorService runningExecutor = null;
+        synchronized (this) {
+            closed = true;
+            runningExecutor = executor;
+            executor = null;
+            delayedCompaction = null;
+            compactionPending = false;
+        }
+        if (runningExecutor == null) {
+            return;
+        }
+        // a running compaction needs the lock of this scheduler
+        runningExecutor.shutdown();
+        try {
+            runningExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param prettyPrinting
+     *            true if the pocket writes its files pretty printed
+     */
+    void setPrettyPrinting(boolean prettyPrinting) {
+        this.prettyPrinting = prettyPrinting;
+    }
+
+    void setMaxLogSize(long maxLogSize) {
+        this.maxLogSize = maxLogSize;
+    }
+
+    void setMaxGarbageRatio(double maxGarbageRatio) {
+        this.maxGarbageRatio = maxGarbageRatio;
+    }
+
+    /**
+     * @param maxDelay
+     *            in ms, 0 or less disables compactions by time
+     */
+    void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    private void addLoggedIds(Map<String, Set<String>> ids) {
+        for (String typeName : ids.keySet()) {
+            Set<String> idsForType = loggedIds.get(typeName);
+            if (idsForType == null) {
+                idsForType = ConcurrentHashMap.newKeySet();
+                loggedIds.put(typeName, idsForType);
+            }
+            idsForType.addAll(ids.get(typeName));
+        }
+    }
+
+    private synchronized void compact(String reason) {
+        if (closed || compactionPending) {
+            return;
+        }
+        compactionPending = true;
+        if (delayedCompaction != null) {
+            delayedCompaction.cancel(false);
+            delayedCompaction = null;
+        }
+        getExecutor().execute(() -> runCompaction(reason));
+    }
+
+    private synchronized void scheduleDelayedCompaction() {
+        if (closed || maxDelay <= 0 || compactionPending || delayedCompaction != null) {
+            return;
+        }
+        delayedCompaction = getExecutor().schedule(() -> {
+            synchronized (this) {
+                delayedCompaction = null;
+                compactionPending = true;
+            }
+            runCompaction("time since first change");
+        }, maxDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void runCompaction(String reason) {
+        // objects logged while compacting stay in the backlog
+        Map<String, Set<String>> compactedIds = new HashMap<String, Set<String>>();
+        for (String typeName : loggedIds.keySet()) {
+            compactedIds.put(typeName, new HashSet<String>(loggedIds.get(typeName)));
+        }
+        synchronized (this) {
+            compactionPending = false;
+        }
+        long time = System.currentTimeMillis();
+        try {
+            objectStore.checkpoint(prettyPrinting);
+        } catch (IOException e) {
+            Logger.getAnonymousLogger().log(Level.SEVERE, "Compaction of " + objectStore.getSource() + " failed.", e);
+            return;
+        }
+        lastCompactionDuration = System.currentTimeMillis() - time;
+        for (String typeName : compactedIds.keySet()) {
+            Set<String> idsForType = loggedIds.get(typeName);
+            if (idsForType != null) {
+                idsForType.removeAll(compactedIds.get(typeName));
+                if (idsForType.isEmpty()) {
+                    loggedIds.remove(typeName);
+                }
+            }
+        }
+        Logger.getAnonymousLogger().info("Compacted " + objectStore.getSource() + " in " + lastCompactionDuration
+                + " ms. Reason: " + reason + ".");
+        if (!loggedIds.isEmpty()) {
+            scheduleDelayedCompaction();
+        }
+    }
+
+    private ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ObjectPocket-compaction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // pending delayed compactions are not needed after shutdown
+            scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor = scheduledExecutor;
+        }
+        return executor;
+    }
+
+}
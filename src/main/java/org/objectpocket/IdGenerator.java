@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+/**
+ * Generates the ids of objects that do not have an id field annotated with
+ * {@link org.objectpocket.annotations.Id}. Ids only have to be unique per
+ * type. An id will never be regenerated for an object that already has one,
+ * so stored ids stay the same when the generator is changed.<br>
+ * <br>
+ * Available implementations:
+ * <ul>
+ * <li>{@link org.objectpocket.util.RandomUuidGenerator} (default)</li>
+ * <li>{@link org.objectpocket.util.TimeOrderedIdGenerator}</li>
+ * <li>{@link org.objectpocket.util.SequenceIdGenerator}</li>
+ * </ul>
+ * Implementations have to be thread safe.
+ * 
+ * @see ObjectPocketBuilder#idGenerator(IdGenerator)
+ * @author Edmund Klaus
+ *
+ */
+public interface IdGenerator {
+
+    /**
+     * Generates a new id.
+     * 
+     * @param obj
+     *            object that will get the id
+     * @return id
+     */
+    public String nextId(Object obj);
+
+    /**
+     * Called for every id that has been read from the store, before new ids
+     * are generated for objects of the same type. Generators that do not
+     * produce random ids have to skip these ids.
+     * 
+     * @param id
+     */
+    public default void idInUse(String id) {
+    }
+
+}
@@ -18,6 +18,9 @@ package org.objectpocket;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.objectpocket.exception.ObjectPocketException;
 import org.objectpocket.storage.blob.BlobStore;
@@ -55,6 +58,16 @@ import org.objectpocket.storage.blob.BlobStore;
  * MyClass obj = objectPocket.findAll(MyClass.class).iterator().next();
  * </pre>
  * 
+ * <p>
+ * ObjectPocket is thread safe. Any number of threads can find, add and remove
+ * objects at the same time. {@link #store()}, {@link #load()} and
+ * {@link #cleanup()} have exclusive access: a store persists every object that
+ * has been added before it started, adding and removing objects waits until
+ * it has finished. Finding objects never waits for a store. Changes to the
+ * fields of added objects have to be synchronized with {@link #store()} by
+ * the caller.
+ * </p>
+ * 
  * You can find more examples/tutorials/documentation at: <li>
  * {@link org.objectpocket.example} package <li><a
  * href="http://objectpocket.org">http://objectpocket.org</a>
@@ -99,6 +112,21 @@ public interface ObjectPocket {
      */
     public void add(Object obj, String filename) throws ObjectPocketException;
 
+    /**
+     * Report that the fields of the given object have been changed. Objects
+     * that are not inside the persistence context yet will be added.<br>
+     * <br>
+     * For types configured with
+     * {@link ObjectPocketBuilder#trackModifications(Class...)} this is the only
+     * way a changed object will be persisted by the next {@link #store()},
+     * other types are compared with the object store anyway.
+     *
+     * @param obj
+     *
+     * @throws ObjectPocketException
+     */
+    public void markModified(Object obj) throws ObjectPocketException;
+
     /**
      * Persist all objects inside the ObjectPocket persistence context to an
      * object store.
@@ -108,6 +136,20 @@ public interface ObjectPocket {
      */
     public void store() throws ObjectPocketException;
 
+    /**
+     * Persist all objects inside the ObjectPocket persistence context to an
+     * object store on a dedicated writer thread. The changes are captured when
+     * the write starts, calls that arrive while a write is waiting to start
+     * share it. A burst of calls therefore results in at most one running and
+     * one follow-up write. Adding and removing objects waits while a write is
+     * running, as it does during {@link #store()}.
+     * 
+     * @return completes when all changes made before the call have been
+     *         written, completes exceptionally with the
+     *         {@link ObjectPocketException} if the store operation fails
+     */
+    public CompletableFuture<Void> storeAsync();
+
     /**
      * Loads all objects from an object store. This will override the currently
      * available objects in the ObjectPocket.<br>
@@ -126,7 +168,8 @@ public interface ObjectPocket {
     /**
      * Loads all objects from an object store. This method behaves the same way
      * {@link #load()} does, except that it loads the objects asynchronous.<br>
-     * To find out when loading is done, you can use {@link #isLoading()} .<br>
+     * To find out when loading is done, you can use {@link #isLoading()},
+     * {@link #awaitType(Class)} or {@link #onLoaded(Class, Consumer)}.<br>
      * <br>
      * You also have the option to pass 0...n Classes that should be loaded in
      * advance.
@@ -137,7 +180,11 @@ public interface ObjectPocket {
      * 
      * The method will load all objects of these class types <b>synchronous</b>
      * and then go on with all other class types from the object store
-     * asynchronous. This is convenient if you want to access parts of the
+     * asynchronous. The other class types are loaded in parallel as configured
+     * by {@link ObjectPocketBuilder#parallelLoading(int)} or
+     * {@link ObjectPocketBuilder#parallelLoading(java.util.concurrent.Executor)}.
+     * {@link #store()}, {@link #load()} and {@link #close()} wait until all
+     * types have been loaded. This is convenient if you want to access parts of the
      * information as soon as possible, and load everything else asynchronous in
      * background.<br>
      * <br>
@@ -161,6 +208,32 @@ public interface ObjectPocket {
      */
     public boolean isLoading();
 
+    /**
+     * Returns a future that completes when the objects of the given type have
+     * been loaded by {@link #loadAsynchronous(Class...)}. References to
+     * objects of types that have not been loaded yet will be injected when all
+     * types have been loaded.
+     * 
+     * @param type
+     * @return completed future if the type is not loaded asynchronously,
+     *         completes exceptionally if loading the type fails
+     */
+    public CompletableFuture<Void> awaitType(Class<?> type);
+
+    /**
+     * Calls the given callback with all objects of the given type, as soon as
+     * the type has been loaded, see {@link #awaitType(Class)}. The callback
+     * is called by the executor configured with
+     * {@link ObjectPocketBuilder#parallelLoading(java.util.concurrent.Executor)},
+     * otherwise on a background thread of this pocket, also if the type has
+     * already been loaded. It will not be called if loading the type fails.
+     * 
+     * @param type
+     * @param callback
+     *            receives the objects of the type, null if there are none
+     */
+    public <T> void onLoaded(Class<T> type, Consumer<Collection<T>> callback);
+
     /**
      * Find an object by the given id and object type.
      * 
@@ -176,7 +249,12 @@ public interface ObjectPocket {
     public <T> T find(String id, Class<T> type) throws ObjectPocketException;
 
     /**
-     * Find all objects by the given object type.
+     * Find all objects by the given object type.<br>
+     * <br>
+     * The returned collection is a copy that can be modified. Use
+     * {@link #view(Class)}, {@link #iterate(Class, Consumer)} or
+     * {@link #count(Class)} on hot read paths, to avoid copying all objects
+     * of the type on every call.
      * 
      * @param type
      *            type of the object to find
@@ -188,6 +266,166 @@ public interface ObjectPocket {
     public <T> Collection<T> findAll(Class<T> type)
 	    throws ObjectPocketException;
 
+    /**
+     * Returns a read-only live view of all objects of the given type. The
+     * view does not copy the objects, it reflects objects that are added,
+     * removed or loaded afterwards. Iterating the view while objects of the
+     * same type are added or removed is not supported.
+     * 
+     * @param type
+     *            type of the objects
+     * @return view of all objects of given type, empty if there are none
+     * 
+     * @throws ObjectPocketException
+     */
+    public <T> Collection<T> view(Class<T> type) throws ObjectPocketException;
+
+    /**
+     * Returns a stream over all objects of the given type, without copying
+     * them. Behaves like {@code view(type).stream()}.
+     * 
+     * @param type
+     *            type of the objects
+     * @return
+     * @throws ObjectPocketException
+     */
+    public <T> Stream<T> stream(Class<T> type) throws ObjectPocketException;
+
+    /**
+     * Returns the number of objects of the given type.
+     * 
+     * @param type
+     *            type of the objects
+     * @return
+     * @throws ObjectPocketException
+     */
+    public int count(Class<?> type) throws ObjectPocketException;
+
+    /**
+     * Hands all objects of the given type over to the given consumer, without
+     * copying them.
+     * 
+     * @param type
+     *            type of the objects
+     * @param consumer
+     * @throws ObjectPocketException
+     */
+    public <T> void iterate(Class<T> type, Consumer<? super T> consumer)
+	    throws ObjectPocketException;
+
+    /**
+     * Find all objects of the given type, whose field has the given value.
+     * Values are compared with {@link Object#equals(Object)}.<br>
+     * <br>
+     * Fields annotated with {@link org.objectpocket.annotations.Index} or
+     * registered with {@link ObjectPocketBuilder#index(Class, String)} are
+     * looked up in constant time. Indexes are updated on {@link #add(Object)},
+     * {@link #remove(Object)}, {@link #store()} and {@link #load()}, objects
+     * whose indexed value has been changed in the meantime will be found by
+     * their new value after the next {@link #store()}. All other fields are
+     * looked up by scanning all objects of the given type.
+     * 
+     * @param fieldName
+     *            name of the field to compare
+     * @param value
+     *            value to find, may be null
+     * @param type
+     *            type of the objects to find
+     * @return all objects of given type with the given field value, null if
+     *         there are none
+     * 
+     * @throws ObjectPocketException
+     *             if the type has no field with the given name
+     */
+    public <T> Collection<T> find(String fieldName, Object value, Class<T> type)
+	    throws ObjectPocketException;
+
+    /**
+     * Behaves like
+     * {@link #findRange(String, Object, boolean, Object, boolean, Class)}
+     * with both bounds included.
+     * 
+     * @param fieldName
+     * @param from
+     *            lower bound, null for no lower bound
+     * @param to
+     *            upper bound, null for no upper bound
+     * @param type
+     * @return
+     * @throws ObjectPocketException
+     */
+    public <T> Collection<T> findRange(String fieldName, Object from, Object to,
+	    Class<T> type) throws ObjectPocketException;
+
+    /**
+     * Find all objects of the given type, whose field value is inside the
+     * given range. The field values have to be {@link Comparable} with the
+     * bounds, e.g. an {@link Integer} for a field of type int. Objects without
+     * field value are never inside a range.<br>
+     * <br>
+     * Fields with a sorted index, see
+     * {@link org.objectpocket.annotations.Index#sorted()} or
+     * {@link ObjectPocketBuilder#sortedIndex(Class, String)}, are looked up in
+     * logarithmic time. All other fields are looked up by scanning all objects
+     * of the given type. Sorted indexes are maintained like described for
+     * {@link #find(String, Object, Class)}.
+     * 
+     * @param fieldName
+     *            name of the field to compare
+     * @param from
+     *            lower bound, null for no lower bound
+     * @param fromInclusive
+     *            true if the lower bound is part of the range
+     * @param to
+     *            upper bound, null for no upper bound
+     * @param toInclusive
+     *            true if the upper bound is part of the range
+     * @param type
+     *            type of the objects to find
+     * @return all objects of given type inside the range ordered by their
+     *         field values, null if there are none
+     * 
+     * @throws ObjectPocketException
+     *             if the type has no field with the given name or the field
+     *             values are not comparable with the bounds
+     */
+    public <T> Collection<T> findRange(String fieldName, Object from,
+	    boolean fromInclusive, Object to, boolean toInclusive, Class<T> type)
+	    throws ObjectPocketException;
+
+    /**
+     * Find all objects of the given type, whose String field starts with the
+     * given prefix. Behaves like
+     * {@link #findRange(String, Object, boolean, Object, boolean, Class)}.
+     * 
+     * @param fieldName
+     *            name of a String field
+     * @param prefix
+     * @param type
+     *            type of the objects to find
+     * @return all objects of given type with matching field values ordered by
+     *         their field values, null if there are none
+     * @throws ObjectPocketException
+     */
+    public <T> Collection<T> findByPrefix(String fieldName, String prefix,
+	    Class<T> type) throws ObjectPocketException;
+
+    /**
+     * Create a {@link Query} over all objects of the given type. Queries are
+     * evaluated directly on the objects inside the persistence context and
+     * use field indexes whenever possible.
+     * 
+     * <pre>
+     * List&lt;Person&gt; persons = objectPocket.query(Person.class)
+     * 	.where(Query.between(&quot;age&quot;, 30, 40)).orderBy(&quot;name&quot;).list();
+     * </pre>
+     * 
+     * @param type
+     *            type of the objects to find
+     * @return
+     */
+    public <T> Query<T> query(Class<T> type);
+
     /**
      * Remove object from persistence context. You need to call {@link #store()}
      * after {@link #remove(Object)} to remove the object from the object store.<br>
@@ -234,6 +472,21 @@ public interface ObjectPocket {
      */
     public boolean exists();
 
+    /**
+     * Returns the size of the changes that have been appended to the write
+     * ahead log and wait to be compacted into the files of the store.
+     * 
+     * @return backlog in bytes, 0 without write ahead log
+     */
+    public long getCompactionBacklog();
+
+    /**
+     * Returns how long the last compaction of the write ahead log took.
+     * 
+     * @return duration in ms, -1 if no compaction has been done yet
+     */
+    public long getLastCompactionDuration();
+
     /**
      * Links another ObjectPocket instance to this ObjectPocket.<br>
      * This supports loading objects from different object stores. Objects from
@@ -16,15 +16,20 @@
 
 package org.objectpocket;
 
+import java.io.File;
 import java.lang.reflect.Type;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.objectpocket.references.ArrayReferenceSupport;
 import org.objectpocket.references.CollectionReferenceSupport;
+import org.objectpocket.references.RefReferenceSupport;
 import org.objectpocket.references.SimpleReferenceSupport;
 import org.objectpocket.storage.FileStore;
 import org.objectpocket.storage.ObjectStore;
@@ -46,6 +51,21 @@ public class ObjectPocketBuilder {
     private boolean prettyPrinting = true;
     private boolean serializeNulls = false;
     private boolean writeBackup = true;
+    private int loadParallelism = 0;
+    private Executor loadExecutor = null;
+    private boolean writeAheadLog = false;
+    private boolean lazyLoading = false;
+    private IdGenerator idGenerator = null;
+    private long maxResidentObjects = 0;
+    private long maxLogSize = CompactionScheduler.DEFAULT_MAX_LOG_SIZE;
+    private double maxGarbageRatio = CompactionScheduler.DEFAULT_MAX_GARBAGE_RATIO;
+    private long maxCompactionDelay = CompactionScheduler.DEFAULT_MAX_DELAY;
+    private long autoSaveDebounce = 0;
+    private long autoSaveMaxLatency = 0;
+    // null if no modifications are tracked, Object tracks all types
+    private Set<Class<?>> trackedTypes = null;
+    // <type, <fieldName, sorted>>
+    private Map<Class<?>, Map<String, Boolean>> indexedFields = new HashMap<Class<?>, Map<String, Boolean>>();
 
     /**
      * Create an {@link ObjectPocket} instance that will store data into the
@@ -85,6 +105,7 @@ public class ObjectPocketBuilder {
      */
     public ObjectPocket createZipFileObjectPocket(String filename, int compressionLevel) {
         ZipFileStore zipFileStore = new ZipFileStore(filename, compressionLevel);
+        zipFileStore.setBlobStore(new MultiZipBlobStore(new File(filename).getAbsoluteFile().getParent()));
         return createObjectPocket(zipFileStore);
     }
 
@@ -100,6 +121,18 @@ public class ObjectPocketBuilder {
             Logger.getAnonymousLogger().severe("Argument objectStore is null.");
             return null;
         }
+        if (writeAheadLog) {
+            if (!(objectStore instanceof FileStore)) {
+                Logger.getAnonymousLogger().severe("Write ahead log is not supported by " + objectStore.getClass().getName());
+                return null;
+            }
+            try {
+                ((FileStore) objectStore).enableWriteAheadLog();
+            } catch (UnsupportedOperationException e) {
+                Logger.getAnonymousLogger().severe(e.getMessage());
+                return null;
+            }
+        }
         ObjectPocketImpl objectPocketImpl = new ObjectPocketImpl(objectStore);
         addReferenceSupport(objectPocketImpl);
         if (blobStore != null) {
@@ -116,7 +149,39 @@ public class ObjectPocketBuilder {
         if (!writeBackup) {
             objectPocketImpl.doNotWriteBackups();
         }
+        int parallelism = loadParallelism;
+        if (parallelism <= 0) {
+            // zip entries are independent deflate streams that can be
+            // inflated concurrently
+            parallelism = objectStore instanceof ZipFileStore ? Runtime.getRuntime().availableProcessors() : 1;
+        }
+        objectPocketImpl.setLoadParallelism(parallelism);
+        objectPocketImpl.setLoadExecutor(loadExecutor);
+        objectPocketImpl.setLazyLoading(lazyLoading);
+        if (idGenerator != null) {
+            objectPocketImpl.setIdGenerator(idGenerator);
+        }
+        if (maxResidentObjects > 0 && writeAheadLog) {
+            Logger.getAnonymousLogger().warning("Objects will not be evicted from memory with a write ahead log.");
+        }
+        objectPocketImpl.setMaxResidentObjects(maxResidentObjects);
+        objectPocketImpl.setCompactionThresholds(maxLogSize, maxGarbageRatio, maxCompactionDelay);
+        objectPocketImpl.setAutoSave(autoSaveDebounce, autoSaveMaxLatency);
+        if (trackedTypes != null) {
+            objectPocketImpl.trackModifications(trackedTypes);
+        }
         objectPocketImpl.setTypeAdapterMap(typeAdapterMap);
+        for (Class<?> type : indexedFields.keySet()) {
+            Map<String, Boolean> fields = indexedFields.get(type);
+            for (String fieldName : fields.keySet()) {
+                try {
+                    objectPocketImpl.addIndex(type, fieldName, fields.get(fieldName));
+                } catch (IllegalArgumentException e) {
+                    Logger.getAnonymousLogger().severe(e.getMessage());
+                    return null;
+                }
+            }
+        }
         return objectPocketImpl;
     }
 
@@ -148,6 +213,214 @@ public class ObjectPocketBuilder {
         return this;
     }
 
+    /**
+     * Configure {@link ObjectPocket} to load the object types of a store in
+     * parallel. Reading, splitting and converting the JSON data of each type
+     * will be done by one of the given number of threads. References between
+     * objects are injected after all types have been loaded.</br>
+     * By default {@link ObjectPocket} loads one type after another. Zip file
+     * based pockets load with one thread per available processor by default.
+     * 
+     * @param parallelism
+     *            number of threads to use for loading
+     */
+    public ObjectPocketBuilder parallelLoading(int parallelism) {
+        this.loadParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Behaves like {@link #parallelLoading(int)}, except that the object types
+     * will be loaded by the given {@link Executor}. The executor also calls
+     * the callbacks of {@link ObjectPocket#onLoaded(Class, java.util.function.Consumer)},
+     * it will not be shut down by {@link ObjectPocket}.
+     * 
+     * @param executor
+     */
+    public ObjectPocketBuilder parallelLoading(Executor executor) {
+        this.loadExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Configure {@link ObjectPocket} to generate the ids of new objects with
+     * the given {@link IdGenerator}. Ids of stored objects will not be
+     * changed.</br>
+     * By default {@link ObjectPocket} generates random UUIDs, see
+     * {@link org.objectpocket.util.RandomUuidGenerator}.
+     * 
+     * @param idGenerator
+     */
+    public ObjectPocketBuilder idGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+        return this;
+    }
+
+    /**
+     * Configure {@link ObjectPocket} to load object types on first access.
+     * {@link ObjectPocket#load()} will only read the index of the store, the
+     * objects of a type will be loaded by the first call that needs them, e.g.
+     * find, findAll or query. Types that are referenced by the loaded objects
+     * will be loaded as well.</br>
+     * Types that have not been accessed will be kept untouched by
+     * {@link ObjectPocket#store()}.</br>
+     * By default {@link ObjectPocket} loads all object types on load.
+     */
+    public ObjectPocketBuilder lazyLoading() {
+        this.lazyLoading = true;
+        return this;
+    }
+
+    /**
+     * Configure {@link ObjectPocket} to keep at most about the given number of
+     * objects in memory. Object types are loaded on first access like with
+     * {@link #lazyLoading()}. When the bound is exceeded, the types that have
+     * been accessed least recently are evicted from memory and loaded again
+     * on next access. A type will only be evicted if its objects have been
+     * stored unchanged and no object of another type in memory references
+     * them.</br>
+     * Objects of an evicted type that are still held by the application are
+     * detached from {@link ObjectPocket}, they have to be looked up again.
+     * Objects will not be evicted if a write ahead log is used.</br>
+     * By default all objects stay in memory.
+     * 
+     * @param maxObjects
+     */
+    public ObjectPocketBuilder maxResidentObjects(long maxObjects) {
+        this.maxResidentObjects = maxObjects;
+        return this;
+    }
+
+    /**
+     * Configure {@link ObjectPocket} to append changed objects to a write ahead
+     * log instead of rewriting the changed files on
+     * {@link ObjectPocket#store()}. The effort of a store depends on the
+     * number of changed objects and a crash while storing leaves the stored
+     * data intact. The log is replayed on {@link ObjectPocket#load()} and
+     * compacted back into the files in the background, see
+     * {@link #compactionThresholds(long, double, long, TimeUnit)}.</br>
+     * Only supported by plain file stores, not by zip or encrypted stores.
+     */
+    public ObjectPocketBuilder writeAheadLog() {
+        this.writeAheadLog = true;
+        return this;
+    }
+
+    /**
+     * Configure when the write ahead log will be compacted into the files of
+     * the store. A compaction is started in the background as soon as one of
+     * the thresholds is exceeded. By default the log is compacted at 8 MB, at
+     * a garbage ratio of 0.5 or 5 minutes after the first change.
+     * 
+     * @param maxLogSize
+     *            size of the log in bytes
+     * @param maxGarbageRatio
+     *            share of the objects of a type that have been changed or
+     *            removed by the log
+     * @param maxDelay
+     *            time after the first change that has not been compacted, 0
+     *            disables compaction by time
+     * @param unit
+     *            unit of maxDelay
+     */
+    public ObjectPocketBuilder compactionThresholds(long maxLogSize, double maxGarbageRatio, long maxDelay,
+            TimeUnit unit) {
+        this.maxLogSize = maxLogSize;
+        this.maxGarbageRatio = maxGarbageRatio;
+        this.maxCompactionDelay = unit.toMillis(maxDelay);
+        return this;
+    }
+
+    /**
+     * Configure {@link ObjectPocket} to store itself in the background after
+     * objects have been added or removed, see {@link ObjectPocket#storeAsync()}.
+     * A store is started when no object has been added or removed for the
+     * debounce time, but at the latest max latency after the first change
+     * that has not been stored. This bounds the changes that can be lost,
+     * while frequent changes result in few writes. Changes to the fields of
+     * objects are stored with the next store, but only start one when they
+     * are reported by {@link ObjectPocket#markModified(Object)}. Pending
+     * changes are stored on {@link ObjectPocket#close()}.
+     * 
+     * @param debounce
+     *            quiet time after the last change, 0 stores only by max
+     *            latency
+     * @param maxLatency
+     *            time after the first change that has not been stored, 0
+     *            stores only by debounce
+     * @param unit
+     *            unit of debounce and maxLatency
+     */
+    public ObjectPocketBuilder autoSave(long debounce, long maxLatency, TimeUnit unit) {
+        this.autoSaveDebounce = unit.toMillis(debounce);
+        this.autoSaveMaxLatency = unit.toMillis(maxLatency);
+        return this;
+    }
+
+    /**
+     * Configure {@link ObjectPocket} to rely on reported changes for the
+     * objects of the given types, instead of serializing all of them on
+     * {@link ObjectPocket#store()} to find the changed ones. Objects count as
+     * changed when they have been added, removed, moved to another file or
+     * passed to {@link ObjectPocket#markModified(Object)}. Changes to the
+     * fields of other objects of these types are not stored.</br>
+     * Without arguments this applies to all types. By default all objects are
+     * compared with the object store.
+     *
+     * @param types
+     */
+    public ObjectPocketBuilder trackModifications(Class<?>... types) {
+        if (trackedTypes == null) {
+            trackedTypes = new HashSet<Class<?>>();
+        }
+        if (types.length == 0) {
+            trackedTypes.clear();
+            trackedTypes.add(Object.class);
+        } else if (!trackedTypes.contains(Object.class)) {
+            trackedTypes.addAll(Arrays.asList(types));
+        }
+        return this;
+    }
+
+    /**
+     * Configure {@link ObjectPocket} to maintain an index for the given field,
+     * so that {@link ObjectPocket#find(String, Object, Class)} does not need
+     * to scan all objects of the type. This is an alternative to annotating
+     * the field with {@link org.objectpocket.annotations.Index}, e.g. for
+     * classes that cannot be changed.
+     * 
+     * @param type
+     * @param fieldName
+     *            name of a field declared or inherited by the given type
+     */
+    public ObjectPocketBuilder index(Class<?> type, String fieldName) {
+        return index(type, fieldName, false);
+    }
+
+    /**
+     * Behaves like {@link #index(Class, String)}, except that the index is
+     * kept sorted, to support
+     * {@link ObjectPocket#findRange(String, Object, boolean, Object, boolean, Class)}
+     * and {@link ObjectPocket#findByPrefix(String, String, Class)}. The field
+     * type has to be {@link Comparable} or primitive.
+     * 
+     * @param type
+     * @param fieldName
+     *            name of a field declared or inherited by the given type
+     */
+    public ObjectPocketBuilder sortedIndex(Class<?> type, String fieldName) {
+        return index(type, fieldName, true);
+    }
+
+    private ObjectPocketBuilder index(Class<?> type, String fieldName, boolean sorted) {
+        if (indexedFields.get(type) == null) {
+            indexedFields.put(type, new HashMap<String, Boolean>());
+        }
+        Map<String, Boolean> fields = indexedFields.get(type);
+        fields.put(fieldName, sorted || Boolean.TRUE.equals(fields.get(fieldName)));
+        return this;
+    }
+
     /**
      * Register a specific type adapter for the serialization and
      * deserialization of objects.</br>
@@ -168,6 +441,7 @@ public class ObjectPocketBuilder {
         objectPocketImpl.addReferenceSupport(new SimpleReferenceSupport());
         objectPocketImpl.addReferenceSupport(new ArrayReferenceSupport());
         objectPocketImpl.addReferenceSupport(new CollectionReferenceSupport());
+        objectPocketImpl.addReferenceSupport(new RefReferenceSupport());
     }
 
 }
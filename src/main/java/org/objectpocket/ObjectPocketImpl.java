@@ -18,27 +18,50 @@ package org.objectpocket;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-
-import javax.swing.SwingWorker;
+import java.util.stream.Stream;
 
 import org.objectpocket.exception.ObjectPocketException;
 import org.objectpocket.gson.CustomTypeAdapterFactory;
+import org.objectpocket.index.FieldIndex;
+import org.objectpocket.index.FieldIndexSerializer;
+import org.objectpocket.index.IndexSupport;
 import org.objectpocket.references.ReferenceSupport;
+import org.objectpocket.storage.JsonObjectWriter;
 import org.objectpocket.storage.ObjectStore;
 import org.objectpocket.storage.blob.BlobStore;
+import org.objectpocket.util.HashHelper;
+import org.objectpocket.util.HashWriter;
 import org.objectpocket.util.IdSupport;
-import org.objectpocket.util.JsonHelper;
+import org.objectpocket.util.RandomUuidGenerator;
+import org.objectpocket.util.TypeAndIdJsonWriter;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * 
@@ -52,30 +75,86 @@ public class ObjectPocketImpl implements ObjectPocket {
     private boolean serializeNulls = false;
     private boolean prettyPrinting = false;
     private boolean writeBackup = true;
-    private boolean objectStoreInitialized = false;
-    private boolean dirty = false;
+    private volatile boolean objectStoreInitialized = false;
+    private volatile boolean dirty = false;
 
     private Map<Type, Set<Object>> typeAdapterMap = new HashMap<Type, Set<Object>>(10);
     private Set<ReferenceSupport> referenceSupportSet = new HashSet<ReferenceSupport>(10);
 
-    private Gson gson = null;
-    private boolean loading = false;
+    private volatile Gson gson = null;
+    private volatile boolean loading = false;
+
+    // shared by add and remove, exclusive for store, load and eviction;
+    // objects of loaded types are found without locking
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     // <typeName:<id,object>>
-    private Map<String, Map<String, Object>> objectMap = new HashMap<String, Map<String, Object>>(1000000);
+    private Map<String, Map<String, Object>> objectMap = new ConcurrentHashMap<String, Map<String, Object>>(1000000);
 
     // this extra map<object,id> is necessary for faster lookup of already
     // traced objects
     // objectMap.values.values is too slow for a proper lookup
     private Map<Object, String> tracedObjects = new ConcurrentHashMap<Object, String>(1000000);
 
-    private Set<Object> serializeAsRoot;
+    private Set<Object> serializeAsRoot = new HashSet<Object>();
 
     // holds specific filenames for objects, set by the user
-    private Map<Object, String> objectFilenames = new HashMap<Object, String>(1000000);
+    private Map<Object, String> objectFilenames = new ConcurrentHashMap<Object, String>(1000000);
 
     // <object, id>
-    private Map<Object, String> idsFromReadObjects = new HashMap<Object, String>(1000000);
+    private Map<Object, String> idsFromReadObjects = new ConcurrentHashMap<Object, String>(1000000);
+
+    // lazy loading, types that have not been loaded yet
+    private boolean lazyLoading = false;
+    private IdGenerator idGenerator = new RandomUuidGenerator();
+    private Set<String> unloadedTypes = ConcurrentHashMap.newKeySet();
+    // <typeName, <id, object>> objects that have been read one by one, the
+    // types are still unloaded
+    private Map<String, Map<String, Object>> pointReadObjects = new ConcurrentHashMap<String, Map<String, Object>>();
+    private final Object lazyLoadLock = new Object();
+
+    // memory bound, types that have not been accessed recently are evicted
+    private long maxResidentObjects = 0;
+    private final AtomicLong accessCounter = new AtomicLong();
+    private Map<String, Long> lastAccess = new ConcurrentHashMap<String, Long>();
+
+    // parallel loading of object types
+    private int loadParallelism = 1;
+    private Executor loadExecutor = null;
+    // runs the onLoaded callbacks, if no load executor has been configured
+    private ExecutorService callbackExecutor = null;
+    // <typeName, future> types that are loaded by loadAsynchronous
+    private volatile Map<String, CompletableFuture<Void>> typeLoads = Collections.emptyMap();
+    private volatile CompletableFuture<Void> asynchronousLoad = null;
+
+    // <typeName, <id, hash>> hashes of all objects as they are known by the
+    // write ahead log of the object store, null when unknown
+    private Map<String, Map<String, Long>> loggedObjectHashes = null;
+    private CompactionScheduler compactionScheduler;
+    private StoreScheduler storeScheduler;
+
+    // types whose changes are reported by add, remove and markModified, their
+    // objects will not be serialized on store to find the changed ones
+    private boolean trackAllModifications = false;
+    private Set<String> trackedTypes = new HashSet<String>();
+    // <typeName, objects> objects of tracked types changed since the last
+    // store
+    private Map<String, Set<Object>> modifiedObjects = new ConcurrentHashMap<String, Set<Object>>();
+    // <typeName, filenames> files of tracked types that lost objects since
+    // the last store
+    private Map<String, Set<String>> modifiedFiles = new ConcurrentHashMap<String, Set<String>>();
+
+    // indexes of annotated and registered fields
+    private IndexSupport indexSupport = new IndexSupport();
+
+    // state seen by lock-free readers, a load builds the next state aside
+    // and publishes it when it has finished
+    private volatile ReadState readState = new ReadState(objectMap, tracedObjects, indexSupport);
+    // <typeName, version> incremented by every change of the objects of a
+    // type, outdates the snapshots of the type
+    private final Map<String, AtomicLong> typeVersions = new ConcurrentHashMap<String, AtomicLong>();
+    // <typeName.fieldName, stamp> validity stamps of the persisted indexes
+    private Map<String, Long> persistedIndexStamps = new ConcurrentHashMap<String, Long>();
 
     @SuppressWarnings("unused")
     private ObjectPocketImpl() {
@@ -83,6 +162,8 @@ public class ObjectPocketImpl implements ObjectPocket {
 
     protected ObjectPocketImpl(ObjectStore objectStore) {
         this.objectStore = objectStore;
+        this.compactionScheduler = new CompactionScheduler(objectStore);
+        this.storeScheduler = new StoreScheduler(this);
     }
 
     @Override
@@ -93,6 +174,15 @@ public class ObjectPocketImpl implements ObjectPocket {
         if (!storeIsReady()) {
             throw new ObjectPocketException("The desired location contains data. Please load the data first.");
         }
+        lock.readLock().lock();
+        try {
+            addObject(obj);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addObject(Object obj) throws ObjectPocketException {
         // TODO: check who owns the object (in case more than 1 ObjectPocket)
         // if (obj.getOwningInstance() == null ||
         // obj.getOwningInstance().equals(this)) {
@@ -100,15 +190,19 @@ public class ObjectPocketImpl implements ObjectPocket {
         // obj.setOwningInstance(this);
         // // add object to objectMap
         String typeName = obj.getClass().getTypeName();
-        if (objectMap.get(typeName) == null) {
-            objectMap.put(typeName, new HashMap<String, Object>());
-        }
-        Map<String, Object> map = objectMap.get(typeName);
-        if (!tracedObjects.containsKey(obj)) {
-            String objectId = IdSupport.getId(obj, false);
-            tracedObjects.put(obj, objectId);
+        // stored objects of the type have to be known before adding
+        loadLazily(typeName);
+        awaitTypeLoad(typeName);
+        Map<String, Object> map = objectMap.computeIfAbsent(typeName, t -> new ConcurrentHashMap<String, Object>());
+        String objectId = tracedObjects.containsKey(obj) ? null : IdSupport.getId(obj, false, null, idGenerator);
+        // the same object might be added by several threads at once
+        if (objectId != null && tracedObjects.putIfAbsent(obj, objectId) == null) {
             map.put(objectId, obj);
+            changed(typeName);
+            indexSupport.add(obj);
+            modified(obj);
             dirty = true;
+            storeScheduler.changed();
             // this is necessary when copying blob data from
             // one ObjectPocket to another
             if (obj instanceof Blob) {
@@ -134,10 +228,90 @@ public class ObjectPocketImpl implements ObjectPocket {
         if (obj == null) {
             return;
         }
-        this.add(obj);
-        if (tracedObjects.containsKey(obj) && filename != null && !filename.trim().isEmpty()) {
-            objectFilenames.put(obj, filename);
+        // the filename has to be known by the next store
+        lock.readLock().lock();
+        try {
+            boolean traced = tracedObjects.containsKey(obj);
+            this.add(obj);
+            if (tracedObjects.containsKey(obj) && filename != null && !filename.trim().isEmpty()) {
+                String previousFilename = objectFilenames.put(obj, filename);
+                if (traced && !filename.equals(previousFilename)) {
+                    // the object moves to another file
+                    String typeName = obj.getClass().getName();
+                    fileModified(typeName, previousFilename != null ? previousFilename : typeName);
+                    modified(obj);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void markModified(Object obj) throws ObjectPocketException {
+        if (obj == null) {
+            return;
+        }
+        if (!storeIsReady()) {
+            throw new ObjectPocketException("The desired location contains data. Please load the data first.");
+        }
+        lock.readLock().lock();
+        try {
+            addObject(obj);
+            if (modified(obj)) {
+                dirty = true;
+                storeScheduler.changed();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records a changed object of a tracked type.
+     *
+     * @param obj
+     * @return true if the type of the object is tracked
+     */
+    private boolean modified(Object obj) {
+        String typeName = obj.getClass().getName();
+        if (!isTracked(typeName)) {
+            return false;
+        }
+        modifiedObjects.computeIfAbsent(typeName, t -> ConcurrentHashMap.newKeySet()).add(obj);
+        return true;
+    }
+
+    /**
+     * Records a file of a tracked type that lost an object.
+     *
+     * @param typeName
+     * @param filename
+     */
+    private void fileModified(String typeName, String filename) {
+        if (isTracked(typeName)) {
+            modifiedFiles.computeIfAbsent(typeName, t -> ConcurrentHashMap.newKeySet()).add(filename);
+        }
+    }
+
+    private boolean isTracked(String typeName) {
+        return trackAllModifications || trackedTypes.contains(typeName);
+    }
+
+    /**
+     * Returns the files of a tracked type that have to be written, because
+     * objects have been added to, changed in or removed from them.
+     *
+     * @param typeName
+     * @return
+     */
+    private Set<String> getModifiedFiles(String typeName) {
+        Set<String> filenames = new HashSet<String>(
+                modifiedFiles.getOrDefault(typeName, Collections.<String> emptySet()));
+        for (Object obj : modifiedObjects.getOrDefault(typeName, Collections.<Object> emptySet())) {
+            filenames.add(objectFilenames.getOrDefault(obj, typeName));
         }
+        return filenames;
     }
 
     private void addReferences(Object obj) throws ObjectPocketException {
@@ -150,7 +324,7 @@ public class ObjectPocketImpl implements ObjectPocket {
                         if (!tracedObjects.containsKey(reference)) {
                             // System.out.println(reference +
                             // " is not traced, but referenced by " + obj);
-                            add(reference);
+                            addObject(reference);
                         }
                     }
                 }
@@ -160,10 +334,29 @@ public class ObjectPocketImpl implements ObjectPocket {
 
     @Override
     public void store() throws ObjectPocketException {
+        lock.writeLock().lock();
+        try {
+            doStore();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> storeAsync() {
+        return storeScheduler.storeAsync();
+    }
 
+    private void doStore() throws ObjectPocketException {
+
+        // types that have not been loaded yet would be removed from the store
+        awaitAsynchronousLoad();
         if (!storeIsReady()) {
             throw new ObjectPocketException("The desired location contains data. Please load the data first.");
         }
+        // the location belongs to this pocket from now on, other threads
+        // keep working while the files are written
+        objectStoreInitialized = true;
 
         long time = System.currentTimeMillis();
         serializeAsRoot = new HashSet<Object>();
@@ -175,62 +368,165 @@ public class ObjectPocketImpl implements ObjectPocket {
 
         // update ids for all objects,
         // they might have been changed by the user in the meantime
-        objectMap.clear();
         String newId = null;
+        // <typeName, <id, object>> next version of the types with changed ids
+        Map<String, Map<String, Object>> renamedObjects = new HashMap<String, Map<String, Object>>();
         for (Object obj : tracedObjects.keySet()) {
-            newId = IdSupport.getId(obj, false, tracedObjects.get(obj));
-            tracedObjects.put(obj, newId);
-            String typeName = obj.getClass().getName();
-            Map<String, Object> map = objectMap.get(typeName);
-            if (map == null) {
-                map = new HashMap<String, Object>();
-                objectMap.put(typeName, map);
+            String oldId = tracedObjects.get(obj);
+            newId = IdSupport.getId(obj, false, oldId);
+            if (!newId.equals(oldId)) {
+                tracedObjects.put(obj, newId);
+                String typeName = obj.getClass().getName();
+                Map<String, Object> map = renamedObjects.get(typeName);
+                if (map == null) {
+                    Map<String, Object> current = objectMap.get(typeName);
+                    map = current != null ? new ConcurrentHashMap<String, Object>(current)
+                            : new ConcurrentHashMap<String, Object>();
+                    renamedObjects.put(typeName, map);
+                }
+                map.put(newId, obj);
+                map.remove(oldId, obj);
+                modified(obj);
             }
-            map.put(newId, obj);
         }
+        // readers see all changed ids of a type at once
+        for (String typeName : renamedObjects.keySet()) {
+            objectMap.put(typeName, renamedObjects.get(typeName));
+            changed(typeName);
+        }
+
+        // indexed field values might have been changed by the user as well
+        for (Object obj : tracedObjects.keySet()) {
+            indexSupport.update(obj);
+        }
+
+        // types that have not been loaded lazily are kept untouched
+        Map<String, Set<String>> filesOfUnloadedTypes = getFilesOfUnloadedTypes();
 
         // go through all types that have been add to ObjectPocket and collect
-        // data to persist
-        Map<String, Map<String, Set<String>>> jsonObjects = new HashMap<String, Map<String, Set<String>>>();
+        // all files that changed since the last store
+        Map<String, Map<String, JsonObjectWriter>> changedFiles = new HashMap<String, Map<String, JsonObjectWriter>>();
+        Map<String, Set<String>> unchangedFiles = new HashMap<String, Set<String>>();
         Set<Blob> blobsToPersist = new HashSet<Blob>();
         Gson gson = configureGson();
+        HashWriter hashWriter = new HashWriter();
+        int filesToWrite = 0;
+
+        // with a write ahead log only changed objects will be appended, as
+        // long as the logged state of all objects is known
+        boolean appendToLog = objectStore.isWriteAheadLogEnabled() && loggedObjectHashes != null
+                && objectStore.exists();
+        Map<String, Map<String, Long>> objectHashes = objectStore.isWriteAheadLogEnabled()
+                ? new HashMap<String, Map<String, Long>>() : null;
+        Map<String, Map<String, JsonObjectWriter>> changedObjects = new HashMap<String, Map<String, JsonObjectWriter>>();
+        Map<String, Set<String>> removedObjects = new HashMap<String, Set<String>>();
+        Map<String, Set<String>> appendedIds = new HashMap<String, Set<String>>();
+        int objectsToAppend = 0;
         for (String typeName : objectMap.keySet()) {
-            // collect objects
             Map<String, Object> map = objectMap.get(typeName);
-            if (map.values() == null) {
-                return;
+            if (map.isEmpty()) {
+                continue;
             }
-            Map<String, Set<String>> jsonStrings = new HashMap<String, Set<String>>(map.values().size());
-            String jsonString = null;
-            String filename = typeName;
+            // group objects by the file they will be written to
+            Map<String, Map<String, Object>> objectsForFile = new HashMap<String, Map<String, Object>>();
             for (String id : map.keySet()) {
-                // TODO: Is this necessary any more?
-                // if (!identifiable.isProxy()) {
-                // identifiable.serializeAsRoot = true;
                 Object object = map.get(id);
-                if (object instanceof ProxyOut) {
-                    System.out.println("proxyOut");
+                String filename = objectFilenames.get(object);
+                if (filename == null) {
+                    filename = typeName;
+                }
+                if (objectsForFile.get(filename) == null) {
+                    objectsForFile.put(filename, new HashMap<String, Object>());
+                }
+                objectsForFile.get(filename).put(id, object);
+            }
+            if (objectHashes != null) {
+                Map<String, Long> hashesForType = new HashMap<String, Long>();
+                Map<String, Long> loggedHashesForType = appendToLog ? loggedObjectHashes.get(typeName) : null;
+                Map<String, JsonObjectWriter> changedObjectsForType = new HashMap<String, JsonObjectWriter>();
+                Set<Object> modifiedObjectsForType = isTracked(typeName)
+                        ? modifiedObjects.getOrDefault(typeName, Collections.<Object> emptySet()) : null;
+                for (String filename : objectsForFile.keySet()) {
+                    Map<String, Object> objects = objectsForFile.get(filename);
+                    Map<String, Object> changed = new HashMap<String, Object>();
+                    for (String id : objects.keySet()) {
+                        Object object = objects.get(id);
+                        // the logged state of unmodified objects is still valid
+                        Long loggedHash = loggedHashesForType != null ? loggedHashesForType.get(id) : null;
+                        if (modifiedObjectsForType != null && loggedHash != null
+                                && !modifiedObjectsForType.contains(object)) {
+                            hashesForType.put(id, loggedHash);
+                            continue;
+                        }
+                        hashWriter.reset();
+                        writeJsonObject(gson,
+                                new TypeAndIdJsonWriter(hashWriter, typeName, IdSupport.getId(object, true, id)),
+                                object, false);
+                        long hash = objectHash(hashWriter.getHash(), filename);
+                        hashesForType.put(id, hash);
+                        if (!Long.valueOf(hash).equals(loggedHash)) {
+                            changed.put(id, object);
+                        }
+                    }
+                    if (!changed.isEmpty()) {
+                        // log records are written without line breaks
+                        changedObjectsForType.put(filename, sink -> {
+                            for (String id : changed.keySet()) {
+                                Object object = changed.get(id);
+                                writeJsonObject(gson, sink.nextObject(typeName, IdSupport.getId(object, true, id)),
+                                        object, false);
+                            }
+                        });
+                        objectsToAppend += changed.size();
+                        if (appendedIds.get(typeName) == null) {
+                            appendedIds.put(typeName, new HashSet<String>());
+                        }
+                        appendedIds.get(typeName).addAll(changed.keySet());
+                    }
                 }
-                serializeAsRoot.add(object);
-                StringBuilder sb = new StringBuilder(gson.toJson(object));
-                jsonString = JsonHelper.addTypeAndIdToJson(sb, typeName, IdSupport.getId(object, true, id),
-                        prettyPrinting);
-                if (objectFilenames.get(object) != null) {
-                    filename = objectFilenames.get(object);
+                objectHashes.put(typeName, hashesForType);
+                if (!changedObjectsForType.isEmpty()) {
+                    changedObjects.put(typeName, changedObjectsForType);
                 }
-                if (jsonStrings.get(filename) == null) {
-                    jsonStrings.put(filename, new HashSet<String>());
+            }
+            Map<String, JsonObjectWriter> changedFilesForType = new HashMap<String, JsonObjectWriter>();
+            Set<String> unchangedFilesForType = new HashSet<String>();
+            // files of tracked types are known to be unchanged without
+            // comparing their content
+            Set<String> modifiedFilesForType = isTracked(typeName) ? getModifiedFiles(typeName) : null;
+            for (String filename : appendToLog ? Collections.<String> emptySet() : objectsForFile.keySet()) {
+                Map<String, Object> objects = objectsForFile.get(filename);
+                // only rewrite files whose content has changed,
+                // files without a known hash will be written in any case
+                Long lastHash = objectStore.getContentHash(typeName, filename);
+                if (lastHash != null && (modifiedFilesForType != null ? !modifiedFilesForType.contains(filename)
+                        : lastHash.longValue() == hashJsonObjects(gson, typeName, objects, hashWriter))) {
+                    unchangedFilesForType.add(filename);
+                } else {
+                    // objects will be streamed into the file one by one
+                    changedFilesForType.put(filename, sink -> {
+                        for (String id : objects.keySet()) {
+                            Object object = objects.get(id);
+                            writeJsonObject(gson,
+                                    sink.nextObject(typeName, IdSupport.getId(object, true, id), id), object,
+                                    prettyPrinting);
+                        }
+                    });
+                    filesToWrite++;
                 }
-                jsonStrings.get(filename).add(jsonString);
-                // }
             }
-            jsonObjects.put(typeName, jsonStrings);
+            if (!changedFilesForType.isEmpty()) {
+                changedFiles.put(typeName, changedFilesForType);
+            }
+            if (!unchangedFilesForType.isEmpty()) {
+                unchangedFiles.put(typeName, unchangedFilesForType);
+            }
 
             // collect blob data
             try {
                 Class<?> clazz = Class.forName(typeName);
                 if (Blob.class.isAssignableFrom(clazz)) {
-                    for (Object o : objectMap.get(typeName).values()) {
+                    for (Object o : map.values()) {
                         Blob blob = (Blob) o;
                         if (blob.doPersist()) {
                             blobsToPersist.add(blob);
@@ -242,22 +538,52 @@ public class ObjectPocketImpl implements ObjectPocket {
             }
 
         }
-     
-        // write backup
-        if (writeBackup) {
+
+        unchangedFiles.putAll(filesOfUnloadedTypes);
+
+        if (appendToLog) {
+            // objects that are known by the log but not anymore by this pocket
+            for (String typeName : loggedObjectHashes.keySet()) {
+                Map<String, Long> hashesForType = objectHashes.get(typeName);
+                for (String id : loggedObjectHashes.get(typeName).keySet()) {
+                    if (hashesForType == null || !hashesForType.containsKey(id)) {
+                        if (removedObjects.get(typeName) == null) {
+                            removedObjects.put(typeName, new HashSet<String>());
+                        }
+                        removedObjects.get(typeName).add(id);
+                        if (appendedIds.get(typeName) == null) {
+                            appendedIds.put(typeName, new HashSet<String>());
+                        }
+                        appendedIds.get(typeName).add(id);
+                    }
+                }
+            }
+            // append changes to the log
+            if (!changedObjects.isEmpty() || !removedObjects.isEmpty()) {
+                try {
+                    objectStore.appendJsonObjects(changedObjects, removedObjects);
+                } catch (IOException e) {
+                    throw new ObjectPocketException("Could not append changes to write ahead log.", e);
+                }
+            }
+        } else {
+            // write backup
+            if (writeBackup && !changedFiles.isEmpty()) {
+                try {
+                    objectStore.createBackup();
+                } catch (IOException e) {
+                    throw new ObjectPocketException("Could not backup current data", e);
+                }
+            }
+
+            // persist object data
             try {
-                objectStore.createBackup();
+                objectStore.writeJsonObjects(changedFiles, unchangedFiles);
             } catch (IOException e) {
-                throw new ObjectPocketException("Could not backup current data", e);
+                throw new ObjectPocketException("Could not persist objects.", e);
             }
         }
-
-        // persist object data
-        try {
-            objectStore.writeJsonObjects(jsonObjects);
-        } catch (IOException e) {
-            throw new ObjectPocketException("Could not persist objects.", e);
-        }
+        loggedObjectHashes = objectHashes;
 
         // persist blob data
         try {
@@ -268,14 +594,81 @@ public class ObjectPocketImpl implements ObjectPocket {
 
         objectStoreInitialized = true;
         dirty = false;
+        modifiedObjects.clear();
+        modifiedFiles.clear();
 
-        Logger.getAnonymousLogger().info("Stored all objects in " + objectStore.getSource() + " in "
-                + (System.currentTimeMillis() - time) + " ms.");
+        if (appendToLog) {
+            int removed = 0;
+            for (Set<String> ids : removedObjects.values()) {
+                removed += ids.size();
+            }
+            Logger.getAnonymousLogger().info("Stored all objects in " + objectStore.getSource() + " in "
+                    + (System.currentTimeMillis() - time) + " ms. Appended " + objectsToAppend
+                    + " changed and " + removed + " removed object(s) to the log.");
+            Map<String, Integer> objectCounts = new HashMap<String, Integer>();
+            for (String typeName : objectMap.keySet()) {
+                objectCounts.put(typeName, objectMap.get(typeName).size());
+            }
+            compactionScheduler.changesAppended(appendedIds, objectCounts);
+        } else {
+            if (objectHashes != null) {
+                // the log has been replaced by the written files
+                compactionScheduler.reset(Collections.<String, Set<String>> emptyMap());
+            }
+            Logger.getAnonymousLogger().info("Stored all objects in " + objectStore.getSource() + " in "
+                    + (System.currentTimeMillis() - time) + " ms. Rewrote " + filesToWrite + " changed file(s).");
+        }
+        persistIndexes();
+        evictColdTypes(Collections.<String> emptySet());
     }
 
     @Override
     public void load() throws ObjectPocketException {
+        lock.writeLock().lock();
+        try {
+            // a failed load keeps the current state
+            Map<String, Map<String, Object>> previousObjectMap = objectMap;
+            Map<Object, String> previousTracedObjects = tracedObjects;
+            IndexSupport previousIndexSupport = indexSupport;
+            Map<String, Map<String, Long>> previousLoggedObjectHashes = loggedObjectHashes;
+            Map<Object, String> previousIdsFromReadObjects = new HashMap<Object, String>(idsFromReadObjects);
+            Set<String> previousUnloadedTypes = new HashSet<String>(unloadedTypes);
+            Map<String, Map<String, Object>> previousPointReadObjects = new HashMap<String, Map<String, Object>>(
+                    pointReadObjects);
+            Map<String, Long> previousLastAccess = new HashMap<String, Long>(lastAccess);
+            Map<String, Long> previousIndexStamps = new HashMap<String, Long>(persistedIndexStamps);
+            try {
+                doLoad();
+            } catch (ObjectPocketException | RuntimeException e) {
+                objectMap = previousObjectMap;
+                tracedObjects = previousTracedObjects;
+                indexSupport = previousIndexSupport;
+                loggedObjectHashes = previousLoggedObjectHashes;
+                idsFromReadObjects.clear();
+                idsFromReadObjects.putAll(previousIdsFromReadObjects);
+                unloadedTypes.clear();
+                unloadedTypes.addAll(previousUnloadedTypes);
+                pointReadObjects.clear();
+                pointReadObjects.putAll(previousPointReadObjects);
+                lastAccess.clear();
+                lastAccess.putAll(previousLastAccess);
+                persistedIndexStamps.clear();
+                persistedIndexStamps.putAll(previousIndexStamps);
+                loading = false;
+                throw e;
+            }
+            modifiedObjects.clear();
+            modifiedFiles.clear();
+            // readers see the loaded state only when it is complete
+            readState = new ReadState(objectMap, tracedObjects, indexSupport);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void doLoad() throws ObjectPocketException {
         
+        awaitAsynchronousLoad();
         if (!objectStore.exists()) {
             throw new ObjectPocketException("The given object pocket store does not exist. " + objectStore.getSource());
         }
@@ -284,8 +677,16 @@ public class ObjectPocketImpl implements ObjectPocket {
         long timeAll = System.currentTimeMillis();
 
         idsFromReadObjects.clear();
-        tracedObjects.clear();
-        objectMap.clear();
+        // readers keep the current state until the load has finished
+        tracedObjects = new ConcurrentHashMap<Object, String>();
+        objectMap = new ConcurrentHashMap<String, Map<String, Object>>();
+        indexSupport = indexSupport.emptyCopy();
+        persistedIndexStamps.clear();
+        unloadedTypes.clear();
+        pointReadObjects.clear();
+        lastAccess.clear();
+        loggedObjectHashes = objectStore.isWriteAheadLogEnabled() ? new ConcurrentHashMap<String, Map<String, Long>>()
+                : null;
         
         /**
          * get all available object types
@@ -298,50 +699,40 @@ public class ObjectPocketImpl implements ObjectPocket {
             throw new ObjectPocketException("Could not acquire available objects.", e);
         }
 
-        // ExecutorService threadPool = Executors.newCachedThreadPool();
-
         /**
          * load json objects strings into real objects
          */
+        if (lazyLoading || maxResidentObjects > 0) {
+            // types will be loaded on first access
+            if (availableObjectTypes != null) {
+                unloadedTypes.addAll(availableObjectTypes);
+            }
+            if (objectStore.isWriteAheadLogEnabled()) {
+                compactionScheduler.reset(objectStore.getLoggedObjectIds());
+            }
+            Logger.getAnonymousLogger().info("Loaded index of " + objectStore.getSource() + " in "
+                    + (System.currentTimeMillis() - timeAll) + " ms. " + unloadedTypes.size()
+                    + " type(s) will be loaded on first access.");
+            loading = false;
+            objectStoreInitialized = true;
+            dirty = false;
+            return;
+        }
         if (availableObjectTypes != null) {
-            for (String typeName : availableObjectTypes) {
-
-                // Runnable r = new Runnable() {
-                // @Override
-                // public void run() {
-                // try {
-                // loadObjectsFromJsonStrings(typeName);
-                // } catch (ClassNotFoundException | IOException e) {
-                // //throw new
-                // ObjectPocketException("Could not load objects for type. " +
-                // typeName, e);
-                // Logger.getAnonymousLogger().log(Level.SEVERE,
-                // "Could not load objects for type. " + typeName, e);
-                // }
-                // }
-                // };
-                //
-                // threadPool.execute(r);
-
-                try {
-                    loadObjectsFromJsonStrings(typeName);
-                } catch (ClassNotFoundException | IOException e) {
-                    loading = false;
-                    throw new ObjectPocketException("Could not load objects for type. " + typeName, e);
-                }
-
+            try {
+                loadObjectTypes(availableObjectTypes);
+            } catch (ObjectPocketException e) {
+                loading = false;
+                throw e;
             }
         }
 
-        // threadPool.shutdown();
-        // try {
-        // threadPool.awaitTermination(60, TimeUnit.SECONDS);
-        // } catch (InterruptedException e) {
-        // // TODO Auto-generated catch block
-        // e.printStackTrace();
-        // }
-
         injectReferences();
+        updateIndexes(objectMap.keySet());
+
+        if (objectStore.isWriteAheadLogEnabled()) {
+            compactionScheduler.reset(objectStore.getLoggedObjectIds());
+        }
 
         Logger.getAnonymousLogger().info("Loaded all objects from " + objectStore.getSource() + " in "
                 + (System.currentTimeMillis() - timeAll) + " ms.");
@@ -352,32 +743,56 @@ public class ObjectPocketImpl implements ObjectPocket {
 
     @Override
     public void loadAsynchronous(Class<?>... preload) throws ObjectPocketException {
+        lock.writeLock().lock();
+        try {
+            doLoadAsynchronous(preload);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void doLoadAsynchronous(Class<?>... preload) throws ObjectPocketException {
         
+        awaitAsynchronousLoad();
         if (!objectStore.exists()) {
             throw new ObjectPocketException("The given object pocket store does not exist. " + objectStore.getSource());
         }
         
         loading = true;
+        // objects added while the types are loaded make the pocket dirty
+        dirty = false;
+        modifiedObjects.clear();
+        modifiedFiles.clear();
         long timeAll = System.currentTimeMillis();
+        // asynchronous loading loads all types
+        unloadedTypes.clear();
+        pointReadObjects.clear();
+        loggedObjectHashes = objectStore.isWriteAheadLogEnabled() ? new ConcurrentHashMap<String, Map<String, Long>>()
+                : null;
         /**
          * get all available object types
          */
         Set<String> availableObjectTypes = null;
         try {
             availableObjectTypes = new HashSet<String>(objectStore.getAvailableObjectTypes());
+            if (objectStore.isWriteAheadLogEnabled()) {
+                compactionScheduler.reset(objectStore.getLoggedObjectIds());
+            }
         } catch (IOException e) {
             loading = false;
             throw new ObjectPocketException("Could not acquire available objects.", e);
         }
 
+        Set<String> preloadedTypes = new HashSet<String>();
         if (preload != null) {
             for (Class<?> type : preload) {
                 if (type != null) {
                     // remove type from all types
                     availableObjectTypes.remove(type.getName());
+                    preloadedTypes.add(type.getName());
                     // preload objects for this type
                     try {
-                        loadObjectsFromJsonStrings(type.getName());
+                        loadObjectsForType(type.getName());
                     } catch (ClassNotFoundException | IOException e) {
                         loading = false;
                         throw new ObjectPocketException("Could not load objects for type. " + type.getName(), e);
@@ -387,44 +802,53 @@ public class ObjectPocketImpl implements ObjectPocket {
         }
 
         injectReferences();
+        updateIndexes(preloadedTypes);
         objectStoreInitialized = true;
 
-        final Set<String> otherTypes = availableObjectTypes;
-        // do everything else asynchronous
-        SwingWorker<Void, Void> sw = new SwingWorker<Void, Void>() {
-            @Override
-            protected Void doInBackground() throws Exception {
-                // load the rest of object types
-                for (String typeName : otherTypes) {
+        // load the rest of object types in the background
+        Set<String> otherTypes = availableObjectTypes;
+        Executor executor = loadExecutor;
+        ExecutorService threadPool = null;
+        if (executor == null) {
+            threadPool = newLoadThreadPool(Math.max(1, Math.min(loadParallelism, otherTypes.size())));
+            executor = threadPool;
+        }
+        // Gson is thread safe, but it must be configured only once
+        configureGson();
+        Map<String, CompletableFuture<Void>> futures = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+        for (String typeName : otherTypes) {
+            futures.put(typeName, CompletableFuture.runAsync(() -> {
+                try {
+                    loadObjectsForType(typeName);
+                } catch (ClassNotFoundException | IOException e) {
+                    throw new CompletionException(
+                            new ObjectPocketException("Could not load objects asynchronously for type. " + typeName, e));
+                }
+                // references to types that have not been loaded yet are
+                // injected when all types have been loaded
+                injectReferences(Collections.singleton(typeName));
+                updateIndexes(Collections.singleton(typeName));
+            }, executor));
+        }
+        typeLoads = futures;
+        final ExecutorService loadThreadPool = threadPool;
+        asynchronousLoad = CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+                .whenComplete((result, t) -> {
                     try {
-                        loadObjectsFromJsonStrings(typeName);
-                    } catch (ClassNotFoundException | IOException e) {
+                        if (t == null) {
+                            injectReferences();
+                            Logger.getAnonymousLogger().info("Loaded all objects from " + objectStore.getSource()
+                                    + " in " + (System.currentTimeMillis() - timeAll) + " ms.");
+                        } else {
+                            Logger.getAnonymousLogger().log(Level.SEVERE, "Could not load objects asynchronously.", t);
+                        }
+                    } finally {
                         loading = false;
-                        throw new ObjectPocketException("Could not load objects asynchronously for type. " + typeName,
-                                e);
+                        if (loadThreadPool != null) {
+                            loadThreadPool.shutdown();
+                        }
                     }
-                }
-                injectReferences();
-                Logger.getAnonymousLogger().info("Loaded all objects from " + objectStore.getSource() + " in "
-                        + (System.currentTimeMillis() - timeAll) + " ms.");
-                loading = false;
-                dirty = false;
-                return null;
-            }
-
-            @Override
-            protected void done() {
-                try {
-                    loading = false;
-                    get();
-                } catch (InterruptedException | ExecutionException e) {
-                    loading = false;
-                    Logger.getAnonymousLogger().severe("Could not load objects asynchronously.");
-                    e.printStackTrace();
-                }
-            }
-        };
-        sw.execute();
+                });
     }
 
     @Override
@@ -432,6 +856,85 @@ public class ObjectPocketImpl implements ObjectPocket {
         return loading;
     }
 
+    @Override
+    public CompletableFuture<Void> awaitType(Class<?> type) {
+        CompletableFuture<Void> future = type != null ? typeLoads.get(type.getName()) : null;
+        if (future == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // callers must not be able to complete the future of the load
+        return future.thenApply(result -> result);
+    }
+
+    @Override
+    public <T> void onLoaded(Class<T> type, Consumer<Collection<T>> callback) {
+        awaitType(type).thenRunAsync(() -> {
+            try {
+                callback.accept(findAll(type));
+            } catch (ObjectPocketException e) {
+                Logger.getAnonymousLogger().log(Level.SEVERE, "Could not find loaded objects of " + type.getName(), e);
+            }
+        }, getCallbackExecutor());
+    }
+
+    /**
+     * @return the configured load executor, otherwise a thread pool of this
+     *         pocket. Callbacks must not occupy the threads of a load thread
+     *         pool, as they might wait for it.
+     */
+    private synchronized Executor getCallbackExecutor() {
+        if (loadExecutor != null) {
+            return loadExecutor;
+        }
+        if (callbackExecutor == null) {
+            callbackExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ObjectPocket-callback");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return callbackExecutor;
+    }
+
+    /**
+     * Waits for the types that are still loaded by
+     * {@link #loadAsynchronous(Class...)}. A failed load has been logged.
+     */
+    private void awaitAsynchronousLoad() {
+        CompletableFuture<Void> load = asynchronousLoad;
+        if (load == null) {
+            return;
+        }
+        try {
+            load.join();
+        } catch (CompletionException e) {
+            // logged when the load failed
+        }
+    }
+
+    /**
+     * Waits until the given type has been loaded by
+     * {@link #loadAsynchronous(Class...)}. The load replaces the objects and
+     * the indexes of the type, changes made before would get lost. A failed
+     * load has been logged.
+     * 
+     * @param typeName
+     */
+    private void awaitTypeLoad(String typeName) {
+        CompletableFuture<Void> future = typeLoads.get(typeName);
+        if (future == null || future.isDone()) {
+            return;
+        }
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            // logged when the load failed
+        }
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public <T> T find(String id, Class<T> type) throws ObjectPocketException {
@@ -444,7 +947,18 @@ public class ObjectPocketImpl implements ObjectPocket {
         if (!storeIsReady()) {
             throw new ObjectPocketException("The desired location contains data. Please load the data first.");
         }
-        Map<String, Object> map = objectMap.get(type.getName());
+        // single objects of unloaded types are read without loading the type
+        if (unloadedTypes.contains(type.getName()) && readObject(type.getName(), id)) {
+            Map<String, Object> objects = pointReadObjects.get(type.getName());
+            if (objects != null && objects.get(id) != null) {
+                return (T) objects.get(id);
+            }
+            if (unloadedTypes.contains(type.getName())) {
+                return null;
+            }
+            // type has been loaded along with the referenced types
+        }
+        Map<String, Object> map = getObjects(type.getName());
         if (map != null) {
             return (T) map.get(id);
         }
@@ -458,7 +972,7 @@ public class ObjectPocketImpl implements ObjectPocket {
             if (!storeIsReady()) {
                 throw new ObjectPocketException("The desired location contains data. Please load the data first.");
             }
-            Map<String, Object> map = objectMap.get(type.getName());
+            Map<String, Object> map = getObjects(type.getName(), true);
             if (map != null && !map.isEmpty()) {
                 return new HashSet<>((Collection<T>) map.values());
             }
@@ -466,6 +980,108 @@ public class ObjectPocketImpl implements ObjectPocket {
         return null;
     }
 
+    @Override
+    public <T> Collection<T> view(Class<T> type) throws ObjectPocketException {
+        if (!storeIsReady()) {
+            throw new ObjectPocketException("The desired location contains data. Please load the data first.");
+        }
+        loadLazily(type.getName());
+        return new TypeView<T>(type);
+    }
+
+    @Override
+    public <T> Stream<T> stream(Class<T> type) throws ObjectPocketException {
+        return view(type).stream();
+    }
+
+    @Override
+    public int count(Class<?> type) throws ObjectPocketException {
+        return view(type).size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void iterate(Class<T> type, Consumer<? super T> consumer) throws ObjectPocketException {
+        if (!storeIsReady()) {
+            throw new ObjectPocketException("The desired location contains data. Please load the data first.");
+        }
+        Map<String, Object> map = getObjects(type.getName(), true);
+        if (map != null) {
+            for (Object object : map.values()) {
+                consumer.accept((T) object);
+            }
+        }
+    }
+
+    @Override
+    public <T> Collection<T> find(String fieldName, Object value, Class<T> type) throws ObjectPocketException {
+        if (fieldName == null || type == null) {
+            return null;
+        }
+        List<T> objects = query(type).where(Query.equalTo(fieldName, value)).list();
+        return objects.isEmpty() ? null : new HashSet<T>(objects);
+    }
+
+    @Override
+    public <T> Collection<T> findRange(String fieldName, Object from, Object to, Class<T> type)
+            throws ObjectPocketException {
+        return findRange(fieldName, from, true, to, true, type);
+    }
+
+    @Override
+    public <T> Collection<T> findRange(String fieldName, Object from, boolean fromInclusive, Object to,
+            boolean toInclusive, Class<T> type) throws ObjectPocketException {
+        if (fieldName == null || type == null) {
+            return null;
+        }
+        List<T> objects = query(type).where(Query.range(fieldName, from, fromInclusive, to, toInclusive))
+                .orderBy(fieldName).list();
+        return objects.isEmpty() ? null : objects;
+    }
+
+    @Override
+    public <T> Collection<T> findByPrefix(String fieldName, String prefix, Class<T> type)
+            throws ObjectPocketException {
+        if (fieldName == null || prefix == null || type == null) {
+            return null;
+        }
+        List<T> objects = query(type).where(Query.startsWith(fieldName, prefix)).orderBy(fieldName).list();
+        return objects.isEmpty() ? null : objects;
+    }
+
+    @Override
+    public <T> Query<T> query(Class<T> type) {
+        return new Query<T>(this, type);
+    }
+
+    /**
+     * Returns the objects of the given type for evaluating a {@link Query}.
+     * 
+     * @param type
+     * @param snapshot
+     *            true for an immutable snapshot of the objects
+     * @return {@code Map<id, object>}, null if there are no objects of the
+     *         given type
+     * @throws ObjectPocketException
+     */
+    Map<String, Object> getObjectsForQuery(Class<?> type, boolean snapshot) throws ObjectPocketException {
+        if (!storeIsReady()) {
+            throw new ObjectPocketException("The desired location contains data. Please load the data first.");
+        }
+        return getObjects(type.getName(), snapshot);
+    }
+
+    /**
+     * Returns the index of the given field.
+     * 
+     * @param type
+     * @param fieldName
+     * @return index, null if the field is not indexed
+     */
+    FieldIndex getFieldIndex(Class<?> type, String fieldName) {
+        return readState.indexSupport.getIndex(type, fieldName);
+    }
+
     @Override
     public void remove(Object obj) throws ObjectPocketException {
         if (obj == null) {
@@ -478,13 +1094,29 @@ public class ObjectPocketImpl implements ObjectPocket {
         if (!storeIsReady()) {
             throw new ObjectPocketException("The desired location contains data. Please load the data first.");
         }
-        Map<String, Object> map = objectMap.get(obj.getClass().getName());
-        if (map == null) {
+        lock.readLock().lock();
+        try {
+            removeObject(obj, id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeObject(Object obj, String id) throws ObjectPocketException {
+        awaitTypeLoad(obj.getClass().getName());
+        Map<String, Object> map = getObjects(obj.getClass().getName());
+        // the object might have been removed by another thread
+        if (map == null || !tracedObjects.remove(obj, id)) {
             return;
         }
-        map.remove(id);
-        tracedObjects.remove(obj);
+        map.remove(id, obj);
+        changed(obj.getClass().getName());
+        indexSupport.remove(obj);
+        String typeName = obj.getClass().getName();
+        fileModified(typeName, objectFilenames.getOrDefault(obj, typeName));
+        modifiedObjects.getOrDefault(typeName, Collections.<Object> emptySet()).remove(obj);
         dirty = true;
+        storeScheduler.changed();
         // remove referenced Blob objects
         if (!(obj instanceof Blob)) {
             for (ReferenceSupport referenceSupport : referenceSupportSet) {
@@ -502,6 +1134,16 @@ public class ObjectPocketImpl implements ObjectPocket {
 
     @Override
     public void cleanup() throws ObjectPocketException {
+        lock.writeLock().lock();
+        try {
+            doCleanup();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void doCleanup() throws ObjectPocketException {
+        awaitAsynchronousLoad();
         Logger.getAnonymousLogger().info("Start performing cleanup for " + objectStore.getSource());
         long time = System.currentTimeMillis();
         if (!storeIsReady()) {
@@ -510,7 +1152,7 @@ public class ObjectPocketImpl implements ObjectPocket {
         if (dirty) {
             throw new ObjectPocketException("The state of ObjectPocket is dirty. Please call store() or load().");
         }
-        Map<String, Object> blobMap = objectMap.get(Blob.class.getName());
+        Map<String, Object> blobMap = getObjects(Blob.class.getName());
         if (blobMap != null) {
             Collection<Object> values = blobMap.values();
             Set<Blob> blobSet = new HashSet<Blob>(values.size());
@@ -535,11 +1177,27 @@ public class ObjectPocketImpl implements ObjectPocket {
 
     @Override
     public void close() throws IOException {
-        if (objectStore != null) {
-            objectStore.close();
-        }
-        if (blobStore != null) {
-            blobStore.close();
+        // let requested stores and a running compaction finish
+        storeScheduler.shutdown();
+        compactionScheduler.shutdown();
+        lock.writeLock().lock();
+        try {
+            awaitAsynchronousLoad();
+            synchronized (this) {
+                // callbacks that have been started will be finished
+                if (callbackExecutor != null) {
+                    callbackExecutor.shutdown();
+                    callbackExecutor = null;
+                }
+            }
+            if (objectStore != null) {
+                objectStore.close();
+            }
+            if (blobStore != null) {
+                blobStore.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -548,6 +1206,16 @@ public class ObjectPocketImpl implements ObjectPocket {
         return objectStore.exists();
     }
 
+    @Override
+    public long getCompactionBacklog() {
+        return compactionScheduler.getBacklog();
+    }
+
+    @Override
+    public long getLastCompactionDuration() {
+        return compactionScheduler.getLastCompactionDuration();
+    }
+
     @Override
     public void link(ObjectPocket objectPocket) {
         throw new UnsupportedOperationException();
@@ -563,59 +1231,684 @@ public class ObjectPocketImpl implements ObjectPocket {
         throw new UnsupportedOperationException();
     }
 
-    private void loadObjectsFromJsonStrings(String typeName) throws ClassNotFoundException, IOException {
-        Class<?> clazz = Class.forName(typeName);
-        boolean setBlobStore = false;
-        if (Blob.class.isAssignableFrom(clazz)) {
-            setBlobStore = true;
+    /**
+     * Serializes the given object as root object to the given writer.
+     * 
+     * @param gson
+     * @param out
+     * @param object
+     * @param indent
+     *            true for pretty printed output
+     */
+    private void writeJsonObject(Gson gson, JsonWriter out, Object object, boolean indent) {
+        if (indent) {
+            out.setIndent("  ");
         }
-        long time = System.currentTimeMillis();
-        int counter = 0;
-        Map<String, Map<String, String>> fileToJsonObjectsMapping = objectStore.readJsonObjects(typeName);
+        serializeAsRoot.add(object);
+        gson.toJson(object, object.getClass(), out);
+    }
 
-        if (fileToJsonObjectsMapping != null && !fileToJsonObjectsMapping.isEmpty()) {
+    /**
+     * Computes the content hash for a file with the given objects, without
+     * keeping the serialized objects in memory. This equals the hash the
+     * object store records when writing the file.
+     * 
+     * @param gson
+     * @param typeName
+     * @param objects
+     *            {@code Map<id, object>}
+     * @param hashWriter
+     * @return
+     */
+    private long hashJsonObjects(Gson gson, String typeName, Map<String, Object> objects, HashWriter hashWriter) {
+        long hash = 0;
+        for (String id : objects.keySet()) {
+            Object object = objects.get(id);
+            hashWriter.reset();
+            writeJsonObject(gson, new TypeAndIdJsonWriter(hashWriter, typeName, IdSupport.getId(object, true, id)),
+                    object, prettyPrinting);
+            hash += hashWriter.getHash();
+        }
+        return hash;
+    }
 
-            HashMap<String, Object> objectAndIdMap = new HashMap<String, Object>();
+    /**
+     * Combines the content hash of an object with the file it belongs to, so
+     * that moving an object to another file counts as change.
+     * 
+     * @param contentHash
+     * @param filename
+     * @return
+     */
+    private static long objectHash(long contentHash, String filename) {
+        return contentHash * 31 + HashHelper.hash(filename);
+    }
 
-            for (String filename : fileToJsonObjectsMapping.keySet()) {
+    /**
+     * Returns the current objects of the given type, see
+     * {@link #getObjects(String, boolean)}.
+     * 
+     * @param typeName
+     * @return {@code Map<id, object>}, null if there are no objects
+     * @throws ObjectPocketException
+     */
+    private Map<String, Object> getObjects(String typeName) throws ObjectPocketException {
+        return getObjects(typeName, false);
+    }
+
+    /**
+     * Returns the objects of the given type, the type will be loaded first
+     * if necessary.
+     * 
+     * @param typeName
+     * @param snapshot
+     *            true for an immutable snapshot, that is not affected by
+     *            later changes, false for the current objects, e.g. to look
+     *            up single objects
+     * @return {@code Map<id, object>}, null if there are no objects
+     * @throws ObjectPocketException
+     */
+    private Map<String, Object> getObjects(String typeName, boolean snapshot) throws ObjectPocketException {
+        Map<String, Object> map = null;
+        do {
+            loadLazily(typeName);
+            if (maxResidentObjects > 0) {
+                lastAccess.put(typeName, accessCounter.incrementAndGet());
+            }
+            ReadState state = readState;
+            map = snapshot ? state.getSnapshot(typeName, getTypeVersion(typeName))
+                    : state.objectMap.get(typeName);
+            // the type might have been evicted by another thread meanwhile
+        } while (map == null && unloadedTypes.contains(typeName));
+        return map;
+    }
+
+    /**
+     * Publishes a change of the objects of the given type, readers take a
+     * new snapshot of the type on their next access. Has to be called after
+     * the change.
+     * 
+     * @param typeName
+     */
+    private void changed(String typeName) {
+        getTypeVersion(typeName).incrementAndGet();
+    }
 
-                Map<String, String> jsonObjects = fileToJsonObjectsMapping.get(filename);
-                Gson gson = configureGson();
+    private AtomicLong getTypeVersion(String typeName) {
+        return typeVersions.computeIfAbsent(typeName, t -> new AtomicLong());
+    }
 
-                // remove json file extension
-                filename = filename.substring(0, filename.length() - 5);
+    /**
+     * Loads the given type, if it has not been loaded yet in lazy loading
+     * mode. All types that are referenced by the loaded objects are loaded
+     * as well, so that every reference can be injected.
+     * 
+     * @param typeName
+     * @throws ObjectPocketException
+     */
+    private void loadLazily(String typeName) throws ObjectPocketException {
+        if (!unloadedTypes.contains(typeName)) {
+            return;
+        }
+        Set<String> loadedTypes = null;
+        // loading waits for a running store
+        lock.readLock().lock();
+        try {
+            synchronized (lazyLoadLock) {
+                if (!unloadedTypes.contains(typeName)) {
+                    return;
+                }
+                loadedTypes = loadTypes(Collections.singleton(typeName));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        evictColdTypes(loadedTypes);
+    }
 
-                for (String jsonObject : jsonObjects.keySet()) {
-                    Object object = gson.fromJson(jsonObject, clazz);
+    /**
+     * Reads a single object of an unloaded type, if the object store can look
+     * up single objects. Types referenced by the object will be loaded.
+     * 
+     * @param typeName
+     * @param id
+     * @return true if the lookup has been answered, false if the type has to
+     *         be loaded
+     * @throws ObjectPocketException
+     */
+    private boolean readObject(String typeName, String id) throws ObjectPocketException {
+        Set<String> loadedTypes = new HashSet<String>();
+        boolean answered = false;
+        lock.readLock().lock();
+        try {
+            synchronized (lazyLoadLock) {
+                answered = readObject(typeName, id, loadedTypes);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        evictColdTypes(loadedTypes);
+        return answered;
+    }
 
-                    // TODO: map to owning ObjectPocket
-                    // object.setOwningInstance(this);
+    /**
+     * Has to be called while holding the lazy load lock.
+     * 
+     * @param typeName
+     * @param id
+     * @param loadedTypes
+     *            receives the referenced types that have been loaded
+     * @return
+     * @throws ObjectPocketException
+     */
+    private boolean readObject(String typeName, String id, Set<String> loadedTypes) throws ObjectPocketException {
+        Map<String, Object> objects = pointReadObjects.get(typeName);
+        if (!unloadedTypes.contains(typeName) || (objects != null && objects.containsKey(id))) {
+            return true;
+        }
+        Object[] object = new Object[1];
+        try {
+            Class<?> clazz = Class.forName(typeName);
+            Gson gson = configureGson();
+            boolean answered = objectStore.readJsonObject(typeName, id, (filename, jsonId, jsonObject) -> {
+                object[0] = toObject(gson, clazz, jsonObject);
+                registerReadObject(object[0], IdSupport.getId(object[0], jsonId), filename);
+            });
+            if (!answered) {
+                return false;
+            }
+        } catch (ClassNotFoundException | IOException e) {
+            throw new ObjectPocketException("Could not read object " + id + " of type. " + typeName, e);
+        }
+        if (object[0] != null) {
+            if (objects == null) {
+                objects = new ConcurrentHashMap<String, Object>();
+                pointReadObjects.put(typeName, objects);
+            }
+            objects.put(id, object[0]);
+            // referenced objects have to be loaded for injection
+            loadedTypes.addAll(loadTypes(Collections.<String> emptySet()));
+        }
+        return true;
+    }
 
-                    if (setBlobStore) {
-                        ((Blob) object).setBlobStore(blobStore);
-                    }
+    /**
+     * Loads the given types. All types that are referenced by the loaded
+     * objects are loaded as well, so that every reference can be injected.
+     * Has to be called while holding the lazy load lock.
+     * 
+     * @param typeNames
+     * @return all types that have been loaded
+     * @throws ObjectPocketException
+     */
+    private Set<String> loadTypes(Set<String> typeNames) throws ObjectPocketException {
+        long time = System.currentTimeMillis();
+        Set<String> loadedTypes = new HashSet<String>();
+        Set<String> typesToLoad = getReferencedUnloadedTypes();
+        typesToLoad.addAll(typeNames);
+        while (!typesToLoad.isEmpty()) {
+            unloadedTypes.removeAll(typesToLoad);
+            try {
+                loadObjectTypes(typesToLoad);
+            } catch (ObjectPocketException e) {
+                unloadedTypes.addAll(typesToLoad);
+                throw e;
+            }
+            loadedTypes.addAll(typesToLoad);
+            typesToLoad = getReferencedUnloadedTypes();
+        }
+        injectReferences();
+        Map<String, Map<String, Object>> globalMap = new HashMap<String, Map<String, Object>>(objectMap);
+        for (Map<String, Object> objects : pointReadObjects.values()) {
+            for (Object object : objects.values()) {
+                for (ReferenceSupport referenceSupport : referenceSupportSet) {
+                    referenceSupport.injectReferences(object, globalMap, idsFromReadObjects);
+                }
+            }
+        }
+        // all placeholders have been replaced
+        idsFromReadObjects.clear();
+        if (loadedTypes.isEmpty()) {
+            return loadedTypes;
+        }
+        updateIndexes(loadedTypes);
+        Logger.getAnonymousLogger().info("Loaded " + loadedTypes.size() + " type(s) lazily from "
+                + objectStore.getSource() + " in " + (System.currentTimeMillis() - time) + " ms.");
+        return loadedTypes;
+    }
 
-                    String id = IdSupport.getId(object, jsonObjects.get(jsonObject));
+    /**
+     * Objects of types that have not been loaded yet are only known as
+     * placeholders.
+     * 
+     * @return
+     */
+    private Set<String> getReferencedUnloadedTypes() {
+        Set<String> typeNames = new HashSet<String>();
+        for (Object placeholder : idsFromReadObjects.keySet()) {
+            String referencedType = placeholder.getClass().getName();
+            if (unloadedTypes.contains(referencedType)) {
+                typeNames.add(referencedType);
+            }
+        }
+        return typeNames;
+    }
 
-                    tracedObjects.put(object, id);
-                    objectAndIdMap.put(id, object);
+    /**
+     * Evicts the least recently accessed types from memory, until the number
+     * of resident objects fits into the configured bound. Only types whose
+     * objects equal the stored files and that are not referenced by objects
+     * of other resident types can be evicted. Evicted types will be loaded
+     * again on next access.<br>
+     * Eviction needs exclusive access. It is skipped while the calling thread
+     * adds or removes objects and will be done by the next store.
+     * 
+     * @param keep
+     *            types that must not be evicted
+     */
+    private void evictColdTypes(Collection<String> keep) {
+        if (maxResidentObjects <= 0 || objectStore.isWriteAheadLogEnabled()) {
+            return;
+        }
+        if (!lock.isWriteLockedByCurrentThread() && lock.getReadHoldCount() > 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            evictColdTypesExclusively(keep);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void evictColdTypesExclusively(Collection<String> keep) {
+        synchronized (lazyLoadLock) {
+            long resident = 0;
+            for (Map<String, Object> map : objectMap.values()) {
+                resident += map.size();
+            }
+            if (resident <= maxResidentObjects) {
+                return;
+            }
+            long time = System.currentTimeMillis();
+            List<String> candidates = new ArrayList<String>(objectMap.keySet());
+            candidates.removeAll(keep);
+            candidates.sort(Comparator.comparingLong(typeName -> lastAccess.getOrDefault(typeName, 0L)));
+            Map<String, Set<String>> referencingTypes = getReferencingTypes();
+            Set<String> evictedTypes = new HashSet<String>();
+            Gson gson = configureGson();
+            HashWriter hashWriter = new HashWriter();
+            for (String typeName : candidates) {
+                if (resident <= maxResidentObjects) {
+                    break;
+                }
+                Set<String> referencing = referencingTypes.getOrDefault(typeName, Collections.<String> emptySet());
+                referencing.remove(typeName);
+                if (!evictedTypes.containsAll(referencing)) {
+                    continue;
+                }
+                Map<String, Object> map = objectMap.get(typeName);
+                if (!isStored(gson, typeName, map, hashWriter)) {
+                    continue;
+                }
+                evict(typeName, map);
+                evictedTypes.add(typeName);
+                resident -= map.size();
+            }
+            if (!evictedTypes.isEmpty()) {
+                Logger.getAnonymousLogger().info("Evicted " + evictedTypes.size() + " type(s) from memory in "
+                        + (System.currentTimeMillis() - time) + " ms. " + resident + " object(s) resident.");
+            }
+        }
+    }
 
-                    if (!object.getClass().getName().equals(filename)) {
-                        objectFilenames.put(object, filename);
+    /**
+     * Collects the types of all resident objects that reference objects of
+     * another type.
+     * 
+     * @return {@code Map<referencedTypeName, Set<referencingTypeName>>}
+     */
+    private Map<String, Set<String>> getReferencingTypes() {
+        Map<String, Set<String>> referencingTypes = new HashMap<String, Set<String>>();
+        Map<String, Map<String, Object>> residentObjects = new HashMap<String, Map<String, Object>>(objectMap);
+        residentObjects.putAll(pointReadObjects);
+        for (String typeName : residentObjects.keySet()) {
+            for (Object obj : residentObjects.get(typeName).values()) {
+                for (ReferenceSupport referenceSupport : referenceSupportSet) {
+                    Set<Object> references = referenceSupport.getReferences(obj);
+                    if (references != null) {
+                        for (Object reference : references) {
+                            String referencedTypeName = reference.getClass().getName();
+                            if (referencingTypes.get(referencedTypeName) == null) {
+                                referencingTypes.put(referencedTypeName, new HashSet<String>());
+                            }
+                            referencingTypes.get(referencedTypeName).add(typeName);
+                        }
                     }
+                }
+            }
+        }
+        return referencingTypes;
+    }
 
-                    counter++;
+    /**
+     * Returns true if the given objects equal the files of their type, as
+     * recorded by the object store.
+     */
+    private boolean isStored(Gson gson, String typeName, Map<String, Object> map, HashWriter hashWriter) {
+        Map<String, Map<String, Object>> objectsForFile = new HashMap<String, Map<String, Object>>();
+        for (String id : map.keySet()) {
+            Object object = map.get(id);
+            String filename = objectFilenames.get(object);
+            if (filename == null) {
+                filename = typeName;
+            }
+            if (objectsForFile.get(filename) == null) {
+                objectsForFile.put(filename, new HashMap<String, Object>());
+            }
+            objectsForFile.get(filename).put(id, object);
+        }
+        if (!objectsForFile.keySet().equals(objectStore.getFilenames(typeName))) {
+            return false;
+        }
+        Set<String> modifiedFilesForType = isTracked(typeName) ? getModifiedFiles(typeName) : null;
+        for (String filename : objectsForFile.keySet()) {
+            Long hash = objectStore.getContentHash(typeName, filename);
+            if (hash == null || (modifiedFilesForType != null ? modifiedFilesForType.contains(filename)
+                    : hash.longValue() != hashJsonObjects(gson, typeName, objectsForFile.get(filename), hashWriter))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void evict(String typeName, Map<String, Object> map) {
+        objectMap.remove(typeName);
+        changed(typeName);
+        readState.snapshots.remove(typeName);
+        for (Object obj : map.values()) {
+            tracedObjects.remove(obj);
+            objectFilenames.remove(obj);
+        }
+        if (!map.isEmpty()) {
+            for (FieldIndex index : indexSupport.getIndexes(map.values().iterator().next().getClass())) {
+                index.clear();
+            }
+        }
+        persistedIndexStamps.keySet().removeIf(key -> key.startsWith(typeName + "."));
+        lastAccess.remove(typeName);
+        unloadedTypes.add(typeName);
+    }
+
+    /**
+     * Returns the files of all types that have not been loaded yet. Types
+     * whose files can not be kept as they are, because the store does not
+     * know their content or the write ahead log contains changes for them,
+     * will be loaded instead.
+     * 
+     * @return {@code Map<typeName, Set<filename>>}
+     * @throws ObjectPocketException
+     */
+    private Map<String, Set<String>> getFilesOfUnloadedTypes() throws ObjectPocketException {
+        Map<String, Set<String>> files = new HashMap<String, Set<String>>();
+        if (unloadedTypes.isEmpty()) {
+            return files;
+        }
+        Set<String> loggedTypes = objectStore.isWriteAheadLogEnabled() ? objectStore.getLoggedObjectIds().keySet()
+                : Collections.<String> emptySet();
+        for (String typeName : new ArrayList<String>(unloadedTypes)) {
+            Set<String> filenames = objectStore.getFilenames(typeName);
+            // objects that have been read one by one might have been changed
+            boolean keep = !loggedTypes.contains(typeName) && !pointReadObjects.containsKey(typeName);
+            for (String filename : filenames) {
+                keep = keep && objectStore.getContentHash(typeName, filename) != null;
+            }
+            if (keep) {
+                files.put(typeName, filenames);
+            } else {
+                loadLazily(typeName);
+            }
+        }
+        // referenced types might have been loaded as well
+        files.keySet().retainAll(unloadedTypes);
+        return files;
+    }
+
+    /**
+     * Loads all objects of the given types. Depending on the configuration
+     * this happens one type after another or in parallel. References are not
+     * injected here.
+     * 
+     * @param typeNames
+     * @throws ObjectPocketException
+     */
+    private void loadObjectTypes(Collection<String> typeNames) throws ObjectPocketException {
+        if (typeNames.size() <= 1 || (loadExecutor == null && loadParallelism <= 1)) {
+            for (String typeName : typeNames) {
+                try {
+                    loadObjectsForType(typeName);
+                } catch (ClassNotFoundException | IOException e) {
+                    throw new ObjectPocketException("Could not load objects for type. " + typeName, e);
+                }
+            }
+            return;
+        }
+        Executor executor = loadExecutor;
+        ExecutorService threadPool = null;
+        if (executor == null) {
+            threadPool = newLoadThreadPool(Math.min(loadParallelism, typeNames.size()));
+            executor = threadPool;
+        }
+        // Gson is thread safe, but it must be configured only once
+        configureGson();
+        Map<String, CompletableFuture<Void>> futures = new HashMap<String, CompletableFuture<Void>>();
+        for (String typeName : typeNames) {
+            futures.put(typeName, CompletableFuture.runAsync(() -> {
+                try {
+                    loadObjectsForType(typeName);
+                } catch (ClassNotFoundException | IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        try {
+            // wait for all types, references can only be injected afterwards
+            for (String typeName : futures.keySet()) {
+                try {
+                    futures.get(typeName).join();
+                } catch (CompletionException e) {
+                    throw new ObjectPocketException("Could not load objects for type. " + typeName, e.getCause());
                 }
             }
+        } finally {
+            if (threadPool != null) {
+                threadPool.shutdown();
+            }
+        }
+    }
+
+    private ExecutorService newLoadThreadPool(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ObjectPocket-load");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void loadObjectsForType(String typeName) throws ClassNotFoundException, IOException {
+        Class<?> clazz = Class.forName(typeName);
+        long time = System.currentTimeMillis();
+        Gson gson = configureGson();
+        Map<String, Object> objectAndIdMap = new ConcurrentHashMap<String, Object>();
+        Map<String, Long> hashesForType = loggedObjectHashes != null ? new HashMap<String, Long>() : null;
+        HashWriter hashWriter = new HashWriter();
+        // objects that have been read one by one are kept
+        Map<String, Object> readObjects = pointReadObjects.get(typeName);
+
+        // objects are streamed from the store one by one
+        objectStore.readJsonObjects(typeName, (filename, id, jsonObject) -> {
+            Object object = toObject(gson, clazz, jsonObject);
+
+            String objectId = IdSupport.getId(object, id);
+            if (readObjects != null && readObjects.containsKey(objectId)) {
+                object = readObjects.get(objectId);
+            }
+
+            objectAndIdMap.put(objectId, object);
+            filename = registerReadObject(object, objectId, filename);
 
+            // the logged state of the object, equals the hash of the object
+            // as long as it is not modified
+            if (hashesForType != null) {
+                hashWriter.reset();
+                gson.toJson(jsonObject, new JsonWriter(hashWriter));
+                hashesForType.put(objectId, objectHash(hashWriter.getHash(), filename));
+            }
+        });
+
+        if (!objectAndIdMap.isEmpty()) {
             objectMap.put(typeName, objectAndIdMap);
+            changed(typeName);
+        }
+        pointReadObjects.remove(typeName);
+        if (hashesForType != null && loggedObjectHashes != null) {
+            loggedObjectHashes.put(typeName, hashesForType);
+        }
+        Logger.getAnonymousLogger().info("Loaded " + objectAndIdMap.size() + " objects of type\n  " + clazz.getName()
+                + " in " + (System.currentTimeMillis() - time) + " ms");
+    }
+
+    private Object toObject(Gson gson, Class<?> clazz, JsonObject jsonObject) {
+        Object object = gson.fromJson(jsonObject, clazz);
+
+        // TODO: map to owning ObjectPocket
+        // object.setOwningInstance(this);
+
+        if (object instanceof Blob) {
+            ((Blob) object).setBlobStore(blobStore);
+        }
+        return object;
+    }
+
+    /**
+     * Traces an object that has been read from the object store.
+     * 
+     * @param object
+     * @param objectId
+     * @param filename
+     *            with json file extension
+     * @return filename without json file extension
+     */
+    private String registerReadObject(Object object, String objectId, String filename) {
+        tracedObjects.put(object, objectId);
+        idGenerator.idInUse(objectId);
+        // remove json file extension
+        filename = filename.substring(0, filename.length() - 5);
+        if (!object.getClass().getName().equals(filename)) {
+            objectFilenames.put(object, filename);
+        }
+        return filename;
+    }
+
+    /**
+     * Fills the indexes of the given types after loading. Persisted indexes
+     * are restored as long as the type files have not been changed since they
+     * have been written, all others are rebuilt from the objects.
+     * 
+     * @param typeNames
+     */
+    private void updateIndexes(Collection<String> typeNames) {
+        long time = System.currentTimeMillis();
+        int restored = 0;
+        for (String typeName : typeNames) {
+            Map<String, Object> map = objectMap.get(typeName);
+            if (map == null || map.isEmpty()) {
+                continue;
+            }
+            Collection<FieldIndex> indexes = indexSupport.getIndexes(map.values().iterator().next().getClass());
+            if (indexes.isEmpty()) {
+                continue;
+            }
+            Long stamp = objectStore.getContentHash(typeName);
+            for (FieldIndex index : indexes) {
+                String fieldName = index.getField().getName();
+                if (stamp != null && FieldIndexSerializer.isPersistable(index.getField())) {
+                    try {
+                        String json = objectStore.readFieldIndex(typeName, fieldName);
+                        if (json != null && FieldIndexSerializer.fromJson(json, index, stamp, map)) {
+                            persistedIndexStamps.put(typeName + "." + fieldName, stamp);
+                            restored++;
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        Logger.getAnonymousLogger().log(Level.WARNING,
+                                "Could not read index of " + typeName + "." + fieldName + ". Rebuilding index.", e);
+                    }
+                }
+                index.clear();
+                for (Object object : map.values()) {
+                    index.add(object);
+                }
+            }
+        }
+        if (restored > 0) {
+            Logger.getAnonymousLogger().info(
+                    "Restored " + restored + " persisted index(es) in " + (System.currentTimeMillis() - time) + " ms");
+        }
+    }
 
+    /**
+     * Writes the indexes of all types whose files have been changed since the
+     * indexes have been persisted last. Failures are logged only, the indexes
+     * will be rebuilt on the next load.
+     */
+    private void persistIndexes() {
+        for (String typeName : objectMap.keySet()) {
+            Map<String, Object> map = objectMap.get(typeName);
+            if (map.isEmpty()) {
+                continue;
+            }
+            Collection<FieldIndex> indexes = indexSupport.getIndexes(map.values().iterator().next().getClass());
+            if (indexes.isEmpty()) {
+                continue;
+            }
+            Long stamp = objectStore.getContentHash(typeName);
+            if (stamp == null) {
+                continue;
+            }
+            for (FieldIndex index : indexes) {
+                String key = typeName + "." + index.getField().getName();
+                if (!FieldIndexSerializer.isPersistable(index.getField())
+                        || stamp.equals(persistedIndexStamps.get(key))) {
+                    continue;
+                }
+                String json = FieldIndexSerializer.toJson(index, stamp, tracedObjects);
+                if (json == null) {
+                    continue;
+                }
+                try {
+                    objectStore.writeFieldIndex(typeName, index.getField().getName(), json);
+                    persistedIndexStamps.put(key, stamp);
+                } catch (IOException e) {
+                    Logger.getAnonymousLogger().log(Level.WARNING, "Could not write index of " + key + ".", e);
+                }
+            }
         }
-        Logger.getAnonymousLogger().info("Loaded " + counter + " objects of type\n  " + clazz.getName() + " in "
-                + (System.currentTimeMillis() - time) + " ms");
     }
 
     private void injectReferences() {
+        injectReferences(objectMap.keySet());
+    }
+
+    /**
+     * Injects the references of the objects of the given types.
+     * 
+     * @param typeNames
+     */
+    private void injectReferences(Collection<String> typeNames) {
         long time = System.currentTimeMillis();
         for (ReferenceSupport referenceSupport : referenceSupportSet) {
             Map<String, Map<String, Object>> globalMap = new HashMap<String, Map<String, Object>>(objectMap);
@@ -623,8 +1916,12 @@ public class ObjectPocketImpl implements ObjectPocket {
             // for (JaperImpl japer : otherJapers) {
             // amendMap(globalMap, japer.objectMap);
             // }
-            for (String typeName : globalMap.keySet()) {
-                Collection<Object> values = globalMap.get(typeName).values();
+            for (String typeName : typeNames) {
+                Map<String, Object> objectsOfType = globalMap.get(typeName);
+                if (objectsOfType == null) {
+                    continue;
+                }
+                Collection<Object> values = objectsOfType.values();
                 for (Object object : values) {
                     referenceSupport.injectReferences(object, globalMap, idsFromReadObjects);
                 }
@@ -649,6 +1946,28 @@ public class ObjectPocketImpl implements ObjectPocket {
         idsFromReadObjects.put(object, id);
     }
 
+    /**
+     * Creates a {@link Ref} that has been read, the referenced object will be
+     * looked up when the reference is accessed.
+     * 
+     * @param typeName
+     * @param id
+     * @return
+     */
+    public Ref<?> createRef(String typeName, String id) {
+        return new Ref<Object>(this, typeName, id);
+    }
+
+    /**
+     * Returns the persisted form of the given {@link Ref}.
+     * 
+     * @param ref
+     * @return null if the referenced object is not known by this pocket
+     */
+    public ProxyOut getProxyOut(Ref<?> ref) {
+        return ref.toProxyOut(tracedObjects);
+    }
+
     private Gson configureGson() {
         if (gson == null) {
             GsonBuilder gsonBuilder = new GsonBuilder();
@@ -681,12 +2000,61 @@ public class ObjectPocketImpl implements ObjectPocket {
 
     public void setPrettyPrinting() {
         prettyPrinting = true;
+        compactionScheduler.setPrettyPrinting(true);
     }
     
     public void doNotWriteBackups() {
         writeBackup = false;
     }
 
+    public void setIdGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    public void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
+    public void setMaxResidentObjects(long maxResidentObjects) {
+        this.maxResidentObjects = maxResidentObjects;
+    }
+
+    public void setLoadParallelism(int loadParallelism) {
+        this.loadParallelism = loadParallelism;
+    }
+
+    int getLoadParallelism() {
+        return loadParallelism;
+    }
+
+    public void setLoadExecutor(Executor loadExecutor) {
+        this.loadExecutor = loadExecutor;
+    }
+
+    public void setCompactionThresholds(long maxLogSize, double maxGarbageRatio, long maxDelay) {
+        compactionScheduler.setMaxLogSize(maxLogSize);
+        compactionScheduler.setMaxGarbageRatio(maxGarbageRatio);
+        compactionScheduler.setMaxDelay(maxDelay);
+    }
+
+    public void setAutoSave(long debounce, long maxLatency) {
+        storeScheduler.setAutoSave(debounce, maxLatency);
+    }
+
+    public void trackModifications(Set<Class<?>> types) {
+        for (Class<?> type : types) {
+            if (type == Object.class) {
+                trackAllModifications = true;
+            } else {
+                trackedTypes.add(type.getName());
+            }
+        }
+    }
+
+    public void addIndex(Class<?> type, String fieldName, boolean sorted) {
+        indexSupport.addIndex(type, fieldName, sorted);
+    }
+
     public void setTypeAdapterMap(Map<Type, Set<Object>> typeAdapterMap) {
         this.typeAdapterMap = typeAdapterMap;
     }
@@ -729,11 +2097,135 @@ public class ObjectPocketImpl implements ObjectPocket {
     }
 
     public Set<String> getAvailableTypes() {
-        return objectMap.keySet();
+        Set<String> availableTypes = new HashSet<String>(objectMap.keySet());
+        availableTypes.addAll(unloadedTypes);
+        return availableTypes;
     }
 
     public Map<String, Object> getMapForType(String typeName) {
-        return objectMap.get(typeName);
+        try {
+            return getObjects(typeName);
+        } catch (ObjectPocketException e) {
+            Logger.getAnonymousLogger().log(Level.SEVERE, "Could not load objects for type. " + typeName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Read-only view of the objects of one type. The snapshot of the type is
+     * looked up on every access, iterators keep the snapshot they started
+     * with.
+     */
+    private class TypeView<T> extends AbstractCollection<T> {
+
+        private final Class<T> type;
+
+        private TypeView(Class<T> type) {
+            this.type = type;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterator<T> iterator() {
+            Map<String, Object> map = getMap();
+            if (map == null) {
+                return Collections.emptyIterator();
+            }
+            return (Iterator<T>) Collections.unmodifiableCollection(map.values()).iterator();
+        }
+
+        @Override
+        public int size() {
+            Map<String, Object> map = getMap();
+            return map != null ? map.size() : 0;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (o == null || o.getClass() != type) {
+                return false;
+            }
+            String id = readState.tracedObjects.get(o);
+            Map<String, Object> map = getMap();
+            // the id might have been changed by a store after the snapshot
+            return id != null && map != null && (map.get(id) == o || map.containsValue(o));
+        }
+
+        private Map<String, Object> getMap() {
+            try {
+                return getObjects(type.getName(), true);
+            } catch (ObjectPocketException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+    }
+
+    /**
+     * Objects of all loaded types as seen by readers. The maps are the same
+     * instances as used by add, remove and store, only a load replaces them.
+     * Readers that iterate the objects of a type get an immutable snapshot,
+     * it is taken again after the type has changed. Add and remove change
+     * the maps of a type in place, a store replaces the map of a type whose
+     * ids have changed.
+     */
+    private static class ReadState {
+
+        // <typeName:<id,object>>
+        private final Map<String, Map<String, Object>> objectMap;
+        // <object, id>
+        private final Map<Object, String> tracedObjects;
+        private final IndexSupport indexSupport;
+        // <typeName, snapshot> last snapshots taken of the maps
+        private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+        private ReadState(Map<String, Map<String, Object>> objectMap, Map<Object, String> tracedObjects,
+                IndexSupport indexSupport) {
+            this.objectMap = objectMap;
+            this.tracedObjects = tracedObjects;
+            this.indexSupport = indexSupport;
+        }
+
+        /**
+         * Returns a snapshot of the objects of the given type, that includes
+         * every change published by the given version before.
+         * 
+         * @param typeName
+         * @param version
+         *            incremented after each change of the type
+         * @return {@code Map<id, object>}, null if there are no objects
+         */
+        private Map<String, Object> getSnapshot(String typeName, AtomicLong version) {
+            // read before copying, changes during the copy outdate it
+            long currentVersion = version.get();
+            Snapshot snapshot = snapshots.get(typeName);
+            if (snapshot != null && snapshot.version == currentVersion) {
+                return snapshot.objects;
+            }
+            Map<String, Object> map = objectMap.get(typeName);
+            if (map == null) {
+                snapshots.remove(typeName);
+                return null;
+            }
+            snapshot = new Snapshot(currentVersion,
+                    Collections.unmodifiableMap(new HashMap<String, Object>(map)));
+            snapshots.put(typeName, snapshot);
+            return snapshot.objects;
+        }
+
+    }
+
+    private static class Snapshot {
+
+        private final long version;
+        // <id, object>
+        private final Map<String, Object> objects;
+
+        private Snapshot(long version, Map<String, Object> objects) {
+            this.version = version;
+            this.objects = objects;
+        }
+
     }
 
 }
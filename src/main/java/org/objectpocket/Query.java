@@ -0,0 +1,550 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.objectpocket.exception.ObjectPocketException;
+import org.objectpocket.index.FieldIndex;
+import org.objectpocket.index.SortedFieldIndex;
+
+/**
+ * Query over the objects of one type inside an {@link ObjectPocket}. The
+ * objects are filtered in place, without copying all objects of the type
+ * first. Field indexes are used whenever a condition allows it.
+ * 
+ * <pre>
+ * import static org.objectpocket.Query.*;
+ * 
+ * List&lt;Person&gt; persons = objectPocket.query(Person.class)
+ * 	.where(equalTo(&quot;city&quot;, &quot;Berlin&quot;))
+ * 	.and(between(&quot;age&quot;, 30, 40))
+ * 	.or(startsWith(&quot;name&quot;, &quot;M&quot;))
+ * 	.orderBy(&quot;age&quot;)
+ * 	.limit(10)
+ * 	.list();
+ * </pre>
+ * 
+ * Conditions combined with {@link #and(Condition)} bind stronger than
+ * conditions combined with {@link #or(Condition)}, the example above finds
+ * persons from Berlin between 30 and 40 and all persons whose name starts
+ * with M.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class Query<T> {
+
+    private final ObjectPocketImpl objectPocket;
+    private final Class<T> type;
+
+    // conditions inside a group are combined with and, groups with or
+    private List<List<Condition>> groups = new ArrayList<List<Condition>>();
+    private Comparator<T> comparator = null;
+    private long limit = -1;
+    private boolean parallel = false;
+
+    Query(ObjectPocketImpl objectPocket, Class<T> type) {
+        this.objectPocket = objectPocket;
+        this.type = type;
+        groups.add(new ArrayList<Condition>());
+    }
+
+    /**
+     * Condition that matches objects whose field equals the given value.
+     * 
+     * @param fieldName
+     * @param value
+     *            may be null
+     * @return
+     */
+    public static Condition equalTo(String fieldName, Object value) {
+        return new Condition(fieldName, value, null, false, null, false, null);
+    }
+
+    /**
+     * Condition that matches objects whose field value is between the given
+     * bounds, both included.
+     * 
+     * @param fieldName
+     * @param from
+     *            lower bound, null for no lower bound
+     * @param to
+     *            upper bound, null for no upper bound
+     * @return
+     */
+    public static Condition between(String fieldName, Object from, Object to) {
+        return range(fieldName, from, true, to, true);
+    }
+
+    /**
+     * Condition that matches objects whose field value is greater than the
+     * given value.
+     * 
+     * @param fieldName
+     * @param value
+     * @return
+     */
+    public static Condition greaterThan(String fieldName, Object value) {
+        return range(fieldName, value, false, null, false);
+    }
+
+    /**
+     * Condition that matches objects whose field value is less than the given
+     * value.
+     * 
+     * @param fieldName
+     * @param value
+     * @return
+     */
+    public static Condition lessThan(String fieldName, Object value) {
+        return range(fieldName, null, false, value, false);
+    }
+
+    /**
+     * Condition that matches objects whose field value is inside the given
+     * range. See
+     * {@link ObjectPocket#findRange(String, Object, boolean, Object, boolean, Class)}
+     * .
+     * 
+     * @param fieldName
+     * @param from
+     *            lower bound, null for no lower bound
+     * @param fromInclusive
+     * @param to
+     *            upper bound, null for no upper bound
+     * @param toInclusive
+     * @return
+     */
+    public static Condition range(String fieldName, Object from, boolean fromInclusive, Object to,
+            boolean toInclusive) {
+        return new Condition(fieldName, null, from, fromInclusive, to, toInclusive, null);
+    }
+
+    /**
+     * Condition that matches objects whose String field starts with the given
+     * prefix.
+     * 
+     * @param fieldName
+     * @param prefix
+     * @return
+     */
+    public static Condition startsWith(String fieldName, String prefix) {
+        // all strings that start with the prefix sort below prefix + the
+        // highest character
+        return range(fieldName, prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Condition that matches objects accepted by the given predicate. The
+     * predicate is evaluated for every object of the type, it can not be
+     * answered by an index.
+     * 
+     * @param predicate
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Condition matches(Predicate<? super T> predicate) {
+        return new Condition(null, null, null, false, null, false, (Predicate<Object>) predicate);
+    }
+
+    /**
+     * Restricts the result to objects whose field equals the given value.
+     * Same as {@code where(equalTo(fieldName, value))}.
+     * 
+     * @param fieldName
+     * @param value
+     * @return
+     */
+    public Query<T> where(String fieldName, Object value) {
+        return and(equalTo(fieldName, value));
+    }
+
+    /**
+     * Restricts the result to objects that match the given condition.
+     * 
+     * @param condition
+     * @return
+     */
+    public Query<T> where(Condition condition) {
+        return and(condition);
+    }
+
+    /**
+     * Restricts the result to objects that match the given condition in
+     * addition to all conditions since the last {@link #or(Condition)}.
+     * 
+     * @param condition
+     * @return
+     */
+    public Query<T> and(Condition condition) {
+        groups.get(groups.size() - 1).add(condition);
+        return this;
+    }
+
+    /**
+     * Extends the result by all objects that match the given condition and
+     * all conditions added with {@link #and(Condition)} after it.
+     * 
+     * @param condition
+     * @return
+     */
+    public Query<T> or(Condition condition) {
+        List<Condition> group = new ArrayList<Condition>();
+        group.add(condition);
+        groups.add(group);
+        return this;
+    }
+
+    /**
+     * Orders the result ascending by the values of the given field. Objects
+     * without value come last. Calling this method multiple times orders by
+     * every field in the order of the calls.
+     * 
+     * @param fieldName
+     *            name of a field with {@link Comparable} values
+     * @return
+     */
+    public Query<T> orderBy(String fieldName) {
+        return orderBy(fieldName, true);
+    }
+
+    /**
+     * Orders the result by the values of the given field.
+     * 
+     * @param fieldName
+     *            name of a field with {@link Comparable} values
+     * @param ascending
+     * @return
+     */
+    public Query<T> orderBy(String fieldName, boolean ascending) {
+        return orderBy(new FieldComparator<T>(fieldName, ascending));
+    }
+
+    /**
+     * Orders the result with the given comparator.
+     * 
+     * @param comparator
+     * @return
+     */
+    public Query<T> orderBy(Comparator<T> comparator) {
+        this.comparator = this.comparator == null ? comparator : this.comparator.thenComparing(comparator);
+        return this;
+    }
+
+    /**
+     * Restricts the result to the given number of objects. Without order, the
+     * evaluation stops as soon as enough objects have been found.
+     * 
+     * @param limit
+     * @return
+     */
+    public Query<T> limit(long limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Evaluates the query with a parallel stream. Only worth it for types
+     * with many objects or expensive predicates.
+     * 
+     * @return
+     */
+    public Query<T> parallel() {
+        this.parallel = true;
+        return this;
+    }
+
+    /**
+     * Evaluates the query.
+     * 
+     * @return matching objects, empty list if there are none
+     * @throws ObjectPocketException
+     *             if a field does not exist or its values are not comparable
+     *             with the given bounds
+     */
+    public List<T> list() throws ObjectPocketException {
+        return evaluate(true, s -> s.collect(Collectors.toList()));
+    }
+
+    /**
+     * Evaluates the query and returns the first matching object.
+     * 
+     * @return first object, null if there is none
+     * @throws ObjectPocketException
+     */
+    public T first() throws ObjectPocketException {
+        long originalLimit = limit;
+        limit = 1;
+        try {
+            List<T> objects = list();
+            return objects.isEmpty() ? null : objects.get(0);
+        } finally {
+            limit = originalLimit;
+        }
+    }
+
+    /**
+     * Evaluates the query and counts the matching objects, without ordering
+     * them.
+     * 
+     * @return
+     * @throws ObjectPocketException
+     */
+    public long count() throws ObjectPocketException {
+        return evaluate(false, s -> s.count());
+    }
+
+    /**
+     * Evaluates the query and maps every matching object with the given
+     * function, e.g. to read single fields.
+     * 
+     * @param projection
+     * @return projected values in the order of the matching objects
+     * @throws ObjectPocketException
+     */
+    public <R> List<R> project(Function<? super T, R> projection) throws ObjectPocketException {
+        return evaluate(true, s -> s.map(projection).collect(Collectors.toList()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R evaluate(boolean ordered, Function<Stream<T>, R> terminal) throws ObjectPocketException {
+        // the type has to be loaded before its indexes are looked up
+        Map<String, Object> map = objectPocket.getObjectsForQuery(type, false);
+        try {
+            List<List<Predicate<Object>>> filters = new ArrayList<List<Predicate<Object>>>();
+            for (List<Condition> group : groups) {
+                List<Predicate<Object>> filtersOfGroup = new ArrayList<Predicate<Object>>();
+                for (Condition condition : group) {
+                    filtersOfGroup.add(condition.toPredicate(type));
+                }
+                filters.add(filtersOfGroup);
+            }
+            Collection<Object> candidates = map != null ? candidates() : Collections.emptyList();
+            if (candidates == null) {
+                // all objects are filtered, they must not change meanwhile
+                map = objectPocket.getObjectsForQuery(type, true);
+                candidates = map != null ? map.values() : Collections.emptyList();
+            }
+            Stream<Object> stream = candidates.stream();
+            if (parallel) {
+                stream = stream.parallel();
+            }
+            stream = stream.filter(object -> matches(object, filters));
+            Stream<T> objects = (Stream<T>) stream;
+            if (ordered && comparator != null) {
+                objects = objects.sorted(comparator);
+            }
+            if (limit >= 0) {
+                objects = objects.limit(limit);
+            }
+            return terminal.apply(objects);
+        } catch (ClassCastException e) {
+            throw new ObjectPocketException("Values of " + type.getName() + " are not comparable.", e);
+        } catch (UnknownFieldException e) {
+            throw new ObjectPocketException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the objects that have to be filtered. Index lookups are only
+     * possible when every group contains an indexed condition.
+     * 
+     * @return candidates, null if all objects of the type have to be filtered
+     */
+    private Collection<Object> candidates() {
+        if (groups.size() == 1) {
+            return lookup(groups.get(0));
+        }
+        Set<Object> candidates = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (List<Condition> group : groups) {
+            Collection<Object> candidatesOfGroup = lookup(group);
+            if (candidatesOfGroup == null) {
+                return null;
+            }
+            candidates.addAll(candidatesOfGroup);
+        }
+        return candidates;
+    }
+
+    /**
+     * Looks up the candidates of a group in the index of one of its
+     * conditions, equality is preferred.
+     * 
+     * @return candidates, null if the group has no indexed condition
+     */
+    private Collection<Object> lookup(List<Condition> group) {
+        Condition rangeCondition = null;
+        SortedFieldIndex rangeIndex = null;
+        for (Condition condition : group) {
+            if (condition.fieldName == null) {
+                continue;
+            }
+            FieldIndex index = objectPocket.getFieldIndex(type, condition.fieldName);
+            if (index == null) {
+                continue;
+            }
+            if (condition.isEquality()) {
+                return index.find(condition.value);
+            }
+            if (rangeIndex == null && index instanceof SortedFieldIndex) {
+                rangeCondition = condition;
+                rangeIndex = (SortedFieldIndex) index;
+            }
+        }
+        if (rangeIndex != null) {
+            return rangeIndex.findRange(rangeCondition.from, rangeCondition.fromInclusive, rangeCondition.to,
+                    rangeCondition.toInclusive);
+        }
+        return null;
+    }
+
+    private static boolean matches(Object object, List<List<Predicate<Object>>> filters) {
+        for (List<Predicate<Object>> group : filters) {
+            boolean groupMatches = true;
+            for (Predicate<Object> filter : group) {
+                if (!filter.test(object)) {
+                    groupMatches = false;
+                    break;
+                }
+            }
+            if (groupMatches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Field getField(Class<?> type, String fieldName) {
+        Field field = FieldUtils.getField(type, fieldName, true);
+        if (field == null) {
+            throw new UnknownFieldException("Could not find field " + fieldName + " in " + type.getName());
+        }
+        return field;
+    }
+
+    private static Object readField(Field field, Object object) {
+        try {
+            return field.get(object);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not read field " + field, e);
+        }
+    }
+
+    /**
+     * Condition of a {@link Query}, created by the static methods of
+     * {@link Query}.
+     */
+    public static class Condition {
+
+        private final String fieldName;
+        private final Object value;
+        private final Object from;
+        private final boolean fromInclusive;
+        private final Object to;
+        private final boolean toInclusive;
+        private final Predicate<Object> predicate;
+
+        private Condition(String fieldName, Object value, Object from, boolean fromInclusive, Object to,
+                boolean toInclusive, Predicate<Object> predicate) {
+            this.fieldName = fieldName;
+            this.value = value;
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.predicate = predicate;
+        }
+
+        private boolean isEquality() {
+            return from == null && to == null && predicate == null;
+        }
+
+        /**
+         * Returns the predicate that evaluates this condition for objects of
+         * the given type.
+         */
+        private Predicate<Object> toPredicate(Class<?> type) {
+            if (predicate != null) {
+                return predicate;
+            }
+            Field field = getField(type, fieldName);
+            if (isEquality()) {
+                return object -> Objects.equals(readField(field, object), value);
+            }
+            return object -> SortedFieldIndex.inRange(readField(field, object), from, fromInclusive, to,
+                    toInclusive);
+        }
+
+    }
+
+    /**
+     * Compares objects by the values of a field, objects without value come
+     * last.
+     */
+    private class FieldComparator<O> implements Comparator<O> {
+
+        private final String fieldName;
+        private final boolean ascending;
+        private volatile Field field;
+
+        private FieldComparator(String fieldName, boolean ascending) {
+            this.fieldName = fieldName;
+            this.ascending = ascending;
+        }
+
+        @Override
+        public int compare(O a, O b) {
+            if (field == null) {
+                field = getField(type, fieldName);
+            }
+            Object valueA = readField(field, a);
+            Object valueB = readField(field, b);
+            if (valueA == null || valueB == null) {
+                return valueA == null ? (valueB == null ? 0 : 1) : -1;
+            }
+            int c = SortedFieldIndex.compare(valueA, valueB);
+            return ascending ? c : -c;
+        }
+
+    }
+
+    private static class UnknownFieldException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private UnknownFieldException(String message) {
+            super(message);
+        }
+
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import java.util.Map;
+
+/**
+ * Lazy reference to an object of an {@link ObjectPocket}.<br>
+ * <br>
+ * Fields of type {@link Ref} (or collections of {@link Ref}) are persisted as
+ * references like fields of {@link org.objectpocket.annotations.Entity} types.
+ * Unlike those, a loaded {@link Ref} does not require the referenced object to
+ * be loaded. The referenced object is looked up on the first call to
+ * {@link #get()}, which will load its type if the pocket has been configured
+ * with {@link ObjectPocketBuilder#lazyLoading()}.<br>
+ * <br>
+ * The referenced object will be added to the pocket along with the
+ * referencing object, as long as the {@link Ref} has been resolved.
+ * 
+ * <pre>
+ * public class Person {
+ *     Ref&lt;Address&gt; address = Ref.of(new Address());
+ * }
+ * </pre>
+ * 
+ * @author Edmund Klaus
+ *
+ * @param <T>
+ */
+public final class Ref<T> {
+
+    private volatile T target;
+
+    // reference that has been read and not been resolved yet
+    private ObjectPocketImpl objectPocket;
+    private final String typeName;
+    private final String id;
+
+    private Ref(T target) {
+        this.target = target;
+        this.typeName = null;
+        this.id = null;
+    }
+
+    Ref(ObjectPocketImpl objectPocket, String typeName, String id) {
+        this.objectPocket = objectPocket;
+        this.typeName = typeName;
+        this.id = id;
+    }
+
+    /**
+     * Creates a reference to the given object.
+     * 
+     * @param target
+     * @return
+     */
+    public static <T> Ref<T> of(T target) {
+        return new Ref<T>(target);
+    }
+
+    /**
+     * Returns the referenced object, the object will be looked up on the first
+     * call.
+     * 
+     * @return referenced object, null if the object does not exist anymore
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        T t = target;
+        if (t == null && objectPocket != null) {
+            synchronized (this) {
+                if (target == null && objectPocket != null) {
+                    Map<String, Object> map = objectPocket.getMapForType(typeName);
+                    if (map != null) {
+                        target = (T) map.get(id);
+                    }
+                    if (target != null) {
+                        objectPocket = null;
+                    }
+                }
+                t = target;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Returns true if the referenced object is known, without looking it up.
+     * 
+     * @return
+     */
+    public boolean isResolved() {
+        return target != null;
+    }
+
+    /**
+     * Returns the persisted reference.
+     * 
+     * @param idForObject
+     *            id of a traced object
+     * @return null if the referenced object is not known
+     */
+    ProxyOut toProxyOut(Map<Object, String> idForObject) {
+        T t = target;
+        if (t != null) {
+            String idForTarget = idForObject.get(t);
+            return idForTarget != null ? new ProxyOut(t.getClass().getTypeName(), idForTarget) : null;
+        }
+        return id != null ? new ProxyOut(typeName, id) : null;
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.objectpocket.exception.ObjectPocketException;
+
+/**
+ * Stores an {@link ObjectPocket} on a dedicated writer thread. Calls that
+ * arrive while a store is running are coalesced into a single follow-up
+ * store, which picks up all changes that have been made until it starts.
+ * Bursts of changes therefore cost one write instead of one write per call.
+ * <br>
+ * <br>
+ * With auto-save, every added or removed object is reported by
+ * {@link #changed()} and a store is requested as soon as
+ * <ul>
+ * <li>no change has been reported for the debounce time, or</li>
+ * <li>the max latency has passed since the first change that has not been
+ * stored yet.</li>
+ * </ul>
+ *
+ * @author Edmund Klaus
+ *
+ */
+class StoreScheduler {
+
+    private final ObjectPocket objectPocket;
+
+    private ScheduledExecutorService executor;
+    private boolean closed = false;
+    // completes with the store that has been requested but not started yet
+    private CompletableFuture<Void> pendingStore;
+
+    // auto-save, disabled while both bounds are 0
+    private long debounce = 0;
+    private long maxLatency = 0;
+    private ScheduledFuture<?> autoSave;
+    private long firstChange = -1;
+    private long lastChange = -1;
+
+    StoreScheduler(ObjectPocket objectPocket) {
+        this.objectPocket = objectPocket;
+    }
+
+    /**
+     * Requests a store. If a store has already been requested and not started
+     * yet, the request joins it.
+     *
+     * @return completes when the changes made before this call have been
+     *         written, or exceptionally if the store fails or the scheduler
+     *         has been shut down
+     */
+    synchronized CompletableFuture<Void> storeAsync() {
+        if (pendingStore == null) {
+            if (closed) {
+                CompletableFuture<Void> future = new CompletableFuture<Void>();
+                future.completeExceptionally(new ObjectPocketException("ObjectPocket has been closed."));
+                return future;
+            }
+            pendingStore = new CompletableFuture<Void>();
+            getExecutor().execute(this::runStore);
+        }
+        return pendingStore;
+    }
+
+    /**
+     * Called after an object has been added or removed. Schedules an
+     * auto-save if there is none yet. Changes after shutdown are ignored.
+     */
+    synchronized void changed() {
+        if (closed || (debounce <= 0 && maxLatency <= 0)) {
+            return;
+        }
+        lastChange = System.currentTimeMillis();
+        if (firstChange < 0) {
+            firstChange = lastChange;
+        }
+        if (autoSave == null) {
+            // changes until the auto-save is due only move the due time
+            autoSave = getExecutor().schedule(this::runAutoSave, dueTime() - lastChange, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param debounce
+     *            quiet time in ms after the last change, 0 or less to store
+     *            only by max latency
+     * @param maxLatency
+     *            time in ms after the first change that has not been stored,
+     *            0 or less to store only by debounce
+     */
+    synchronized void setAutoSave(long debounce, long maxLatency) {
+        this.debounce = debounce;
+        this.maxLatency = maxLatency;
+    }
+
+    /**
+     * Stops accepting stores. Requested stores will be finished, changes that
+     * wait for an auto-save will be stored. Stores requested afterwards fail.
+     */
+    void shutdown() {
+        ScheduledExecutorService runningExecutor = null;
+        synchronized (this) {
+            if (autoSave != null) {
+                autoSave.cancel(false);
+                autoSave = null;
+                firstChange = -1;
+                storeAsync();
+            }
+            closed = true;
+            runningExecutor = executor;
+            executor = null;
+        }
+        if (runningExecutor == null) {
+            return;
+        }
+        runningExecutor.shutdown();
+        try {
+            runningExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runStore() {
+        CompletableFuture<Void> future = null;
+        synchronized (this) {
+            // requests from now on need another store
+            future = pendingStore;
+            pendingStore = null;
+        }
+        if (future == null) {
+            return;
+        }
+        try {
+            objectPocket.store();
+            future.complete(null);
+        } catch (Throwable t) {
+            Logger.getAnonymousLogger().log(Level.SEVERE, "Asynchronous store failed.", t);
+            future.completeExceptionally(t);
+        }
+    }
+
+    private void runAutoSave() {
+        synchronized (this) {
+            if (autoSave == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long dueTime = dueTime();
+            if (now < dueTime) {
+                autoSave = getExecutor().schedule(this::runAutoSave, dueTime - now, TimeUnit.MILLISECONDS);
+                return;
+            }
+            // changes from now on need another auto-save
+            autoSave = null;
+            firstChange = -1;
+        }
+        storeAsync();
+    }
+
+    private long dueTime() {
+        if (debounce <= 0) {
+            return firstChange + maxLatency;
+        }
+        if (maxLatency <= 0) {
+            return lastChange + debounce;
+        }
+        return Math.min(lastChange + debounce, firstChange + maxLatency);
+    }
+
+    private ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ObjectPocket-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // changes of pending auto-saves are stored on shutdown
+            scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor = scheduledExecutor;
+        }
+        return executor;
+    }
+
+}
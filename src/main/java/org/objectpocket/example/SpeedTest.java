@@ -54,7 +54,7 @@ public class SpeedTest {
 
 	time = System.currentTimeMillis();
 	ObjectPocket objectPocket2 = new ObjectPocketBuilder()
-		.createFileObjectPocket(FILESTORE);
+		.index(Person.class, "name").createFileObjectPocket(FILESTORE);
 	objectPocket2.load();
 	System.out.println("LOAD: " + (System.currentTimeMillis() - time));
 	time = System.currentTimeMillis();
@@ -65,6 +65,10 @@ public class SpeedTest {
 			+ (System.currentTimeMillis() - time));
 	    }
 	}
+	time = System.currentTimeMillis();
+	objectPocket2.find("name", "name789", Person.class);
+	System.out.println("time consumed by index: "
+		+ (System.currentTimeMillis() - time));
 	
 	objectPocket.close();
 	
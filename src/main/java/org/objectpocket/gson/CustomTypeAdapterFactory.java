@@ -21,6 +21,7 @@ import java.lang.reflect.InvocationTargetException;
 
 import org.objectpocket.ObjectPocketImpl;
 import org.objectpocket.ProxyOut;
+import org.objectpocket.Ref;
 import org.objectpocket.annotations.Entity;
 import org.objectpocket.util.ReflectionUtil;
 
@@ -29,6 +30,7 @@ import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 /**
@@ -50,6 +52,42 @@ public class CustomTypeAdapterFactory implements TypeAdapterFactory {
     @Override
     public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
 
+	// Ref, always written as reference
+	if (type.getRawType() == Ref.class) {
+	    return new TypeAdapter<T>() {
+
+		// SERIALIZE
+		public void write(JsonWriter out, T ref) throws IOException {
+		    ProxyOut proxyOut = ref != null ? objectPocket
+			    .getProxyOut((Ref<?>) ref) : null;
+		    if (proxyOut != null) {
+			gson.toJson(proxyOut, ProxyOut.class, out);
+		    } else {
+			out.nullValue();
+		    }
+		}
+
+		// DESERIALIZE
+		@SuppressWarnings("unchecked")
+		@Override
+		public T read(JsonReader in) throws IOException {
+		    if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		    }
+		    in.beginObject();
+		    in.nextName();
+		    String ref = in.nextString();
+		    in.endObject();
+		    // ids may contain '@', type names never do
+		    int separator = ref.lastIndexOf("@");
+		    String id = ref.substring(0, separator);
+		    String typeName = ref.substring(separator + 1);
+		    return (T) objectPocket.createRef(typeName, id);
+		}
+	    };
+	}
+
 	TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
 
 	// @Entity
@@ -81,7 +119,7 @@ public class CustomTypeAdapterFactory implements TypeAdapterFactory {
 			in.beginObject();
 			in.nextName();
 			StringBuilder sb = new StringBuilder(in.nextString());
-			String id = sb.substring(0, sb.indexOf("@"));
+			String id = sb.substring(0, sb.lastIndexOf("@"));
 			in.endObject();
 			T obj = null;
 			try {
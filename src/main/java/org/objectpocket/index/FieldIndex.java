@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.index;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index over the values of one field of a type. The indexed objects are
+ * tracked by identity, their field values are read when an object is added or
+ * updated, so the index reflects the state of an object as of its last
+ * update.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public abstract class FieldIndex {
+
+    private final Field field;
+
+    // <object, value> value of every indexed object as it has been indexed
+    private final Map<Object, Object> indexedValues = new IdentityHashMap<Object, Object>();
+
+    protected FieldIndex(Field field) {
+        this.field = field;
+        this.field.setAccessible(true);
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Adds the given object to the index, or updates it when it has been
+     * added before.
+     * 
+     * @param obj
+     */
+    public synchronized void add(Object obj) {
+        Object value = readValue(obj);
+        if (indexedValues.containsKey(obj)) {
+            Object indexedValue = indexedValues.get(obj);
+            if (equal(indexedValue, value)) {
+                return;
+            }
+            removeValue(indexedValue, obj);
+        }
+        indexedValues.put(obj, value);
+        putValue(value, obj);
+    }
+
+    /**
+     * Adds the given object with an already known value to the index, e.g.
+     * when restoring a persisted index. The field will not be read.
+     * 
+     * @param obj
+     * @param value
+     *            current value of the indexed field
+     */
+    public synchronized void restore(Object obj, Object value) {
+        if (indexedValues.containsKey(obj)) {
+            removeValue(indexedValues.get(obj), obj);
+        }
+        indexedValues.put(obj, value);
+        putValue(value, obj);
+    }
+
+    /**
+     * Returns the value of every indexed object as it has been indexed.
+     * 
+     * @return {@code Map<object, value>} identity based copy
+     */
+    public synchronized Map<Object, Object> getIndexedValues() {
+        return new IdentityHashMap<Object, Object>(indexedValues);
+    }
+
+    /**
+     * Re-reads the field value of the given object, the object will be
+     * re-indexed if the value has changed since it has been indexed.
+     * 
+     * @param obj
+     */
+    public void update(Object obj) {
+        add(obj);
+    }
+
+    public synchronized void remove(Object obj) {
+        if (indexedValues.containsKey(obj)) {
+            removeValue(indexedValues.remove(obj), obj);
+        }
+    }
+
+    public synchronized void clear() {
+        indexedValues.clear();
+        clearValues();
+    }
+
+    /**
+     * Returns all objects that have been indexed with the given value.
+     * 
+     * @param value
+     * @return matching objects, empty set if there are none
+     */
+    public synchronized Set<Object> find(Object value) {
+        Set<Object> objects = getObjects(value);
+        if (objects == null || objects.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return new HashSet<Object>(objects);
+    }
+
+    /**
+     * Reads the current value of the indexed field from the given object.
+     * 
+     * @param obj
+     * @return
+     */
+    public Object readValue(Object obj) {
+        try {
+            return field.get(obj);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not read indexed field " + field, e);
+        }
+    }
+
+    protected static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    protected static Set<Object> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    }
+
+    protected abstract void putValue(Object value, Object obj);
+
+    protected abstract void removeValue(Object value, Object obj);
+
+    protected abstract Set<Object> getObjects(Object value);
+
+    protected abstract void clearValues();
+
+}
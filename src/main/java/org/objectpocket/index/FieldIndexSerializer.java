@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.index;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.ClassUtils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Converts a {@link FieldIndex} to json and back, so that it can be persisted
+ * next to the objects of its type instead of being rebuilt on every load.<br>
+ * <br>
+ * The json data contains a validity stamp, the content hash of the type files
+ * the index has been built from, and the ids of the indexed objects grouped
+ * by their values.
+ * 
+ * <pre>
+ * {"stamp":123,"entries":[[value,["id1","id2"]],[null,["id3"]]]}
+ * </pre>
+ * 
+ * Only fields whose values can be converted without loss are persisted:
+ * primitives and their wrappers, String, BigInteger, BigDecimal, enums and
+ * {@link Date}.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class FieldIndexSerializer {
+
+    private static final String STAMP = "stamp";
+    private static final String ENTRIES = "entries";
+
+    /**
+     * Returns true if the values of the given field can be persisted.
+     * 
+     * @param field
+     * @return
+     */
+    public static boolean isPersistable(Field field) {
+        Class<?> type = ClassUtils.primitiveToWrapper(field.getType());
+        return type == String.class || type == Character.class || type == Boolean.class || type == Byte.class
+                || type == Short.class || type == Integer.class || type == Long.class || type == Float.class
+                || type == Double.class || type == BigInteger.class || type == BigDecimal.class || type.isEnum()
+                || type == Date.class;
+    }
+
+    /**
+     * Converts the given index to json.
+     * 
+     * @param index
+     * @param stamp
+     *            content hash of the type files the index reflects
+     * @param ids
+     *            {@code Map<object, id>} ids of the indexed objects
+     * @return json data, null if an indexed object has no id
+     */
+    public static String toJson(FieldIndex index, long stamp, Map<Object, String> ids) {
+        Map<Object, List<String>> idsForValue = new HashMap<Object, List<String>>();
+        Map<Object, Object> indexedValues = index.getIndexedValues();
+        for (Object obj : indexedValues.keySet()) {
+            String id = ids.get(obj);
+            if (id == null) {
+                return null;
+            }
+            Object value = indexedValues.get(obj);
+            List<String> idsOfValue = idsForValue.get(value);
+            if (idsOfValue == null) {
+                idsOfValue = new ArrayList<String>();
+                idsForValue.put(value, idsOfValue);
+            }
+            idsOfValue.add(id);
+        }
+        JsonArray entries = new JsonArray();
+        for (Object value : idsForValue.keySet()) {
+            JsonArray idArray = new JsonArray();
+            for (String id : idsForValue.get(value)) {
+                idArray.add(id);
+            }
+            JsonArray entry = new JsonArray();
+            entry.add(toJsonValue(value));
+            entry.add(idArray);
+            entries.add(entry);
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty(STAMP, stamp);
+        json.add(ENTRIES, entries);
+        return json.toString();
+    }
+
+    /**
+     * Restores the given index from json. The index will only be restored if
+     * the json data has been written for the given stamp and covers exactly
+     * the given objects.
+     * 
+     * @param json
+     * @param index
+     *            will be cleared and filled with the restored values
+     * @param stamp
+     *            content hash of the type files the objects have been read
+     *            from
+     * @param objectsForId
+     *            {@code Map<id, object>} all objects of the indexed type
+     * @return true if the index has been restored, false if it has to be
+     *         rebuilt
+     */
+    public static boolean fromJson(String json, FieldIndex index, long stamp, Map<String, Object> objectsForId) {
+        index.clear();
+        try {
+            JsonObject jsonObject = JsonParser.parseString(json).getAsJsonObject();
+            if (jsonObject.get(STAMP).getAsLong() != stamp) {
+                return false;
+            }
+            Class<?> type = ClassUtils.primitiveToWrapper(index.getField().getType());
+            int restored = 0;
+            for (JsonElement element : jsonObject.getAsJsonArray(ENTRIES)) {
+                JsonArray entry = element.getAsJsonArray();
+                Object value = fromJsonValue(entry.get(0), type);
+                for (JsonElement id : entry.get(1).getAsJsonArray()) {
+                    Object obj = objectsForId.get(id.getAsString());
+                    if (obj == null) {
+                        index.clear();
+                        return false;
+                    }
+                    index.restore(obj, value);
+                    restored++;
+                }
+            }
+            if (restored != objectsForId.size()) {
+                index.clear();
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // corrupt or outdated index data
+            index.clear();
+            return false;
+        }
+    }
+
+    private static JsonElement toJsonValue(Object value) {
+        if (value == null) {
+            return JsonNull.INSTANCE;
+        }
+        if (value instanceof Number) {
+            return new JsonPrimitive((Number) value);
+        }
+        if (value instanceof Boolean) {
+            return new JsonPrimitive((Boolean) value);
+        }
+        if (value instanceof Enum) {
+            return new JsonPrimitive(((Enum<?>) value).name());
+        }
+        if (value instanceof Date) {
+            return new JsonPrimitive(((Date) value).getTime());
+        }
+        return new JsonPrimitive(value.toString());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object fromJsonValue(JsonElement element, Class<?> type) {
+        if (element.isJsonNull()) {
+            return null;
+        }
+        if (type == String.class) {
+            return element.getAsString();
+        } else if (type == Character.class) {
+            return element.getAsString().charAt(0);
+        } else if (type == Boolean.class) {
+            return element.getAsBoolean();
+        } else if (type == Byte.class) {
+            return element.getAsByte();
+        } else if (type == Short.class) {
+            return element.getAsShort();
+        } else if (type == Integer.class) {
+            return element.getAsInt();
+        } else if (type == Long.class) {
+            return element.getAsLong();
+        } else if (type == Float.class) {
+            return element.getAsFloat();
+        } else if (type == Double.class) {
+            return element.getAsDouble();
+        } else if (type == BigInteger.class) {
+            return element.getAsBigInteger();
+        } else if (type == BigDecimal.class) {
+            return element.getAsBigDecimal();
+        } else if (type.isEnum()) {
+            return Enum.valueOf((Class<Enum>) type, element.getAsString());
+        } else if (type == Date.class) {
+            return new Date(element.getAsLong());
+        }
+        throw new IllegalArgumentException("Values of type " + type.getName() + " can not be restored.");
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.index;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link FieldIndex} backed by a hash map, lookups by value take constant
+ * time.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class HashFieldIndex extends FieldIndex {
+
+    // <value, objects>
+    private Map<Object, Set<Object>> objectsForValue = new HashMap<Object, Set<Object>>();
+
+    public HashFieldIndex(Field field) {
+        super(field);
+    }
+
+    @Override
+    protected void putValue(Object value, Object obj) {
+        Set<Object> objects = objectsForValue.get(value);
+        if (objects == null) {
+            objects = newIdentitySet();
+            objectsForValue.put(value, objects);
+        }
+        objects.add(obj);
+    }
+
+    @Override
+    protected void removeValue(Object value, Object obj) {
+        Set<Object> objects = objectsForValue.get(value);
+        if (objects != null) {
+            objects.remove(obj);
+            if (objects.isEmpty()) {
+                objectsForValue.remove(value);
+            }
+        }
+    }
+
+    @Override
+    protected Set<Object> getObjects(Object value) {
+        return objectsForValue.get(value);
+    }
+
+    @Override
+    protected void clearValues() {
+        objectsForValue.clear();
+    }
+
+}
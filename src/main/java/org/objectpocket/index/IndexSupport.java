@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.index;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.objectpocket.annotations.Index;
+
+/**
+ * Maintains the field indexes of all types. Fields are indexed when they are
+ * annotated with {@link Index} or have been registered with
+ * {@link #addIndex(Class, String, boolean)}.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class IndexSupport {
+
+    // <typeName, <fieldName, index>>
+    private ConcurrentHashMap<String, Map<String, FieldIndex>> indexesForType = new ConcurrentHashMap<String, Map<String, FieldIndex>>();
+
+    /**
+     * Registers an index for the given field. A sorted index replaces an
+     * unsorted index of the same field.
+     * 
+     * @param type
+     * @param fieldName
+     * @param sorted
+     *            true for a {@link SortedFieldIndex}, false for a
+     *            {@link HashFieldIndex}
+     * @throws IllegalArgumentException
+     *             if the type does not declare or inherit the given field, or
+     *             if a sorted index is requested for values that are not
+     *             comparable
+     */
+    public void addIndex(Class<?> type, String fieldName, boolean sorted) throws IllegalArgumentException {
+        Field field = FieldUtils.getField(type, fieldName, true);
+        if (field == null) {
+            throw new IllegalArgumentException("Could not find field " + fieldName + " in " + type.getName());
+        }
+        Map<String, FieldIndex> indexes = getIndexMap(type);
+        FieldIndex index = indexes.get(fieldName);
+        if (sorted && !(index instanceof SortedFieldIndex)) {
+            indexes.put(fieldName, new SortedFieldIndex(field));
+        } else if (index == null) {
+            indexes.put(fieldName, new HashFieldIndex(field));
+        }
+    }
+
+    /**
+     * Returns the index for the given field.
+     * 
+     * @param type
+     * @param fieldName
+     * @return index, null if the field is not indexed
+     */
+    public FieldIndex getIndex(Class<?> type, String fieldName) {
+        return getIndexMap(type).get(fieldName);
+    }
+
+    /**
+     * Returns all indexes of the given type.
+     * 
+     * @param type
+     * @return indexes, empty if the type has no indexed fields
+     */
+    public Collection<FieldIndex> getIndexes(Class<?> type) {
+        return getIndexMap(type).values();
+    }
+
+    public void add(Object obj) {
+        for (FieldIndex index : getIndexes(obj.getClass())) {
+            index.add(obj);
+        }
+    }
+
+    public void update(Object obj) {
+        for (FieldIndex index : getIndexes(obj.getClass())) {
+            index.update(obj);
+        }
+    }
+
+    public void remove(Object obj) {
+        for (FieldIndex index : getIndexes(obj.getClass())) {
+            index.remove(obj);
+        }
+    }
+
+    /**
+     * Returns a new instance with the same indexes as this one, without any
+     * objects inside.
+     * 
+     * @return
+     */
+    public IndexSupport emptyCopy() {
+        IndexSupport copy = new IndexSupport();
+        for (String typeName : indexesForType.keySet()) {
+            Map<String, FieldIndex> indexes = new ConcurrentHashMap<String, FieldIndex>();
+            for (Map.Entry<String, FieldIndex> entry : indexesForType.get(typeName).entrySet()) {
+                Field field = entry.getValue().getField();
+                indexes.put(entry.getKey(), entry.getValue() instanceof SortedFieldIndex ? new SortedFieldIndex(field)
+                        : new HashFieldIndex(field));
+            }
+            copy.indexesForType.put(typeName, indexes);
+        }
+        return copy;
+    }
+
+    /**
+     * Removes all objects from all indexes.
+     */
+    public void clear() {
+        for (Map<String, FieldIndex> indexes : indexesForType.values()) {
+            for (FieldIndex index : indexes.values()) {
+                index.clear();
+            }
+        }
+    }
+
+    private Map<String, FieldIndex> getIndexMap(Class<?> type) {
+        Map<String, FieldIndex> indexes = indexesForType.get(type.getName());
+        if (indexes == null) {
+            // look for annotated fields once per type
+            indexes = new ConcurrentHashMap<String, FieldIndex>();
+            for (Field field : FieldUtils.getFieldsListWithAnnotation(type, Index.class)) {
+                indexes.put(field.getName(), createIndex(field, field.getAnnotation(Index.class).sorted()));
+            }
+            Map<String, FieldIndex> existing = indexesForType.putIfAbsent(type.getName(), indexes);
+            if (existing != null) {
+                indexes = existing;
+            }
+        }
+        return indexes;
+    }
+
+    private FieldIndex createIndex(Field field, boolean sorted) {
+        if (sorted) {
+            if (SortedFieldIndex.isSortable(field)) {
+                return new SortedFieldIndex(field);
+            }
+            Logger.getAnonymousLogger().severe("Values of field " + field
+                    + " are not comparable, the field will be indexed without sorting.");
+        }
+        return new HashFieldIndex(field);
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.index;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.ClassUtils;
+
+/**
+ * {@link FieldIndex} that keeps the field values ordered in a tree, lookups
+ * by value and by range of values take logarithmic time. Objects without
+ * value are indexed, but never part of a range.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class SortedFieldIndex extends FieldIndex {
+
+    // <value, objects> ordered by the natural ordering of the values
+    private TreeMap<Object, Set<Object>> objectsForValue = new TreeMap<Object, Set<Object>>();
+    private Set<Object> objectsWithoutValue = newIdentitySet();
+
+    /**
+     * @param field
+     * @throws IllegalArgumentException
+     *             if the values of the given field are not
+     *             {@link Comparable}
+     */
+    public SortedFieldIndex(Field field) throws IllegalArgumentException {
+        super(field);
+        if (!isSortable(field)) {
+            throw new IllegalArgumentException("Values of field " + field + " are not comparable.");
+        }
+    }
+
+    /**
+     * Returns all objects whose indexed value is inside the given range,
+     * ordered by their values.
+     * 
+     * @param from
+     *            lower bound, null for no lower bound
+     * @param fromInclusive
+     * @param to
+     *            upper bound, null for no upper bound
+     * @param toInclusive
+     * @return matching objects, empty list if there are none
+     * @throws ClassCastException
+     *             if the bounds can not be compared with the indexed values
+     */
+    public synchronized List<Object> findRange(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        List<Object> objects = new ArrayList<Object>();
+        if (from != null && to != null && compare(from, to) > 0) {
+            return objects;
+        }
+        NavigableMap<Object, Set<Object>> range = objectsForValue;
+        if (from != null) {
+            range = range.tailMap(from, fromInclusive);
+        }
+        if (to != null) {
+            range = range.headMap(to, toInclusive);
+        }
+        for (Set<Object> objectsInRange : range.values()) {
+            objects.addAll(objectsInRange);
+        }
+        return objects;
+    }
+
+    /**
+     * Returns true if the given value is inside the given range.
+     * 
+     * @param value
+     * @param from
+     *            lower bound, null for no lower bound
+     * @param fromInclusive
+     * @param to
+     *            upper bound, null for no upper bound
+     * @param toInclusive
+     * @return false if value is null
+     * @throws ClassCastException
+     *             if the bounds can not be compared with the value
+     */
+    public static boolean inRange(Object value, Object from, boolean fromInclusive, Object to,
+            boolean toInclusive) {
+        if (value == null) {
+            return false;
+        }
+        if (from != null) {
+            int c = compare(value, from);
+            if (c < 0 || (c == 0 && !fromInclusive)) {
+                return false;
+            }
+        }
+        if (to != null) {
+            int c = compare(value, to);
+            if (c > 0 || (c == 0 && !toInclusive)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two field values by their natural ordering.
+     * 
+     * @param a
+     * @param b
+     * @return
+     * @throws ClassCastException
+     *             if the values are not comparable with each other
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static int compare(Object a, Object b) {
+        return ((Comparable) a).compareTo(b);
+    }
+
+    /**
+     * Returns true if the values of the given field can be kept in a
+     * {@link SortedFieldIndex}.
+     * 
+     * @param field
+     * @return
+     */
+    public static boolean isSortable(Field field) {
+        return Comparable.class.isAssignableFrom(ClassUtils.primitiveToWrapper(field.getType()));
+    }
+
+    @Override
+    protected void putValue(Object value, Object obj) {
+        if (value == null) {
+            objectsWithoutValue.add(obj);
+            return;
+        }
+        Set<Object> objects = objectsForValue.get(value);
+        if (objects == null) {
+            objects = newIdentitySet();
+            objectsForValue.put(value, objects);
+        }
+        objects.add(obj);
+    }
+
+    @Override
+    protected void removeValue(Object value, Object obj) {
+        if (value == null) {
+            objectsWithoutValue.remove(obj);
+            return;
+        }
+        Set<Object> objects = objectsForValue.get(value);
+        if (objects != null) {
+            objects.remove(obj);
+            if (objects.isEmpty()) {
+                objectsForValue.remove(value);
+            }
+        }
+    }
+
+    @Override
+    protected Set<Object> getObjects(Object value) {
+        if (value == null) {
+            return objectsWithoutValue;
+        }
+        try {
+            return objectsForValue.get(value);
+        } catch (ClassCastException e) {
+            // a value of another type never equals an indexed value
+            return null;
+        }
+    }
+
+    @Override
+    protected void clearValues() {
+        objectsForValue.clear();
+        objectsWithoutValue.clear();
+    }
+
+}
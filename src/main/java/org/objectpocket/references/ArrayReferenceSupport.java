@@ -87,8 +87,8 @@ public class ArrayReferenceSupport extends ReferenceSupport {
 	    if (typeMap != null) {
 		for (int i = 0; i < readObjects.length; i++) {
 		    if (readObjects[i] != null) {
-			Object reference = typeMap.get(idsFromReadObjects
-				.get(readObjects[i]));
+			Object reference = getReference(typeMap,
+				idsFromReadObjects, readObjects[i]);
 			if (reference != null) {
 			    readObjects[i] = reference;
 			}
@@ -46,8 +46,12 @@ public class CollectionReferenceSupport extends ReferenceSupport {
 		    ParameterizedType type = (ParameterizedType) genericReturnType;
 		    Class<?> clazz;
 		    try {
-			clazz = Class.forName(type.getActualTypeArguments()[0]
-				.getTypeName());
+			Type elementType = type.getActualTypeArguments()[0];
+			if (elementType instanceof ParameterizedType) {
+			    elementType = ((ParameterizedType) elementType)
+				    .getRawType();
+			}
+			clazz = Class.forName(elementType.getTypeName());
 			if (clazz.getAnnotation(Entity.class) != null) {
 			    if (filteredFields == null) {
 				filteredFields = new ArrayList<Field>();
@@ -113,11 +117,10 @@ public class CollectionReferenceSupport extends ReferenceSupport {
 		Object[] tempArray = new Object[readObjects.size()];
 		int i = 0;
 		for (Object object : readObjects) {
-		    Object reference = typeMap.get(idsFromReadObjects
-			    .get(object));
+		    Object reference = getReference(typeMap,
+			    idsFromReadObjects, object);
 		    if (reference != null) {
-			tempArray[i] = objectMap.get(typeName).get(
-				idsFromReadObjects.get(object));
+			tempArray[i] = reference;
 		    } else {
 			tempArray[i] = object;
 		    }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.references;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectpocket.Ref;
+
+/**
+ * Supports fields of type {@link Ref} and collections of {@link Ref}. Only
+ * resolved references are reported, references that have not been accessed
+ * since loading point to objects that are stored already. References are
+ * resolved on access, so there is nothing to inject.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class RefReferenceSupport extends ReferenceSupport {
+
+    @Override
+    public List<Field> filterReferencingFields(List<Field> fields) {
+        List<Field> filteredFields = null;
+        for (Field field : fields) {
+            if (field.getType() == Ref.class || isRefCollection(field)) {
+                if (filteredFields == null) {
+                    filteredFields = new ArrayList<Field>();
+                }
+                filteredFields.add(field);
+            }
+        }
+        return filteredFields;
+    }
+
+    private boolean isRefCollection(Field field) {
+        if (Collection.class.isAssignableFrom(field.getType())
+                && field.getGenericType() instanceof ParameterizedType) {
+            Type elementType = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+            if (elementType instanceof ParameterizedType) {
+                elementType = ((ParameterizedType) elementType).getRawType();
+            }
+            return elementType == Ref.class;
+        }
+        return false;
+    }
+
+    @Override
+    public Set<Object> getObjectsForField(Object obj, Field field)
+            throws InvocationTargetException, IllegalAccessException {
+        if (field != null) {
+            field.setAccessible(true);
+            Object o = field.get(obj);
+            if (o != null) {
+                Set<Object> objects = new HashSet<Object>();
+                if (o instanceof Ref) {
+                    addTarget((Ref<?>) o, objects);
+                } else {
+                    for (Object ref : (Collection<?>) o) {
+                        if (ref != null) {
+                            addTarget((Ref<?>) ref, objects);
+                        }
+                    }
+                }
+                return objects;
+            }
+        }
+        return null;
+    }
+
+    private void addTarget(Ref<?> ref, Set<Object> objects) {
+        if (ref.isResolved()) {
+            objects.add(ref.get());
+        }
+    }
+
+    @Override
+    public void injectReferences(Object obj, Field field, Map<String, Map<String, Object>> objectMap,
+            Map<Object, String> idsFromReadObjects) throws InvocationTargetException, IllegalAccessException {
+        // references are resolved on access
+    }
+
+}
@@ -20,11 +20,12 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.objectpocket.annotations.Entity;
@@ -36,7 +37,8 @@ import org.objectpocket.annotations.Entity;
  */
 public abstract class ReferenceSupport {
 
-    private Map<String, List<Field>> fieldsForType = new HashMap<String, List<Field>>();
+    // objects are added and loaded concurrently
+    private Map<String, List<Field>> fieldsForType = new ConcurrentHashMap<String, List<Field>>();
 
     /**
      * This method needs to be implemented in order to support a specific kind
@@ -84,14 +86,32 @@ public abstract class ReferenceSupport {
 	return null;
     }
 
+    /**
+     * Looks up the object that replaces the given placeholder.
+     * 
+     * @param typeMap
+     *            {@code Map<id, object>}
+     * @param idsFromReadObjects
+     * @param placeholder
+     * @return referenced object, null if it is not known
+     */
+    protected static Object getReference(Map<String, Object> typeMap,
+	    Map<Object, String> idsFromReadObjects, Object placeholder) {
+	String id = idsFromReadObjects.get(placeholder);
+	return id != null ? typeMap.get(id) : null;
+    }
+
     private List<Field> getFields(Object obj) {
-	if (!fieldsForType.containsKey(obj.getClass().getName())) {
+	List<Field> fields = fieldsForType.get(obj.getClass().getName());
+	if (fields == null) {
 	    List<Field> allFields = FieldUtils.getAllFieldsList(obj.getClass());
-	    List<Field> filteredFields = filterTransientFields(allFields);
-	    filteredFields = filterReferencingFields(filteredFields);
-	    fieldsForType.put(obj.getClass().getName(), filteredFields);
+	    fields = filterReferencingFields(filterTransientFields(allFields));
+	    if (fields == null) {
+		fields = Collections.emptyList();
+	    }
+	    fieldsForType.put(obj.getClass().getName(), fields);
 	}
-	return fieldsForType.get(obj.getClass().getName());
+	return fields;
     }
     
     private List<Field> filterTransientFields(List<Field> fields) {
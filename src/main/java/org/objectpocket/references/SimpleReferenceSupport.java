@@ -77,8 +77,8 @@ public class SimpleReferenceSupport extends ReferenceSupport {
 	    Map<String, Object> typeMap = objectMap.get(field.getType()
 		    .getName());
 	    if (typeMap != null) {
-		Object reference = typeMap.get(idsFromReadObjects
-			.get(readObject));
+		Object reference = getReference(typeMap, idsFromReadObjects,
+			readObject);
 		if (reference != null) {
 		    field.set(obj, reference);
 		}
@@ -110,6 +110,22 @@ public class AESFileStore extends FileStore {
 	outputStreamWriter = null;
     }
 
+    /**
+     * The write ahead log would be written unencrypted.
+     */
+    @Override
+    protected boolean supportsWriteAheadLog() {
+	return false;
+    }
+
+    /**
+     * Encrypted files can not be read at an offset.
+     */
+    @Override
+    protected boolean hasPlainFiles() {
+	return false;
+    }
+
     protected String getReadErrorMessage() {
 	return "The given password might be wrong.";
     }
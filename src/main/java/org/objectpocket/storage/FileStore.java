@@ -17,26 +17,51 @@
 package org.objectpocket.storage;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.objectpocket.Blob;
+import org.objectpocket.storage.WriteAheadLog.LogEntry;
 import org.objectpocket.storage.blob.BlobStore;
+import org.objectpocket.util.HashHelper;
+import org.objectpocket.util.HashWriter;
+import org.objectpocket.util.IdSupport;
 import org.objectpocket.util.JsonHelper;
+import org.objectpocket.util.TypeAndIdJsonWriter;
+import org.objectpocket.util.Utf8CountingWriter;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
 /**
  * 
@@ -52,15 +77,44 @@ public class FileStore implements ObjectStore {
     protected final static String FILENAME_SUFFIX = ".json";
     protected final static String INDEX_FILE_NAME = "_op_index";
     protected final static String INDEX_FILE_NAME_OLD = ".op_index";
+    protected final static String FIELD_INDEX_FILE_PREFIX = INDEX_FILE_NAME + ".";
+    protected final static String OFFSETS_FILE_PREFIX = "_op_offsets.";
+    protected final static String TEMP_FILE_SUFFIX = ".tmp";
+    protected final static int WRITE_BUFFER_SIZE = 1 << 16;
+    protected final static int READ_BUFFER_SIZE = 1 << 16;
+    public final static long MAPPED_READ_THRESHOLD = 1 << 20;
     protected ObjectPocketIndex index = new ObjectPocketIndex();
     protected ObjectPocketIndex indexBackup = new ObjectPocketIndex();
 
     private BlobStore blobStore;
     private FileStoreBackup fileStoreBackup;
 
+    private boolean writeAheadLogEnabled = false;
+    private WriteAheadLog writeAheadLog;
+    // part of the log that is folded into the files by a running or an
+    // interrupted checkpoint
+    private WriteAheadLog checkpointLog;
+    // one checkpoint at a time
+    private final Object checkpointLock = new Object();
+    // incremented whenever all files are written, a running checkpoint is
+    // outdated then
+    private long writeGeneration = 0;
+    // <typeName, <id, logEntry>> changes from the write ahead log, these are
+    // applied over the stored files when reading
+    private Map<String, Map<String, LogEntry>> logEntries = new HashMap<String, Map<String, LogEntry>>();
+
+    private boolean memoryMappedReads = true;
+    // <filename, offsets> offsets of the files that have been read by point
+    // reads
+    private Map<String, ObjectOffsets> offsetsCache = new ConcurrentHashMap<String, ObjectOffsets>();
+
+    // readers share the files, a checkpoint swaps in its files, index and
+    // log exclusively
+    private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
+
     public FileStore(String directory) {
         this.directory = directory;
-        fileStoreBackup = new FileStoreBackup(this);
+        fileStoreBackup = new FileStoreBackup(new File(directory));
     }
 
     @Override
@@ -80,7 +134,20 @@ public class FileStore implements ObjectStore {
     @Override
     public Set<String> getAvailableObjectTypes() throws IOException {
         readIndexFile();
-        return index.getTypeToFilenamesMapping().keySet();
+        if (logEntries.isEmpty()) {
+            return index.getTypeToFilenamesMapping().keySet();
+        }
+        // types might have been added by the write ahead log only
+        Set<String> typeNames = new HashSet<String>(index.getTypeToFilenamesMapping().keySet());
+        for (String typeName : logEntries.keySet()) {
+            for (LogEntry entry : logEntries.get(typeName).values()) {
+                if (!entry.isRemoved()) {
+                    typeNames.add(typeName);
+                    break;
+                }
+            }
+        }
+        return typeNames;
     }
 
     @Override
@@ -90,6 +157,15 @@ public class FileStore implements ObjectStore {
             return null;
         }
 
+        fileLock.readLock().lock();
+        try {
+            return readJsonStrings(typeName);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    private Map<String, Map<String, String>> readJsonStrings(String typeName) throws IOException {
         Set<String> filenames = index.getTypeToFilenamesMapping().get(typeName);
         Map<String, Map<String, String>> objects = new HashMap<String, Map<String, String>>();
 
@@ -97,28 +173,14 @@ public class FileStore implements ObjectStore {
             for (String filename : filenames) {
 
                 Map<String, String> objectAndIdMap = new HashMap<String, String>();
+                StringBuilder stringBuilder = readFile(filename);
 
-                // maximum fast file reading
-                StringBuilder stringBuilder = new StringBuilder();
-                try (BufferedReader br = getBufferedReader(filename)) {
-                    String line = null;
-                    while ((line = br.readLine()) != null) {
-                        stringBuilder.append(line);
-                    }
-                }
-
-                String s = null;
-                // remove first occurrence of "[", as this is the start of the
-                // container array
-                // all other object splitting will work with that!
-                int index = stringBuilder.indexOf("[");
-                if (index > -1) {
-                    s = stringBuilder.substring(index + 1, stringBuilder.length());
-                } else {
+                // the objects are split directly out of the container array
+                if (stringBuilder.indexOf("[") < 0) {
                     throw new IOException("The file " + directory + "/" + filename + " does not contain valid JSON. "
                             + getReadErrorMessage());
                 }
-                List<String> jsonStrings = JsonHelper.splitToTopLevelJsonObjects(s);
+                List<String> jsonStrings = JsonHelper.splitToTopLevelJsonObjects(stringBuilder);
                 for (int i = 0; i < jsonStrings.size(); i++) {
                     String[] typeAndIdFromJson = JsonHelper.getTypeAndIdFromJson(jsonStrings.get(i));
                     if (typeAndIdFromJson[0].equals(typeName)) {
@@ -135,6 +197,161 @@ public class FileStore implements ObjectStore {
         return objects;
     }
 
+    /**
+     * Reads the stored files and the logged changes of the type as one
+     * consistent state, a running checkpoint swaps in its result afterwards.
+     */
+    @Override
+    public void readJsonObjects(String typeName, JsonObjectHandler handler) throws IOException {
+
+        if (typeName == null) {
+            return;
+        }
+
+        fileLock.readLock().lock();
+        try {
+            readJsonObjectsAndLogEntries(typeName, handler);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    private void readJsonObjectsAndLogEntries(String typeName, JsonObjectHandler handler) throws IOException {
+        Set<String> filenames = index.getTypeToFilenamesMapping().get(typeName);
+        Map<String, LogEntry> entriesForType = logEntries.get(typeName);
+
+        if (filenames != null) {
+            for (String filename : filenames) {
+                readJsonFile(typeName, filename, (f, id, jsonObject) -> {
+                    // logged objects replace the stored ones
+                    if (entriesForType == null || !entriesForType.containsKey(JsonHelper.getIdFromJson(jsonObject))) {
+                        handler.handleJsonObject(f, id, jsonObject);
+                    }
+                });
+            }
+        } else if (entriesForType == null) {
+            Logger.getAnonymousLogger().log(Level.WARNING,
+                    "File for requested type: " + typeName + " does not exist in data store.");
+        }
+        if (entriesForType != null) {
+            for (LogEntry entry : entriesForType.values()) {
+                if (!entry.isRemoved()) {
+                    JsonObject jsonObject = entry.getJsonObject();
+                    handler.handleJsonObject(entry.getFilename() + FILENAME_SUFFIX,
+                            jsonObject.get(JsonHelper.ID).getAsString(), jsonObject);
+                }
+            }
+        }
+    }
+
+    private void readJsonFile(String typeName, String filename, JsonObjectHandler handler) throws IOException {
+        try {
+            File file = memoryMappedReads && hasPlainFiles() ? initFile(filename, true, false) : null;
+            if (file != null && file.length() >= MAPPED_READ_THRESHOLD) {
+                new MappedJsonReader(file).read(element -> handleJsonElement(typeName, filename, element, handler));
+                return;
+            }
+            try (JsonReader reader = new JsonReader(getBufferedReader(filename))) {
+                reader.setLenient(true);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    handleJsonElement(typeName, filename, JsonParser.parseReader(reader), handler);
+                }
+                reader.endArray();
+            }
+        } catch (MalformedJsonException | JsonParseException | IllegalStateException e) {
+            throw new IOException("The file " + directory + "/" + filename + " does not contain valid JSON. "
+                    + getReadErrorMessage(), e);
+        }
+    }
+
+    private void handleJsonElement(String typeName, String filename, JsonElement element, JsonObjectHandler handler)
+            throws IOException {
+        if (!element.isJsonObject()) {
+            return;
+        }
+        JsonObject jsonObject = element.getAsJsonObject();
+        JsonElement type = jsonObject.get(JsonHelper.TYPE);
+        JsonElement id = jsonObject.get(JsonHelper.ID);
+        if (type != null && id != null && type.getAsString().equals(typeName)) {
+            handler.handleJsonObject(filename, id.getAsString(), jsonObject);
+        }
+    }
+
+    /**
+     * Reads the object with one positioned read, using the offsets that have
+     * been recorded next to the file when writing it. Logged changes replace
+     * the stored object.
+     */
+    @Override
+    public boolean readJsonObject(String typeName, String id, JsonObjectHandler handler) throws IOException {
+        fileLock.readLock().lock();
+        try {
+            return readJsonObjectAtOffset(typeName, id, handler);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    private boolean readJsonObjectAtOffset(String typeName, String id, JsonObjectHandler handler)
+            throws IOException {
+        Map<String, LogEntry> entriesForType = logEntries.get(typeName);
+        if (entriesForType != null && entriesForType.containsKey(id)) {
+            LogEntry entry = entriesForType.get(id);
+            if (!entry.isRemoved()) {
+                JsonObject jsonObject = entry.getJsonObject();
+                handler.handleJsonObject(entry.getFilename() + FILENAME_SUFFIX,
+                        jsonObject.get(JsonHelper.ID).getAsString(), jsonObject);
+            }
+            return true;
+        }
+        if (!hasPlainFiles()) {
+            return false;
+        }
+        Set<String> filenames = index.getTypeToFilenamesMapping().get(typeName);
+        if (filenames == null) {
+            return true;
+        }
+        Map<String, Map<String, long[]>> offsetsForType = new HashMap<String, Map<String, long[]>>();
+        for (String filename : filenames) {
+            Map<String, long[]> offsets = getObjectOffsets(typeName, filename);
+            if (offsets == null) {
+                return false;
+            }
+            offsetsForType.put(filename, offsets);
+        }
+        for (String filename : filenames) {
+            long[] offset = offsetsForType.get(filename).get(id);
+            if (offset == null) {
+                continue;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) offset[1]);
+            try (FileChannel channel = FileChannel.open(initFile(filename, true, false).toPath(),
+                    StandardOpenOption.READ)) {
+                while (buffer.hasRemaining() && channel.read(buffer, offset[0] + buffer.position()) >= 0) {
+                }
+            }
+            JsonObject jsonObject = null;
+            try {
+                JsonElement element = JsonParser.parseString(new String(buffer.array(), 0, buffer.position(),
+                        StandardCharsets.UTF_8));
+                jsonObject = element.isJsonObject() ? element.getAsJsonObject() : null;
+            } catch (JsonParseException e) {
+                // file has been changed by hand
+            }
+            if (jsonObject == null || jsonObject.get(JsonHelper.TYPE) == null
+                    || !typeName.equals(jsonObject.get(JsonHelper.TYPE).getAsString())
+                    || !id.equals(JsonHelper.getIdFromJson(jsonObject))) {
+                Logger.getAnonymousLogger().warning("Offset of object " + id + " does not match file " + directory
+                        + "/" + filename + ". " + getReadErrorMessage());
+                return false;
+            }
+            handler.handleJsonObject(filename, jsonObject.get(JsonHelper.ID).getAsString(), jsonObject);
+            return true;
+        }
+        return true;
+    }
+
     @Override
     public void writeJsonObjects(Map<String, Map<String, Set<String>>> jsonObjects) throws IOException {
         // TODO: delete file when receiving empty list!!
@@ -142,32 +359,548 @@ public class FileStore implements ObjectStore {
         // delet all files everytime before writing
         // 2. possibility:
         // delete file by file when necessary (better when using zip archive)
+        writeGeneration++;
+        deleteWriteAheadLog();
         backupCurrentIndex();
         index = new ObjectPocketIndex();
         for (String typeName : jsonObjects.keySet()) {
             Map<String, Set<String>> objectsForType = jsonObjects.get(typeName);
             for (String filename : objectsForType.keySet()) {
+                writeJsonFile(typeName, filename, objectsForType.get(filename));
+            }
+        }
+        removeUnusedFiles();
+        writeIndexFile();
+        finishWrite();
+    }
+
+    @Override
+    public synchronized void writeJsonObjects(Map<String, Map<String, JsonObjectWriter>> changedFiles,
+            Map<String, Set<String>> unchangedFiles) throws IOException {
+        // all objects are written, the logged changes are outdated now
+        writeGeneration++;
+        deleteWriteAheadLog();
+        backupCurrentIndex();
+        index = new ObjectPocketIndex();
+        for (String typeName : unchangedFiles.keySet()) {
+            for (String filename : unchangedFiles.get(typeName)) {
                 String filenameOnDisc = filename + FILENAME_SUFFIX;
-                OutputStreamWriter out = getOutputStreamWriter(filenameOnDisc);
                 addToIndex(typeName, filenameOnDisc);
-                out.write(JsonHelper.JSON_PREFIX + "\n");
-                Set<String> objectSet = objectsForType.get(filename);
-                Iterator<String> iterator = objectSet.iterator();
-                while (iterator.hasNext()) {
-                    out.write(iterator.next());
-                    if (iterator.hasNext()) {
-                        out.write(",");
-                    }
-                    out.write("\n");
+                Map<String, Long> oldHashes = indexBackup.getContentHashes().get(typeName);
+                if (oldHashes != null && oldHashes.get(filenameOnDisc) != null) {
+                    setContentHash(typeName, filenameOnDisc, oldHashes.get(filenameOnDisc));
                 }
-                out.write(JsonHelper.JSON_SUFFIX);
-                out.flush();
-                closeOutputStreamWriter(out);
+            }
+        }
+        if (writesIncrementally() && changedFiles.isEmpty() && index.equals(indexBackup) && exists()) {
+            return;
+        }
+        for (String typeName : changedFiles.keySet()) {
+            Map<String, JsonObjectWriter> filesForType = changedFiles.get(typeName);
+            for (String filename : filesForType.keySet()) {
+                long hash = writeJsonFile(typeName, filename, filesForType.get(filename));
+                setContentHash(typeName, filename + FILENAME_SUFFIX, hash);
             }
         }
         removeUnusedFiles();
-        writeIndexFile();
+        // an empty store still needs its index file to exist
+        if (!writesIncrementally() || !index.equals(indexBackup) || !exists()) {
+            writeIndexFile();
+        }
+        finishWrite();
+    }
+
+    @Override
+    public Long getContentHash(String typeName, String filename) {
+        if (!writesIncrementally()) {
+            return null;
+        }
+        String filenameOnDisc = filename + FILENAME_SUFFIX;
+        Map<String, Long> hashesForType = index.getContentHashes().get(typeName);
+        if (hashesForType == null || !hashesForType.containsKey(filenameOnDisc)) {
+            return null;
+        }
+        // file might have been removed by hand
+        if (!new File(directory + "/" + filenameOnDisc).exists()) {
+            return null;
+        }
+        return hashesForType.get(filenameOnDisc);
+    }
+
+    @Override
+    public synchronized Set<String> getFilenames(String typeName) {
+        Set<String> filenames = new HashSet<String>();
+        Set<String> filenamesOnDisc = index.getTypeToFilenamesMapping().get(typeName);
+        if (filenamesOnDisc != null) {
+            for (String filenameOnDisc : filenamesOnDisc) {
+                filenames.add(filenameOnDisc.substring(0, filenameOnDisc.length() - FILENAME_SUFFIX.length()));
+            }
+        }
+        return filenames;
+    }
+
+    @Override
+    public synchronized Long getContentHash(String typeName) {
+        // logged changes are not part of the content hashes
+        if (hasWriteAheadLog()) {
+            return null;
+        }
+        Set<String> filenames = index.getTypeToFilenamesMapping().get(typeName);
+        if (filenames == null || filenames.isEmpty()) {
+            return null;
+        }
+        long hash = 0;
+        for (String filenameOnDisc : filenames) {
+            Long contentHash = getContentHash(typeName,
+                    filenameOnDisc.substring(0, filenameOnDisc.length() - FILENAME_SUFFIX.length()));
+            if (contentHash == null) {
+                return null;
+            }
+            hash += contentHash * 31 + HashHelper.hash(filenameOnDisc);
+        }
+        return hash;
+    }
+
+    @Override
+    public String readFieldIndex(String typeName, String fieldName) throws IOException {
+        String filename = FIELD_INDEX_FILE_PREFIX + typeName + "." + fieldName;
+        if (!writesIncrementally() || !new File(directory, filename).exists()) {
+            return null;
+        }
+        return readFile(filename).toString();
+    }
+
+    /**
+     * The index file {@value #FIELD_INDEX_FILE_PREFIX}typeName.fieldName will
+     * be replaced atomically.
+     */
+    @Override
+    public synchronized void writeFieldIndex(String typeName, String fieldName, String data) throws IOException {
+        if (!writesIncrementally()) {
+            return;
+        }
+        String filename = FIELD_INDEX_FILE_PREFIX + typeName + "." + fieldName;
+        OutputStreamWriter out = getOutputStreamWriter(filename + TEMP_FILE_SUFFIX);
+        out.write(data);
+        out.flush();
+        closeOutputStreamWriter(out);
         finishWrite();
+        replaceFile(filename + TEMP_FILE_SUFFIX, filename);
+    }
+
+    @Override
+    public boolean isWriteAheadLogEnabled() {
+        return writeAheadLogEnabled;
+    }
+
+    /**
+     * Enables the write ahead log of this store. Changes will be appended to
+     * the log file {@value WriteAheadLog#FILE_NAME} inside the store directory
+     * and replayed over the stored files when reading.
+     * 
+     * @throws UnsupportedOperationException
+     *             if the store does not support a write ahead log
+     */
+    public void enableWriteAheadLog() {
+        if (!supportsWriteAheadLog()) {
+            throw new UnsupportedOperationException(
+                    "Write ahead log is not supported by " + getClass().getName());
+        }
+        writeAheadLogEnabled = true;
+    }
+
+    @Override
+    public synchronized void appendJsonObjects(Map<String, Map<String, JsonObjectWriter>> changedObjects,
+            Map<String, Set<String>> removedObjects) throws IOException {
+        if (!writeAheadLogEnabled) {
+            throw new IOException("Write ahead log is not enabled for " + directory);
+        }
+        getWriteAheadLog().append(changedObjects, removedObjects);
+    }
+
+    @Override
+    public long getWriteAheadLogSize() {
+        if (!writeAheadLogEnabled) {
+            return 0;
+        }
+        // changes are not compacted before a checkpoint has finished
+        return getWriteAheadLog().size() + getCheckpointLog().size();
+    }
+
+    @Override
+    public Map<String, Set<String>> getLoggedObjectIds() {
+        Map<String, Set<String>> ids = new HashMap<String, Set<String>>();
+        fileLock.readLock().lock();
+        try {
+            for (String typeName : logEntries.keySet()) {
+                ids.put(typeName, new HashSet<String>(logEntries.get(typeName).keySet()));
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        return ids;
+    }
+
+    /**
+     * Rewrites every file that contains logged changes. The log is moved
+     * aside to {@value WriteAheadLog#CHECKPOINT_FILE_NAME} first, changes are
+     * appended to a fresh log meanwhile. The files and the index are replaced
+     * atomically, the moved log is removed afterwards. A crash in between is
+     * harmless, as replaying the moved log again yields the same result.<br>
+     * The new files and the new index are built aside, readers keep reading
+     * the current state until all of it is swapped in at once. Appending to
+     * the log only waits while the log is moved and while the new files are
+     * swapped in.
+     */
+    @Override
+    public void checkpoint(boolean prettyPrinting) throws IOException {
+        synchronized (checkpointLock) {
+            boolean moved = false;
+            while (!moved) {
+                ObjectPocketIndex currentIndex = null;
+                long generation = 0;
+                synchronized (this) {
+                    if (!writeAheadLogEnabled || !exists()) {
+                        return;
+                    }
+                    // a log that has been moved by an interrupted checkpoint
+                    // is folded before the current one
+                    if (!getCheckpointLog().exists()) {
+                        if (!getWriteAheadLog().exists()) {
+                            return;
+                        }
+                        getWriteAheadLog().moveTo(getCheckpointLog());
+                        moved = true;
+                    }
+                    currentIndex = parseIndexFile();
+                    generation = writeGeneration;
+                }
+                compact(currentIndex, generation, prettyPrinting);
+            }
+        }
+    }
+
+    private void compact(ObjectPocketIndex currentIndex, long generation, boolean prettyPrinting)
+            throws IOException {
+        Map<String, Map<String, LogEntry>> entries = getCheckpointLog().read();
+        ObjectPocketIndex newIndex = currentIndex.clone();
+        Set<String> rewrittenFiles = new HashSet<String>();
+        // null values have only been written if the pocket serializes them
+        Gson gson = new GsonBuilder().serializeNulls().create();
+        for (String typeName : entries.keySet()) {
+            Map<String, LogEntry> entriesForType = entries.get(typeName);
+            Set<String> filenames = new HashSet<String>();
+            if (currentIndex.getTypeToFilenamesMapping().get(typeName) != null) {
+                filenames.addAll(currentIndex.getTypeToFilenamesMapping().get(typeName));
+            }
+            for (LogEntry entry : entriesForType.values()) {
+                if (!entry.isRemoved()) {
+                    filenames.add(entry.getFilename() + FILENAME_SUFFIX);
+                }
+            }
+            for (String filenameOnDisc : filenames) {
+                List<JsonObject> objects = new ArrayList<JsonObject>();
+                if (new File(directory + "/" + filenameOnDisc).exists()) {
+                    readJsonFile(typeName, filenameOnDisc, (f, id, jsonObject) -> {
+                        if (!entriesForType.containsKey(JsonHelper.getIdFromJson(jsonObject))) {
+                            objects.add(jsonObject);
+                        }
+                    });
+                }
+                String filename = filenameOnDisc.substring(0, filenameOnDisc.length() - FILENAME_SUFFIX.length());
+                for (LogEntry entry : entriesForType.values()) {
+                    if (!entry.isRemoved() && entry.getFilename().equals(filename)) {
+                        // the logged objects are handed out to readers
+                        objects.add(entry.getJsonObject().deepCopy());
+                    }
+                }
+                removeFromIndex(newIndex, typeName, filenameOnDisc);
+                if (objects.isEmpty()) {
+                    continue;
+                }
+                OutputStreamWriter out = getOutputStreamWriter(filenameOnDisc + TEMP_FILE_SUFFIX);
+                Map<String, long[]> offsets = new HashMap<String, long[]>();
+                long hash = writeJsonData(out, sink -> {
+                    for (JsonObject jsonObject : objects) {
+                        JsonWriter writer = sink.nextObject(typeName, jsonObject.get(JsonHelper.ID).getAsString(),
+                                JsonHelper.getIdFromJson(jsonObject));
+                        if (prettyPrinting) {
+                            writer.setIndent("  ");
+                        }
+                        // type and id are written by the sink
+                        jsonObject.remove(JsonHelper.TYPE);
+                        jsonObject.remove(JsonHelper.ID);
+                        gson.toJson(jsonObject, writer);
+                    }
+                }, offsets);
+                // readers of the current file ignore the offsets of the new
+                // one, as its hash is not known by their index
+                writeOffsetsFile(filenameOnDisc, filenameOnDisc + TEMP_FILE_SUFFIX, hash, offsets);
+                rewrittenFiles.add(filenameOnDisc);
+                addToIndex(newIndex, typeName, filenameOnDisc);
+                setContentHash(newIndex, typeName, filenameOnDisc, hash);
+            }
+        }
+        writeIndexFileData(getOutputStreamWriter(INDEX_FILE_NAME + TEMP_FILE_SUFFIX), newIndex);
+        synchronized (this) {
+            if (generation != writeGeneration) {
+                // all files have been written meanwhile, the moved log has
+                // been removed by then
+                for (String filenameOnDisc : rewrittenFiles) {
+                    Files.deleteIfExists(new File(directory, filenameOnDisc + TEMP_FILE_SUFFIX).toPath());
+                }
+                Files.deleteIfExists(new File(directory, INDEX_FILE_NAME + TEMP_FILE_SUFFIX).toPath());
+                return;
+            }
+            // changes appended meanwhile are applied over the new files
+            Map<String, Map<String, LogEntry>> currentEntries = getWriteAheadLog().read();
+            fileLock.writeLock().lock();
+            try {
+                for (String filenameOnDisc : rewrittenFiles) {
+                    replaceFile(filenameOnDisc + TEMP_FILE_SUFFIX, filenameOnDisc);
+                }
+                replaceFile(INDEX_FILE_NAME + TEMP_FILE_SUFFIX, INDEX_FILE_NAME);
+                indexBackup = currentIndex;
+                index = newIndex;
+                removeUnusedFiles();
+                getCheckpointLog().delete();
+                logEntries = currentEntries;
+            } finally {
+                fileLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns true if changes can be appended to a write ahead log.
+     * 
+     * @return
+     */
+    protected boolean supportsWriteAheadLog() {
+        return writesIncrementally();
+    }
+
+    private WriteAheadLog getWriteAheadLog() {
+        if (writeAheadLog == null) {
+            writeAheadLog = new WriteAheadLog(new File(directory, WriteAheadLog.FILE_NAME), encoding);
+        }
+        return writeAheadLog;
+    }
+
+    private WriteAheadLog getCheckpointLog() {
+        if (checkpointLog == null) {
+            checkpointLog = new WriteAheadLog(new File(directory, WriteAheadLog.CHECKPOINT_FILE_NAME), encoding);
+        }
+        return checkpointLog;
+    }
+
+    /**
+     * Returns true if there are logged changes, that have not been folded
+     * into the files yet.
+     * 
+     * @return
+     */
+    private boolean hasWriteAheadLog() {
+        return writeAheadLogEnabled && (getWriteAheadLog().exists() || getCheckpointLog().exists());
+    }
+
+    /**
+     * Reads the log that is folded by a checkpoint and the current log. The
+     * changes of the current log are the newer ones.
+     * 
+     * @return {@code Map<typeName, Map<id, LogEntry>>}
+     * @throws IOException
+     */
+    private Map<String, Map<String, LogEntry>> readWriteAheadLog() throws IOException {
+        Map<String, Map<String, LogEntry>> entries = getCheckpointLog().read();
+        Map<String, Map<String, LogEntry>> currentEntries = getWriteAheadLog().read();
+        for (String typeName : currentEntries.keySet()) {
+            Map<String, LogEntry> entriesForType = entries.get(typeName);
+            if (entriesForType == null) {
+                entries.put(typeName, currentEntries.get(typeName));
+            } else {
+                entriesForType.putAll(currentEntries.get(typeName));
+            }
+        }
+        return entries;
+    }
+
+    private void deleteWriteAheadLog() throws IOException {
+        if (writeAheadLogEnabled) {
+            getWriteAheadLog().delete();
+            getCheckpointLog().delete();
+        }
+        logEntries = new HashMap<String, Map<String, LogEntry>>();
+    }
+
+    private void replaceFile(String source, String target) throws IOException {
+        Files.move(new File(directory, source).toPath(), new File(directory, target).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns true if single files of the store can be rewritten while all
+     * others are kept untouched.
+     * 
+     * @return
+     */
+    protected boolean writesIncrementally() {
+        return true;
+    }
+
+    /**
+     * Returns true if the files of the store are plain UTF-8 files on disk,
+     * that can be read at any offset. The byte range of every written object
+     * will be recorded next to its file, see
+     * {@link #readJsonObject(String, String, JsonObjectHandler)}, and large
+     * files will be read memory mapped.
+     * 
+     * @return
+     */
+    protected boolean hasPlainFiles() {
+        return writesIncrementally() && Charset.forName(encoding).equals(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Records the byte range of every object of a written file in the file
+     * {@value #OFFSETS_FILE_PREFIX}filename next to it. The offsets are
+     * stamped with the content hash and the length of the file, so that they
+     * will be ignored once the file has been replaced.
+     * 
+     * @param filenameOnDisc
+     * @param writtenFilename
+     *            file the data has been written to
+     * @param hash
+     *            content hash of the file
+     * @param offsets
+     *            {@code Map<id, [offset, length]>}, empty if the offsets of
+     *            the file are not known
+     * @throws IOException
+     */
+    private void writeOffsetsFile(String filenameOnDisc, String writtenFilename, long hash,
+            Map<String, long[]> offsets) throws IOException {
+        if (!hasPlainFiles()) {
+            return;
+        }
+        String offsetsFilename = getOffsetsFilename(filenameOnDisc);
+        offsetsCache.remove(filenameOnDisc);
+        if (offsets.isEmpty()) {
+            Files.deleteIfExists(new File(directory, offsetsFilename).toPath());
+            return;
+        }
+        ObjectOffsets objectOffsets = new ObjectOffsets(hash, new File(directory, writtenFilename).length(), offsets);
+        OutputStreamWriter out = getOutputStreamWriter(offsetsFilename + TEMP_FILE_SUFFIX);
+        out.write(new Gson().toJson(objectOffsets));
+        out.flush();
+        closeOutputStreamWriter(out);
+        replaceFile(offsetsFilename + TEMP_FILE_SUFFIX, offsetsFilename);
+    }
+
+    /**
+     * Returns the offsets of the objects inside the given file. They are
+     * read on first access only.
+     * 
+     * @param typeName
+     * @param filenameOnDisc
+     * @return {@code Map<id, [offset, length]>}, null if the offsets of the
+     *         current file are not known
+     */
+    private Map<String, long[]> getObjectOffsets(String typeName, String filenameOnDisc) {
+        Map<String, Long> hashesForType = index.getContentHashes().get(typeName);
+        Long hash = hashesForType != null ? hashesForType.get(filenameOnDisc) : null;
+        if (hash == null) {
+            return null;
+        }
+        long length = new File(directory, filenameOnDisc).length();
+        ObjectOffsets objectOffsets = offsetsCache.get(filenameOnDisc);
+        if (objectOffsets == null || !objectOffsets.matches(hash, length)) {
+            String offsetsFilename = getOffsetsFilename(filenameOnDisc);
+            if (!new File(directory, offsetsFilename).exists()) {
+                return null;
+            }
+            try {
+                objectOffsets = new Gson().fromJson(readFile(offsetsFilename).toString(), ObjectOffsets.class);
+            } catch (IOException | JsonParseException e) {
+                Logger.getAnonymousLogger().log(Level.WARNING, "Could not read offsets of " + directory + "/"
+                        + filenameOnDisc + ". " + getReadErrorMessage(), e);
+                return null;
+            }
+            if (objectOffsets == null || objectOffsets.offsets == null || !objectOffsets.matches(hash, length)) {
+                return null;
+            }
+            offsetsCache.put(filenameOnDisc, objectOffsets);
+        }
+        return objectOffsets.offsets;
+    }
+
+    private static String getOffsetsFilename(String filenameOnDisc) {
+        return OFFSETS_FILE_PREFIX + filenameOnDisc.substring(0, filenameOnDisc.length() - FILENAME_SUFFIX.length());
+    }
+
+    private void setContentHash(String typeName, String filenameOnDisc, long hash) {
+        setContentHash(index, typeName, filenameOnDisc, hash);
+    }
+
+    private void setContentHash(ObjectPocketIndex index, String typeName, String filenameOnDisc, long hash) {
+        if (index.getContentHashes().get(typeName) == null) {
+            index.getContentHashes().put(typeName, new HashMap<String, Long>());
+        }
+        index.getContentHashes().get(typeName).put(filenameOnDisc, hash);
+    }
+
+    private long writeJsonFile(String typeName, String filename, JsonObjectWriter objectWriter)
+            throws IOException {
+        String filenameOnDisc = filename + FILENAME_SUFFIX;
+        OutputStreamWriter out = getOutputStreamWriter(filenameOnDisc);
+        addToIndex(typeName, filenameOnDisc);
+        Map<String, long[]> offsets = new HashMap<String, long[]>();
+        long hash = writeJsonData(out, objectWriter, offsets);
+        writeOffsetsFile(filenameOnDisc, filenameOnDisc, hash, offsets);
+        return hash;
+    }
+
+    /**
+     * @param out
+     * @param objectWriter
+     * @param offsets
+     *            receives the byte range of every object,
+     *            {@code Map<id, [offset, length]>}, will be cleared if the
+     *            id of an object is not known
+     * @return content hash
+     * @throws IOException
+     */
+    private long writeJsonData(OutputStreamWriter out, JsonObjectWriter objectWriter, Map<String, long[]> offsets)
+            throws IOException {
+        Utf8CountingWriter writer = new Utf8CountingWriter(new BufferedWriter(out, WRITE_BUFFER_SIZE));
+        writer.write(JsonHelper.JSON_PREFIX + "\n");
+        FileJsonObjectSink sink = new FileJsonObjectSink(writer, offsets);
+        objectWriter.writeJsonObjects(sink);
+        long hash = sink.finish();
+        writer.write(JsonHelper.JSON_SUFFIX);
+        writer.flush();
+        closeOutputStreamWriter(out);
+        if (!sink.offsetsComplete) {
+            offsets.clear();
+        }
+        return hash;
+    }
+
+    private void writeJsonFile(String typeName, String filename, Set<String> objectSet) throws IOException {
+        String filenameOnDisc = filename + FILENAME_SUFFIX;
+        OutputStreamWriter out = getOutputStreamWriter(filenameOnDisc);
+        addToIndex(typeName, filenameOnDisc);
+        out.write(JsonHelper.JSON_PREFIX + "\n");
+        Iterator<String> iterator = objectSet.iterator();
+        while (iterator.hasNext()) {
+            out.write(iterator.next());
+            if (iterator.hasNext()) {
+                out.write(",");
+            }
+            out.write("\n");
+        }
+        out.write(JsonHelper.JSON_SUFFIX);
+        out.flush();
+        closeOutputStreamWriter(out);
     }
 
     @Override
@@ -196,7 +929,12 @@ public class FileStore implements ObjectStore {
 
     @Override
     public void close() throws IOException {
-        this.blobStore.close();
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+        if (this.blobStore != null) {
+            this.blobStore.close();
+        }
     }
 
     @Override
@@ -214,6 +952,18 @@ public class FileStore implements ObjectStore {
         this.encoding = encoding;
     }
 
+    /**
+     * Files that are larger than {@link #MAPPED_READ_THRESHOLD} are read
+     * through a memory mapped buffer by default. Mapped files are released by
+     * the garbage collector, on Windows they can not be replaced until then.
+     * 
+     * @param memoryMappedReads
+     *            false to read all files through a reader
+     */
+    public void setMemoryMappedReads(boolean memoryMappedReads) {
+        this.memoryMappedReads = memoryMappedReads;
+    }
+
     protected OutputStreamWriter getOutputStreamWriter(String filename) throws IOException {
         File file = initFile(filename, true, true);
         OutputStreamWriter outputStreamWriter = new OutputStreamWriter(new FileOutputStream(file), encoding);
@@ -229,6 +979,30 @@ public class FileStore implements ObjectStore {
         return new BufferedReader(new InputStreamReader(new FileInputStream(file), encoding));
     }
 
+    /**
+     * Reads the whole content of the given file in chunks of
+     * {@value #READ_BUFFER_SIZE} chars. Line breaks are kept, as they might be
+     * part of string values.
+     *
+     * @param filename
+     * @return file content
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    protected StringBuilder readFile(String filename) throws IOException {
+        // a plain UTF-8 file never has more chars than bytes
+        long length = hasPlainFiles() ? new File(directory, filename).length() : 0;
+        StringBuilder sb = new StringBuilder((int) Math.min(Math.max(length, 16), Integer.MAX_VALUE - 8));
+        try (BufferedReader br = getBufferedReader(filename)) {
+            char[] buffer = new char[READ_BUFFER_SIZE];
+            int read = 0;
+            while ((read = br.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+        }
+        return sb;
+    }
+
     protected void finishWrite() throws IOException {
 
     }
@@ -278,20 +1052,45 @@ public class FileStore implements ObjectStore {
         return dir;
     }
 
+    private void removeFromIndex(ObjectPocketIndex index, String typeName, String filename) {
+        Set<String> filenames = index.getTypeToFilenamesMapping().get(typeName);
+        if (filenames != null) {
+            filenames.remove(filename);
+            if (filenames.isEmpty()) {
+                index.getTypeToFilenamesMapping().remove(typeName);
+            }
+        }
+        Map<String, Long> hashesForType = index.getContentHashes().get(typeName);
+        if (hashesForType != null) {
+            hashesForType.remove(filename);
+            if (hashesForType.isEmpty()) {
+                index.getContentHashes().remove(typeName);
+            }
+        }
+    }
+
     protected void addToIndex(String typeName, String filename) {
+        addToIndex(index, typeName, filename);
+    }
+
+    private void addToIndex(ObjectPocketIndex index, String typeName, String filename) {
         if (index.getTypeToFilenamesMapping().get(typeName) == null) {
             index.getTypeToFilenamesMapping().put(typeName, new HashSet<String>());
         }
         index.getTypeToFilenamesMapping().get(typeName).add(filename);
     }
 
-    protected void readIndexFile() throws IOException {
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader br = getBufferedReader(INDEX_FILE_NAME)) {
-            String line = null;
-            while ((line = br.readLine()) != null) {
-                sb.append(line);
-            }
+    protected synchronized void readIndexFile() throws IOException {
+        index = parseIndexFile();
+        if (writeAheadLogEnabled) {
+            logEntries = readWriteAheadLog();
+        }
+    }
+
+    private ObjectPocketIndex parseIndexFile() throws IOException {
+        StringBuilder sb = null;
+        try {
+            sb = readFile(INDEX_FILE_NAME);
         } catch (IOException e) {
             throw new IOException(
                     "Could not read index file. " + directory + "/" + INDEX_FILE_NAME + ". " + getReadErrorMessage(),
@@ -301,8 +1100,7 @@ public class FileStore implements ObjectStore {
             Gson gson = new Gson();
             ObjectPocketIndex o = gson.fromJson(sb.toString(), ObjectPocketIndex.class);
             if (o != null) {
-                index = o;
-                return;
+                return o;
             }
         }
         throw new IOException("Could not parse index file data to index object. " + directory + "/" + INDEX_FILE_NAME
@@ -318,6 +1116,10 @@ public class FileStore implements ObjectStore {
     }
 
     protected void writeIndexFileData(OutputStreamWriter out) throws IOException {
+        writeIndexFileData(out, index);
+    }
+
+    private void writeIndexFileData(OutputStreamWriter out, ObjectPocketIndex index) throws IOException {
         Gson gson = new Gson();
         String jsonString = gson.toJson(index);
         out.write(jsonString);
@@ -350,7 +1152,93 @@ public class FileStore implements ObjectStore {
             if (!f.delete()) {
                 Logger.getAnonymousLogger().severe("Could not remove file from store. " + f.getPath());
             }
+            offsetsCache.remove(filename);
+            File offsetsFile = new File(directory, getOffsetsFilename(filename));
+            if (offsetsFile.exists() && !offsetsFile.delete()) {
+                Logger.getAnonymousLogger().severe("Could not remove file from store. " + offsetsFile.getPath());
+            }
+        }
+    }
+
+    /**
+     * Separates the objects of a file and computes the content hash and the
+     * byte range of every object while writing.
+     */
+    private static class FileJsonObjectSink implements JsonObjectSink {
+
+        private Utf8CountingWriter out;
+        private HashWriter hashWriter;
+        private long hash = 0;
+        private boolean first = true;
+        private Map<String, long[]> offsets;
+        private boolean offsetsComplete = true;
+        private String objectId;
+        private long objectOffset;
+
+        private FileJsonObjectSink(Utf8CountingWriter out, Map<String, long[]> offsets) {
+            this.out = out;
+            this.hashWriter = new HashWriter(out);
+            this.offsets = offsets;
+        }
+
+        @Override
+        public JsonWriter nextObject(String typeName, String id) throws IOException {
+            // custom ids are only known as reference
+            return nextObject(typeName, id, id.startsWith(IdSupport.OP_REF_STRING) ? null : id);
+        }
+
+        @Override
+        public JsonWriter nextObject(String typeName, String id, String objectId) throws IOException {
+            if (!first) {
+                finishObject();
+                out.write(",\n");
+            }
+            first = false;
+            hashWriter.reset();
+            this.objectId = objectId;
+            this.objectOffset = out.getCount();
+            return new TypeAndIdJsonWriter(hashWriter, typeName, id);
+        }
+
+        private void finishObject() {
+            hash += hashWriter.getHash();
+            if (objectId != null) {
+                offsets.put(objectId, new long[] { objectOffset, out.getCount() - objectOffset });
+            } else {
+                offsetsComplete = false;
+            }
+        }
+
+        private long finish() throws IOException {
+            if (!first) {
+                finishObject();
+                out.write("\n");
+            }
+            return hash;
         }
+
+    }
+
+    /**
+     * Byte ranges of the objects inside one file, as written next to it.
+     */
+    private static class ObjectOffsets {
+
+        private long hash;
+        private long length;
+        // <id, [offset, length]>
+        private Map<String, long[]> offsets;
+
+        private ObjectOffsets(long hash, long length, Map<String, long[]> offsets) {
+            this.hash = hash;
+            this.length = length;
+            this.offsets = offsets;
+        }
+
+        private boolean matches(long hash, long length) {
+            return this.hash == hash && this.length == length;
+        }
+
     }
 
 }
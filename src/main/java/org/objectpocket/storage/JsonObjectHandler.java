@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.storage;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Receives json objects one by one while they are streamed from an
+ * {@link ObjectStore}.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public interface JsonObjectHandler {
+
+    /**
+     * Called for every json object that has been read.
+     * 
+     * @param filename
+     *            name of the file the object has been read from
+     * @param id
+     *            op_id of the object (id can be reference when custom id has
+     *            been set with @Id)
+     * @param jsonObject
+     *            the complete json object including op_type and op_id
+     * @throws IOException
+     */
+    public void handleJsonObject(String filename, String id, JsonObject jsonObject) throws IOException;
+
+}
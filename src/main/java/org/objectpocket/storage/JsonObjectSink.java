@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.storage;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Provided by an {@link ObjectStore} to write the json objects of a single
+ * file directly into the underlying output stream.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public interface JsonObjectSink {
+
+    /**
+     * Returns a {@link JsonWriter} for the next object of the file. Exactly one
+     * json object has to be written to it. op_type and op_id will be injected
+     * as first properties of the object.
+     * 
+     * @param typeName
+     *            fully qualified class name
+     * @param id
+     *            id of the object (reference when custom id has been set with
+     *            &#64;Id)
+     * @return
+     * @throws IOException
+     */
+    public JsonWriter nextObject(String typeName, String id) throws IOException;
+
+    /**
+     * Same as {@link #nextObject(String, String)}, additionally provides the
+     * id of the object when a custom id has been set with &#64;Id.
+     * 
+     * @param typeName
+     *            fully qualified class name
+     * @param id
+     *            id of the object (reference when custom id has been set with
+     *            &#64;Id)
+     * @param objectId
+     *            id of the object
+     * @return
+     * @throws IOException
+     */
+    public default JsonWriter nextObject(String typeName, String id, String objectId) throws IOException {
+        return nextObject(typeName, id);
+    }
+
+}
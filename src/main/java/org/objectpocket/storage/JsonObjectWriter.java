@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.storage;
+
+import java.io.IOException;
+
+/**
+ * Writes the json objects of a single file. Called by the {@link ObjectStore}
+ * when the file is being written.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public interface JsonObjectWriter {
+
+    /**
+     * Write all objects of the file to the given sink, one after another.
+     * 
+     * @param sink
+     * @throws IOException
+     */
+    public void writeJsonObjects(JsonObjectSink sink) throws IOException;
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Reads the top level json objects of a UTF-8 encoded json array file through
+ * a memory mapped buffer. Object boundaries are found by scanning the mapped
+ * bytes, only the bytes of each object are decoded and handed to the parser.
+ * <br>
+ * <br>
+ * Files larger than the mapping window are mapped window by window, every
+ * window starts at the beginning of an object. Bytes of multi-byte UTF-8
+ * sequences never equal the structural characters of json, so scanning does
+ * not need to decode.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+class MappedJsonReader {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private final File file;
+    private int windowSize;
+
+    MappedJsonReader(File file) {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedJsonReader(File file, int windowSize) {
+        this.file = file;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Reads all top level json values of the array.
+     * 
+     * @param handler
+     * @throws IOException
+     *             If an I/O error occurs or the file does not contain a json
+     *             array
+     */
+    void read(JsonElementHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            boolean arrayStarted = false;
+            while (position < size) {
+                long length = Math.min(size - position, windowSize);
+                MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, length);
+                // bytes up to the end of the last complete value
+                int consumed = 0;
+                int objectStart = -1;
+                int depth = 0;
+                boolean inString = false;
+                boolean escaped = false;
+                boolean arrayEnded = false;
+                for (int i = 0; i < length && !arrayEnded; i++) {
+                    byte b = buffer.get(i);
+                    if (inString) {
+                        if (escaped) {
+                            escaped = false;
+                        } else if (b == '\\') {
+                            escaped = true;
+                        } else if (b == '"') {
+                            inString = false;
+                        }
+                        continue;
+                    }
+                    // brackets of the container array
+                    if (depth == 0 && b == '[' && !arrayStarted) {
+                        arrayStarted = true;
+                        consumed = i + 1;
+                        continue;
+                    }
+                    if (depth == 0 && b == ']') {
+                        arrayEnded = true;
+                        consumed = i + 1;
+                        continue;
+                    }
+                    switch (b) {
+                    case '"':
+                        if (depth == 0) {
+                            throw malformed(position + i);
+                        }
+                        inString = true;
+                        break;
+                    case '[':
+                    case '{':
+                        if (depth == 0) {
+                            if (!arrayStarted) {
+                                throw malformed(position + i);
+                            }
+                            objectStart = i;
+                        }
+                        depth++;
+                        break;
+                    case ']':
+                    case '}':
+                        if (depth == 0) {
+                            throw malformed(position + i);
+                        }
+                        depth--;
+                        if (depth == 0) {
+                            handler.handleJsonElement(parse(buffer, objectStart, i + 1, position));
+                            consumed = i + 1;
+                        }
+                        break;
+                    default:
+                        if (depth == 0) {
+                            if (b != ',' && b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                                throw malformed(position + i);
+                            }
+                            consumed = i + 1;
+                        }
+                    }
+                }
+                if (arrayEnded || position + length == size) {
+                    if (!arrayEnded) {
+                        throw new MalformedJsonException("Unexpected end of " + file);
+                    }
+                    return;
+                }
+                if (consumed == 0) {
+                    // a single value does not fit into the window
+                    if (windowSize == Integer.MAX_VALUE) {
+                        throw new IOException("Json object at " + position + " is too large to be mapped. " + file);
+                    }
+                    windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * windowSize);
+                }
+                position += consumed;
+            }
+            throw new MalformedJsonException("Unexpected end of " + file);
+        }
+    }
+
+    private JsonElement parse(ByteBuffer buffer, int start, int end, long position) throws IOException {
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(end);
+        bytes.position(start);
+        try {
+            return JsonParser.parseString(StandardCharsets.UTF_8.decode(bytes).toString());
+        } catch (JsonParseException e) {
+            throw new MalformedJsonException("Invalid json object at " + (position + start) + " in " + file + ". "
+                    + e.getMessage());
+        }
+    }
+
+    private MalformedJsonException malformed(long position) {
+        return new MalformedJsonException("Unexpected character at " + position + " in " + file);
+    }
+
+    /**
+     * Receives the top level json values one by one.
+     */
+    interface JsonElementHandler {
+
+        void handleJsonElement(JsonElement element) throws IOException;
+
+    }
+
+}
@@ -17,6 +17,7 @@
 package org.objectpocket.storage;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -29,18 +30,57 @@ public class ObjectPocketIndex {
 
     private Map<String, Set<String>> typeToFilenamesMapping = new HashMap<String, Set<String>>();
 
+    // <typeName, <filename, hash>>
+    private Map<String, Map<String, Long>> contentHashes = new HashMap<String, Map<String, Long>>();
+
     public Map<String, Set<String>> getTypeToFilenamesMapping() {
 	return typeToFilenamesMapping;
     }
-    
+
+    public Map<String, Map<String, Long>> getContentHashes() {
+	if (contentHashes == null) {
+	    // index files written by older versions
+	    contentHashes = new HashMap<String, Map<String, Long>>();
+	}
+	return contentHashes;
+    }
+
     public void clear() {
 	typeToFilenamesMapping.clear();
+	getContentHashes().clear();
     }
     
     public ObjectPocketIndex clone() {
 	ObjectPocketIndex newIndex = new ObjectPocketIndex();
-	newIndex.typeToFilenamesMapping = new HashMap<>(typeToFilenamesMapping);
+	newIndex.typeToFilenamesMapping = new HashMap<>();
+	for (String typeName : typeToFilenamesMapping.keySet()) {
+	    newIndex.typeToFilenamesMapping.put(typeName,
+		    new HashSet<>(typeToFilenamesMapping.get(typeName)));
+	}
+	newIndex.contentHashes = new HashMap<>();
+	for (String typeName : getContentHashes().keySet()) {
+	    newIndex.contentHashes.put(typeName,
+		    new HashMap<>(getContentHashes().get(typeName)));
+	}
 	return newIndex;
     }
 
+    @Override
+    public int hashCode() {
+	return typeToFilenamesMapping.hashCode() * 31 + getContentHashes().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj) {
+	    return true;
+	}
+	if (!(obj instanceof ObjectPocketIndex)) {
+	    return false;
+	}
+	ObjectPocketIndex other = (ObjectPocketIndex) obj;
+	return typeToFilenamesMapping.equals(other.typeToFilenamesMapping)
+		&& getContentHashes().equals(other.getContentHashes());
+    }
+
 }
@@ -46,6 +46,16 @@ public interface ObjectStore extends BlobStore {
      */
     public Set<String> getAvailableObjectTypes() throws IOException;
 
+    /**
+     * Returns the names of all files that contain objects of the given type,
+     * as known by the last read or write.
+     * 
+     * @param typeName
+     *            fully qualified class name
+     * @return filenames without suffix, empty if there are none
+     */
+    public Set<String> getFilenames(String typeName);
+
     /**
      * Reads json objects of given typeName from the object store.
      * 
@@ -60,6 +70,40 @@ public interface ObjectStore extends BlobStore {
     public Map<String, Map<String, String>> readJsonObjects(String typeName)
 	    throws IOException;
 
+    /**
+     * Streams json objects of given typeName from the object store. The
+     * objects are handed over to the given handler one by one, without
+     * keeping the whole file content in memory.
+     * 
+     * @param typeName
+     *            fully qualified class name
+     * @param handler
+     *            receives every json object of the given type
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public void readJsonObjects(String typeName, JsonObjectHandler handler)
+	    throws IOException;
+
+    /**
+     * Reads a single json object of given typeName from the object store,
+     * without reading the whole file that contains it. The store answers the
+     * lookup if it knows the position of every object of the type.
+     * 
+     * @param typeName
+     *            fully qualified class name
+     * @param id
+     *            id of the object
+     * @param handler
+     *            receives the json object, if it exists
+     * @return true if the lookup has been answered, false if the store can
+     *         not look up single objects of the type
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public boolean readJsonObject(String typeName, String id, JsonObjectHandler handler)
+	    throws IOException;
+
     /**
      * Writes json objects to the object store.
      * 
@@ -71,8 +115,130 @@ public interface ObjectStore extends BlobStore {
     public void writeJsonObjects(
 	    Map<String, Map<String, Set<String>>> jsonObjects)
 	    throws IOException;
-    
-    
+
+    /**
+     * Writes json objects to the object store incrementally.<br>
+     * Only the files inside changedFiles will be (re)written. The objects are
+     * streamed directly into each file by the given {@link JsonObjectWriter}.
+     * Files inside unchangedFiles will be kept untouched. All other files will
+     * be removed from the store.<br>
+     * <br>
+     * The content hash of every written file will be recorded, see
+     * {@link #getContentHash(String, String)}.
+     *
+     * @param changedFiles
+     *            {@code Map<typeName, Map<filename, JsonObjectWriter>>}
+     * @param unchangedFiles
+     *            {@code Map<typeName, Set<filename>>}
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public void writeJsonObjects(
+	    Map<String, Map<String, JsonObjectWriter>> changedFiles,
+	    Map<String, Set<String>> unchangedFiles) throws IOException;
+
+    /**
+     * Returns the content hash of the given file as recorded by the last
+     * write. The content hash is the sum of the
+     * {@link org.objectpocket.util.HashWriter} hashes of all json objects
+     * inside the file.
+     *
+     * @param typeName
+     * @param filename
+     * @return content hash, null if the file has to be written in any case
+     */
+    public Long getContentHash(String typeName, String filename);
+
+    /**
+     * Returns the content hash of all files of the given type, as recorded by
+     * the last write. The hash can be used as validity stamp for data that
+     * has been derived from the objects of the type.
+     *
+     * @param typeName
+     * @return content hash, null if the content of the type is not known,
+     *         e.g. when the write ahead log contains changes
+     */
+    public Long getContentHash(String typeName);
+
+    /**
+     * Reads the data of a field index, as written by
+     * {@link #writeFieldIndex(String, String, String)}.
+     *
+     * @param typeName
+     * @param fieldName
+     * @return index data, null if there is none
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public String readFieldIndex(String typeName, String fieldName) throws IOException;
+
+    /**
+     * Writes the data of a field index next to the files of the given type.
+     * Stores that can not write single files will ignore the data.
+     *
+     * @param typeName
+     * @param fieldName
+     * @param data
+     *            index data
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public void writeFieldIndex(String typeName, String fieldName, String data) throws IOException;
+
+    /**
+     * Returns true if changes should be appended to the write ahead log of
+     * the store with {@link #appendJsonObjects(Map, Map)}, instead of
+     * rewriting the changed files.
+     *
+     * @return
+     */
+    public boolean isWriteAheadLogEnabled();
+
+    /**
+     * Appends changed and removed objects to the write ahead log of the
+     * store. The changes are durable when this method returns. Reading json
+     * objects from the store will replay the log over the stored files.
+     *
+     * @param changedObjects
+     *            {@code Map<typeName, Map<filename, JsonObjectWriter>>},
+     *            only the changed objects of every file
+     * @param removedObjects
+     *            {@code Map<typeName, Set<id>>}
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public void appendJsonObjects(
+	    Map<String, Map<String, JsonObjectWriter>> changedObjects,
+	    Map<String, Set<String>> removedObjects) throws IOException;
+
+    /**
+     * Returns the size of the write ahead log in bytes.
+     *
+     * @return size of the log, 0 if there is no log
+     */
+    public long getWriteAheadLogSize();
+
+    /**
+     * Returns the ids of all objects that have been changed or removed by the
+     * write ahead log, as read by the last load.
+     *
+     * @return {@code Map<typeName, Set<id>>}
+     */
+    public Map<String, Set<String>> getLoggedObjectIds();
+
+    /**
+     * Folds the write ahead log back into the stored files and clears the
+     * log afterwards. Changes may be appended and objects may be read while
+     * the checkpoint runs.
+     *
+     * @param prettyPrinting
+     *            true to write the rewritten files pretty printed, like the
+     *            {@link JsonObjectWriter}s of the pocket do
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public void checkpoint(boolean prettyPrinting) throws IOException;
+
     /**
      * Creates backup of the current object data.
      */
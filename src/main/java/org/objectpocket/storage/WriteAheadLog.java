@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.objectpocket.util.JsonHelper;
+import org.objectpocket.util.TypeAndIdJsonWriter;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Append-only log of changed and removed objects.<br>
+ * <br>
+ * Every call to {@link #append(Map, Map)} writes one batch of records, one
+ * record per line, and forces the whole batch to disk with a single sync.
+ *
+ * <pre>
+ * {"op":"begin"}
+ * {"op":"put","file":"filename","object":{"op_type":"...","op_id":"...",...}}
+ * {"op":"remove","type":"typeName","id":"id"}
+ * {"op":"commit"}
+ * </pre>
+ *
+ * {@link #read()} only applies batches that have been committed, a batch that
+ * has been torn by a crash is ignored. A checkpoint moves the log aside with
+ * {@link #moveTo(WriteAheadLog)}, so that new batches go to a fresh log while
+ * the moved one is folded into the store.
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class WriteAheadLog {
+
+    public static final String FILE_NAME = "_op_log";
+    public static final String CHECKPOINT_FILE_NAME = FILE_NAME + ".checkpoint";
+
+    private static final String OP = "op";
+    private static final String OP_BEGIN = "begin";
+    private static final String OP_PUT = "put";
+    private static final String OP_REMOVE = "remove";
+    private static final String OP_COMMIT = "commit";
+    private static final String FILE = "file";
+    private static final String OBJECT = "object";
+    private static final String TYPE = "type";
+    private static final String ID = "id";
+
+    private final File file;
+    private final String encoding;
+    private FileOutputStream fileOutputStream;
+    private Writer writer;
+
+    public WriteAheadLog(File file, String encoding) {
+        this.file = file;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Returns true if the log contains data.
+     *
+     * @return
+     */
+    public boolean exists() {
+        return file.length() > 0;
+    }
+
+    /**
+     * Returns the size of the log in bytes.
+     *
+     * @return
+     */
+    public long size() {
+        return file.length();
+    }
+
+    /**
+     * Appends one batch of changes to the log. The batch is synced to disk
+     * when this method returns.
+     *
+     * @param changedObjects
+     *            {@code Map<typeName, Map<filename, JsonObjectWriter>>}
+     * @param removedObjects
+     *            {@code Map<typeName, Set<id>>}
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public synchronized void append(Map<String, Map<String, JsonObjectWriter>> changedObjects,
+            Map<String, Set<String>> removedObjects) throws IOException {
+        Writer out = getWriter();
+        // the leading line break terminates a record that might have been
+        // torn by a crash
+        out.write("\n" + record(OP_BEGIN) + "\n");
+        LogJsonObjectSink sink = new LogJsonObjectSink(out);
+        for (String typeName : changedObjects.keySet()) {
+            Map<String, JsonObjectWriter> filesForType = changedObjects.get(typeName);
+            for (String filename : filesForType.keySet()) {
+                sink.filename = filename;
+                filesForType.get(filename).writeJsonObjects(sink);
+                sink.finish();
+            }
+        }
+        for (String typeName : removedObjects.keySet()) {
+            for (String id : removedObjects.get(typeName)) {
+                JsonObject record = record(OP_REMOVE);
+                record.addProperty(TYPE, typeName);
+                record.addProperty(ID, id);
+                out.write(record + "\n");
+            }
+        }
+        out.write(record(OP_COMMIT) + "\n");
+        out.flush();
+        fileOutputStream.getFD().sync();
+    }
+
+    /**
+     * Reads all committed changes from the log. Later changes of an object
+     * replace earlier ones.
+     *
+     * @return {@code Map<typeName, Map<id, LogEntry>>}
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public synchronized Map<String, Map<String, LogEntry>> read() throws IOException {
+        Map<String, Map<String, LogEntry>> entries = new HashMap<String, Map<String, LogEntry>>();
+        if (!file.exists()) {
+            return entries;
+        }
+        if (writer != null) {
+            writer.flush();
+        }
+        List<JsonObject> batch = null;
+        int tornBatches = 0;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), encoding))) {
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                JsonObject record = null;
+                try {
+                    record = JsonParser.parseString(line).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    // torn record, the whole batch will be dropped
+                    if (batch != null) {
+                        tornBatches++;
+                    }
+                    batch = null;
+                    continue;
+                }
+                JsonElement op = record.get(OP);
+                if (op == null) {
+                    continue;
+                }
+                switch (op.getAsString()) {
+                case OP_BEGIN:
+                    if (batch != null) {
+                        tornBatches++;
+                    }
+                    batch = new ArrayList<JsonObject>();
+                    break;
+                case OP_COMMIT:
+                    if (batch != null) {
+                        for (JsonObject r : batch) {
+                            apply(r, entries);
+                        }
+                    }
+                    batch = null;
+                    break;
+                default:
+                    if (batch != null) {
+                        batch.add(record);
+                    }
+                }
+            }
+        }
+        if (batch != null) {
+            tornBatches++;
+        }
+        if (tornBatches > 0) {
+            Logger.getAnonymousLogger().warning(
+                    "Ignored " + tornBatches + " incomplete batch(es) in write ahead log " + file.getPath());
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the log after its changes have been folded into the store.
+     *
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Moves the content of this log to the given log, which must not exist.
+     * This log is empty afterwards, the next batch starts a new file.
+     *
+     * @param target
+     * @throws IOException
+     *             If an I/O error occurs
+     */
+    public synchronized void moveTo(WriteAheadLog target) throws IOException {
+        close();
+        Files.move(file.toPath(), target.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            fileOutputStream = null;
+        }
+    }
+
+    private Writer getWriter() throws IOException {
+        if (writer == null) {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+            fileOutputStream = new FileOutputStream(file, true);
+            writer = new BufferedWriter(new OutputStreamWriter(fileOutputStream, encoding), FileStore.WRITE_BUFFER_SIZE);
+        }
+        return writer;
+    }
+
+    private static JsonObject record(String op) {
+        JsonObject record = new JsonObject();
+        record.addProperty(OP, op);
+        return record;
+    }
+
+    private static void apply(JsonObject record, Map<String, Map<String, LogEntry>> entries) {
+        String typeName = null;
+        String id = null;
+        LogEntry entry = null;
+        switch (record.get(OP).getAsString()) {
+        case OP_PUT:
+            JsonObject object = record.getAsJsonObject(OBJECT);
+            typeName = object.get(JsonHelper.TYPE).getAsString();
+            id = JsonHelper.getIdFromJson(object);
+            entry = new LogEntry(record.get(FILE).getAsString(), object);
+            break;
+        case OP_REMOVE:
+            typeName = record.get(TYPE).getAsString();
+            id = record.get(ID).getAsString();
+            entry = new LogEntry(null, null);
+            break;
+        default:
+            return;
+        }
+        Map<String, LogEntry> entriesForType = entries.get(typeName);
+        if (entriesForType == null) {
+            entriesForType = new HashMap<String, LogEntry>();
+            entries.put(typeName, entriesForType);
+        }
+        entriesForType.put(id, entry);
+    }
+
+    /**
+     * Last logged state of an object.
+     */
+    public static class LogEntry {
+
+        private final String filename;
+        private final JsonObject jsonObject;
+
+        private LogEntry(String filename, JsonObject jsonObject) {
+            this.filename = filename;
+            this.jsonObject = jsonObject;
+        }
+
+        /**
+         * @return filename without suffix, null if the object has been removed
+         */
+        public String getFilename() {
+            return filename;
+        }
+
+        /**
+         * @return json object, null if the object has been removed
+         */
+        public JsonObject getJsonObject() {
+            return jsonObject;
+        }
+
+        public boolean isRemoved() {
+            return jsonObject == null;
+        }
+
+    }
+
+    /**
+     * Writes every object as put record on a line of its own.
+     */
+    private static class LogJsonObjectSink implements JsonObjectSink {
+
+        private Writer out;
+        private String filename;
+        private boolean open = false;
+
+        private LogJsonObjectSink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public JsonWriter nextObject(String typeName, String id) throws IOException {
+            finish();
+            out.write("{\"" + OP + "\":\"" + OP_PUT + "\",\"" + FILE + "\":" + new JsonPrimitive(filename) + ",\""
+                    + OBJECT + "\":");
+            open = true;
+            return new TypeAndIdJsonWriter(out, typeName, id);
+        }
+
+        private void finish() throws IOException {
+            if (open) {
+                out.write("}\n");
+                open = false;
+            }
+        }
+
+    }
+
+}
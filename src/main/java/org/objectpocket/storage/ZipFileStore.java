@@ -18,39 +18,55 @@ package org.objectpocket.storage;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Set;
-import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
-import com.google.gson.Gson;
-
 /**
+ * Stores all object data inside a single zip file.<br>
+ * The archive is opened once with {@link ZipFile} and kept open until
+ * {@link #close()} or the next write. Entries are read directly via the
+ * central directory of the archive.
  * 
  * @author Edmund Klaus
  *
  */
 public class ZipFileStore extends FileStore {
 
+    private static final String BACKUP_FILE_SUFFIX = ".bak";
+
     private String zipfile;
+    private ZipFile zipFileHandle;
     private ZipOutputStream zipOutputStream;
     private OutputStreamWriter outputStreamWriter;
     private int compressionLevel = 0;
 
     public ZipFileStore(String filename, int compressionLevel) {
-	super(null);
+	super(new File(filename).getAbsoluteFile().getParent());
 	this.compressionLevel = compressionLevel;
 	this.zipfile = filename;
     }
 
+    @Override
+    public boolean exists() {
+	if (!new File(zipfile).exists()) {
+	    return false;
+	}
+	try {
+	    return getZipFile().getEntry(INDEX_FILE_NAME) != null;
+	} catch (IOException e) {
+	    return false;
+	}
+    }
+
     @Override
     public Set<String> getAvailableObjectTypes() throws IOException {
 	readIndexFile();
@@ -62,22 +78,52 @@ public class ZipFileStore extends FileStore {
 	return this.zipfile;
     }
 
+    /**
+     * The zip archive is always rewritten as a whole.
+     */
+    @Override
+    protected boolean writesIncrementally() {
+	return false;
+    }
+
+    /**
+     * Keeps a copy of the current archive next to it.
+     */
+    @Override
+    public void createBackup() throws IOException {
+	File f = new File(zipfile);
+	if (f.exists()) {
+	    Files.copy(f.toPath(), new File(zipfile + BACKUP_FILE_SUFFIX).toPath(),
+		    StandardCopyOption.REPLACE_EXISTING);
+	}
+    }
+
+    /**
+     * The archive is written to a temporary file first, which replaces the
+     * archive when all data has been written.
+     */
     protected void finishWrite() throws IOException {
+	if (zipOutputStream == null) {
+	    return;
+	}
 	zipOutputStream.closeEntry();
 	zipOutputStream.close();
 	zipOutputStream = null;
 	outputStreamWriter = null;
+	closeZipFile();
+	Files.move(new File(zipfile + TEMP_FILE_SUFFIX).toPath(), new File(zipfile).toPath(),
+		StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     protected OutputStreamWriter getOutputStreamWriter(String filename)
 	    throws IOException {
 	if (zipOutputStream == null) {
-	    initZipFile(true, true);
-	    OutputStream out = new FileOutputStream(zipfile);
+	    initZipFile(true);
+	    OutputStream out = new FileOutputStream(zipfile + TEMP_FILE_SUFFIX);
 	    zipOutputStream = new ZipOutputStream(out);
 	    zipOutputStream.setMethod(ZipOutputStream.DEFLATED);
 	    zipOutputStream.setLevel(this.compressionLevel);
-	    outputStreamWriter = new OutputStreamWriter(zipOutputStream);
+	    outputStreamWriter = new OutputStreamWriter(zipOutputStream, encoding);
 	} else {
 	    zipOutputStream.closeEntry();
 	}
@@ -93,94 +139,78 @@ public class ZipFileStore extends FileStore {
 
     protected BufferedReader getBufferedReader(String filename)
 	    throws IOException {
-	InputStream in = new FileInputStream(zipfile);
-	ZipInputStream zipInputStream = new ZipInputStream(in);
-	ZipEntry nextEntry = null;
-	while ((nextEntry = zipInputStream.getNextEntry()) != null) {
-	    if (nextEntry.getName().equals(filename)) {
-		return new BufferedReader(new InputStreamReader(zipInputStream));
-	    }
+	ZipFile zip = getZipFile();
+	ZipEntry entry = zip.getEntry(filename);
+	if (entry == null) {
+	    throw new IOException("Could not read file " + filename
+		    + " in zip " + zipfile);
+	}
+	return new BufferedReader(new InputStreamReader(
+		zip.getInputStream(entry), encoding));
+    }
+
+    /**
+     * Entries that are not written again simply disappear from the rewritten
+     * archive. There are no separate files to remove.
+     */
+    @Override
+    protected void removeUnusedFiles() {
+    }
+
+    @Override
+    public void close() throws IOException {
+	closeZipFile();
+	super.close();
+    }
+
+    /**
+     * Returns the open handle of the archive. The handle is opened on first
+     * access and cached until the archive gets rewritten or the store is
+     * closed.
+     * 
+     * @return
+     * @throws IOException
+     */
+    protected synchronized ZipFile getZipFile() throws IOException {
+	if (zipFileHandle == null) {
+	    initZipFile(false);
+	    zipFileHandle = new ZipFile(zipfile);
 	}
-	throw new IOException("Could not read file " + filename + " in zip "
-		+ zipfile);
-    }
-
-    private void initZipFile(boolean read, boolean write) throws IOException {
-	File f = new File(this.zipfile);
-	if (!f.exists()) {
-	    if (write) {
-		f.getParentFile().mkdirs();
-	    } else {
-		throw new IOException(
-			"Store does not exist. Nothing to load here.");
-	    }
+	return zipFileHandle;
+    }
+
+    private synchronized void closeZipFile() throws IOException {
+	if (zipFileHandle != null) {
+	    zipFileHandle.close();
+	    zipFileHandle = null;
+	}
+    }
+
+    private void initZipFile(boolean write) throws IOException {
+	File f = new File(this.zipfile).getAbsoluteFile();
+	if (!f.exists() && !write) {
+	    throw new IOException(
+		    "Store does not exist. Nothing to load here.");
+	}
+	if (!f.getParentFile().exists() && write) {
+	    f.getParentFile().mkdirs();
 	}
 	if (!f.getParentFile().exists()) {
 	    throw new IOException(
 		    "Directory does not exist and could not be created. "
 			    + f.getParent());
 	}
-	if (!f.exists() && !f.createNewFile()) {
-	    throw new IOException("Could not create zip file. " + f.getPath());
-	}
 	this.directory = f.getParent();
-	boolean indexFileFound = false;
-	InputStream in = new FileInputStream(zipfile);
-	try (ZipInputStream zipIn = new ZipInputStream(in)) {
-	    ZipEntry entry = null;
-	    while ((entry = zipIn.getNextEntry()) != null) {
-		if (entry.getName().equals(INDEX_FILE_NAME)) {
-		    indexFileFound = true;
-		}
-	    }
-	} catch (IOException e) {
-	    throw new IOException("Could not read index file from "
-		    + this.zipfile, e);
-	}
-	if (!indexFileFound) {
-	    Logger.getAnonymousLogger().warning(
-		    "Could not find index file. Will create.");
-	    writeIndexFileData(getOutputStreamWriter(INDEX_FILE_NAME));
-	    finishWrite();
-	}
     }
 
     protected void readIndexFile() throws IOException {
-	initZipFile(true, false);
-	String line = null;
-	InputStream in = new FileInputStream(zipfile);
-	try (ZipInputStream zipIn = new ZipInputStream(in)) {
-	    ZipEntry entry = null;
-	    while ((entry = zipIn.getNextEntry()) != null) {
-		if (entry.getName().equals(INDEX_FILE_NAME)) {
-		    line = readDataFromZip(zipIn);
-		}
-	    }
-	} catch (IOException e) {
-	    throw new IOException("Could not read index file from "
-		    + this.zipfile, e);
-	}
-	if (line != null) {
-	    Gson gson = new Gson();
-	    ObjectPocketIndex o = gson.fromJson(line, ObjectPocketIndex.class);
-	    if (o != null) {
-		index = o;
-		return;
-	    }
-	}
-	throw new IOException(
-		"Could not parse index file data to index object. "
-			+ this.zipfile);
+	initZipFile(false);
+	super.readIndexFile();
     }
 
-    private String readDataFromZip(ZipInputStream zipIn) throws IOException {
-	byte[] buf = new byte[1024];
-	StringBuilder sb = new StringBuilder();
-	int length = -1;
-	while ((length = zipIn.read(buf)) != -1) {
-	    sb.append(new String(buf, 0, length));
-	}
-	return sb.toString();
+    @Override
+    protected String getReadErrorMessage() {
+	return "Zip file: " + zipfile;
     }
 
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.util;
+
+/**
+ * Fast non cryptographic hashing of json content. Used to find out if the
+ * content of a file has changed since it has been written the last time.
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class HashHelper {
+
+    public static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    /**
+     * Returns a 64 bit hash for the given character sequence.<br>
+     * Hashes of single json objects can be summed up to an order independent
+     * hash for a whole file.
+     *
+     * @param s
+     * @return
+     */
+    public static long hash(CharSequence s) {
+        long hash = OFFSET_BASIS;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            hash = update(hash, s.charAt(i));
+        }
+        return finish(hash);
+    }
+
+    /**
+     * FNV-1a step for a single character.
+     *
+     * @param hash
+     * @param c
+     * @return
+     */
+    public static long update(long hash, char c) {
+        hash ^= (c & 0xff);
+        hash *= PRIME;
+        hash ^= (c >>> 8);
+        hash *= PRIME;
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of the given hash, so that sums of hashes do not
+     * collide easily.
+     *
+     * @param hash
+     * @return
+     */
+    public static long finish(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+}
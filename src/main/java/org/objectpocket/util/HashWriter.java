@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Computes the {@link HashHelper} hash of all characters written to it. If a
+ * delegate is given, all characters will be passed through to the delegate.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class HashWriter extends Writer {
+
+    private Writer out;
+    private long hash = HashHelper.OFFSET_BASIS;
+
+    /**
+     * Creates a writer that only computes the hash and discards all characters.
+     */
+    public HashWriter() {
+        this(null);
+    }
+
+    public HashWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        hash = HashHelper.update(hash, (char) c);
+        if (out != null) {
+            out.write(c);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            hash = HashHelper.update(hash, cbuf[i]);
+        }
+        if (out != null) {
+            out.write(cbuf, off, len);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            hash = HashHelper.update(hash, str.charAt(i));
+        }
+        if (out != null) {
+            out.write(str, off, len);
+        }
+    }
+
+    /**
+     * Returns the hash of all characters written since creation or the last
+     * {@link #reset()}.
+     * 
+     * @return
+     */
+    public long getHash() {
+        return HashHelper.finish(hash);
+    }
+
+    public void reset() {
+        hash = HashHelper.OFFSET_BASIS;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Does not close the delegate.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+}
@@ -17,13 +17,14 @@
 package org.objectpocket.util;
 
 import java.lang.reflect.Field;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.reflect.FieldUtils;
+import org.objectpocket.IdGenerator;
 import org.objectpocket.annotations.Id;
 
 /**
@@ -34,15 +35,24 @@ import org.objectpocket.annotations.Id;
 public class IdSupport {
 
     public static final String OP_REF_STRING = "op_ref:";
-    private static Map<String, Field> idFieldForType_ObjectsInMemory = new HashMap<String, Field>();
-    private static Map<String, Field> idFieldForType_ObjectsFromStore = new HashMap<String, Field>();
+    // concurrent, objects are added and loaded by many threads
+    // Optional.empty() for types without @Id field
+    private static Map<String, Optional<Field>> idFieldForType_ObjectsInMemory = new ConcurrentHashMap<String, Optional<Field>>();
+    private static Map<String, Field> idFieldForType_ObjectsFromStore = new ConcurrentHashMap<String, Field>();
+    private static final IdGenerator DEFAULT_ID_GENERATOR = new RandomUuidGenerator();
 
     public static String getId(Object obj, boolean referenceForAnnotation) {
 	return getId(obj, referenceForAnnotation, null);
     }
 
+    public static String getId(Object obj, boolean referenceForAnnotation,
+	    String existingId) {
+	return getId(obj, referenceForAnnotation, existingId,
+		DEFAULT_ID_GENERATOR);
+    }
+
     /**
-     * returns id from annotation @Id or existing id or generate random UUID.
+     * returns id from annotation @Id or existing id or generate a new one.
      * 
      * @param obj
      * @param referenceForAnnotation
@@ -53,17 +63,22 @@ public class IdSupport {
      * @param existingId put
      *            an existing id here if one exists, otherwise a new might be
      *            generated
+     * @param idGenerator
+     *            generates the new id
      * @return
      */
     public static String getId(Object obj, boolean referenceForAnnotation,
-	    String existingId) {
+	    String existingId, IdGenerator idGenerator) {
 	String typeName = obj.getClass().getName();
-	if (!idFieldForType_ObjectsInMemory.containsKey(typeName)) {
+	Optional<Field> idField = idFieldForType_ObjectsInMemory.get(typeName);
+	if (idField == null) {
+	    idField = Optional.empty();
 	    Field[] fields = FieldUtils.getAllFields(obj.getClass());
 	    for (Field field : fields) {
 		if (field.isAnnotationPresent(Id.class)) {
 		    if (field.getType().equals(String.class)) {
-			idFieldForType_ObjectsInMemory.put(typeName, field);
+			field.setAccessible(true);
+			idField = Optional.of(field);
 		    } else {
 			Logger.getAnonymousLogger()
 				.warning(
@@ -74,14 +89,11 @@ public class IdSupport {
 		    break;
 		}
 	    }
-	    if (!idFieldForType_ObjectsInMemory.containsKey(typeName)) {
-		idFieldForType_ObjectsInMemory.put(typeName, null);
-	    }
+	    idFieldForType_ObjectsInMemory.put(typeName, idField);
 	}
-	Field field = idFieldForType_ObjectsInMemory.get(typeName);
+	Field field = idField.orElse(null);
 	if (field != null) {
 	    try {
-		field.setAccessible(true);
 		String id = (String) field.get(obj);
 		if (id != null) {
 		    if (referenceForAnnotation) {
@@ -105,7 +117,7 @@ public class IdSupport {
 	if (existingId != null) {
 	    return existingId;
 	}
-	return UUID.randomUUID().toString();
+	return idGenerator.nextId(obj);
     }
 
     /**
@@ -118,14 +130,13 @@ public class IdSupport {
     public static String getId(Object obj, String idFromProxyIn) {
 	if (idFromProxyIn.startsWith(OP_REF_STRING)) {
 	    String typeName = obj.getClass().getName();
-	    if (!idFieldForType_ObjectsFromStore.containsKey(typeName)) {
+	    Field field = idFieldForType_ObjectsFromStore.get(typeName);
+	    if (field == null) {
 		String fieldName = idFromProxyIn.substring(
 			OP_REF_STRING.length(), idFromProxyIn.length());
-		Field field = FieldUtils.getField(obj.getClass(), fieldName,
-			true);
+		field = FieldUtils.getField(obj.getClass(), fieldName, true);
 		idFieldForType_ObjectsFromStore.put(typeName, field);
 	    }
-	    Field field = idFieldForType_ObjectsFromStore.get(typeName);
 	    try {
 		idFromProxyIn = (String) field.get(obj);
 	    } catch (IllegalAccessException e) {
@@ -19,6 +19,9 @@ package org.objectpocket.util;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
 /**
  * 
  * @author Edmund Klaus
@@ -67,14 +70,28 @@ public class JsonHelper {
 	return sb.toString();
     }
 
-    public static List<String> splitToTopLevelJsonObjects(String s) {
-	List<String> jsonObjects = new ArrayList<String>(1000000);
+    public static List<String> splitToTopLevelJsonObjects(CharSequence s) {
+	List<String> jsonObjects = new ArrayList<String>();
 	int objectStartIndex = 0;
 	int objectStart = 0;
 	int objectEnd = 0;
 	int length = s.length();
+	boolean inString = false;
 	for (int i = 0; i < length; i++) {
-	    switch (s.charAt(i)) {
+	    char c = s.charAt(i);
+	    if (inString) {
+		// braces inside of string values do not count
+		if (c == '\\') {
+		    i++;
+		} else if (c == '"') {
+		    inString = false;
+		}
+		continue;
+	    }
+	    switch (c) {
+	    case '"':
+		inString = true;
+		break;
 	    case '{':
 		if (objectStart == 0) {
 		    objectStartIndex = i;
@@ -84,7 +101,7 @@ public class JsonHelper {
 	    case '}':
 		objectEnd++;
 		if (objectStart == objectEnd) {
-		    jsonObjects.add(s.substring(objectStartIndex, i + 1));
+		    jsonObjects.add(s.subSequence(objectStartIndex, i + 1).toString());
 		    objectStart = 0;
 		    objectEnd = 0;
 		}
@@ -96,23 +113,43 @@ public class JsonHelper {
 	return jsonObjects;
     }
 
-    // TODO: This is a potential place to tune performance faster!
-    // maybe go through every character and extract id and type
     public static String[] getTypeAndIdFromJson(String jsonString) {
 
-	StringBuilder sb = new StringBuilder(jsonString);
-
-	int startCut = sb.indexOf(TYPE + "\"") + TYPE.length() + 1;
-	startCut = sb.indexOf("\"", startCut) + 1;
-	int endCut = sb.indexOf("\"", startCut);
-	String type = sb.substring(startCut, endCut);
+	int startCut = jsonString.indexOf(TYPE + "\"") + TYPE.length() + 1;
+	startCut = jsonString.indexOf("\"", startCut) + 1;
+	int endCut = jsonString.indexOf("\"", startCut);
+	String type = jsonString.substring(startCut, endCut);
 
-	startCut = sb.indexOf(ID + "\"") + ID.length() + 1;
-	startCut = sb.indexOf("\"", startCut) + 1;
-	endCut = sb.indexOf("\"", startCut);
-	String id = sb.substring(startCut, endCut);
+	startCut = jsonString.indexOf(ID + "\"") + ID.length() + 1;
+	startCut = jsonString.indexOf("\"", startCut) + 1;
+	endCut = jsonString.indexOf("\"", startCut);
+	String id = jsonString.substring(startCut, endCut);
 
 	return new String[] { type, id };
     }
 
+    /**
+     * Returns the id of the given json object. For classes with a custom id
+     * defined by @Id the value of the id field is returned instead of the
+     * stored reference.
+     * 
+     * @param jsonObject
+     * @return id, null if the json object has no id
+     */
+    public static String getIdFromJson(JsonObject jsonObject) {
+	JsonElement idElement = jsonObject.get(ID);
+	if (idElement == null) {
+	    return null;
+	}
+	String id = idElement.getAsString();
+	if (id.startsWith(IdSupport.OP_REF_STRING)) {
+	    JsonElement customId = jsonObject
+		    .get(id.substring(IdSupport.OP_REF_STRING.length()));
+	    if (customId != null && customId.isJsonPrimitive()) {
+		return customId.getAsString();
+	    }
+	}
+	return id;
+    }
+
 }
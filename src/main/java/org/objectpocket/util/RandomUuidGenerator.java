@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.util;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.objectpocket.IdGenerator;
+
+/**
+ * Generates random (version 4) UUIDs like {@link UUID#randomUUID()}. The
+ * random bits are taken from {@link ThreadLocalRandom} instead of a shared
+ * {@link java.security.SecureRandom}, so threads that add objects concurrently
+ * do not contend for it. The ids are not suited to be used as secrets.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class RandomUuidGenerator implements IdGenerator {
+
+    @Override
+    public String nextId(Object obj) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & ~(0xC000L << 48)) | (0x8000L << 48);
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+}
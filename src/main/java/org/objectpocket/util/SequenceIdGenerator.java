@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.objectpocket.IdGenerator;
+
+/**
+ * Generates the shortest ids, increasing numbers 1, 2, 3, ... that are
+ * unique across all types of one {@link org.objectpocket.ObjectPocket}. The
+ * sequence continues after the highest numeric id that has been read from the
+ * store. Every {@link org.objectpocket.ObjectPocket} needs a generator of its
+ * own.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class SequenceIdGenerator implements IdGenerator {
+
+    private final AtomicLong last = new AtomicLong();
+
+    @Override
+    public String nextId(Object obj) {
+        return Long.toString(last.incrementAndGet());
+    }
+
+    @Override
+    public void idInUse(String id) {
+        int length = id.length();
+        if (length == 0 || length > 18) {
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return;
+            }
+        }
+        long value = Long.parseLong(id);
+        last.accumulateAndGet(value, Math::max);
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.objectpocket.IdGenerator;
+
+/**
+ * Generates ids that are ordered by creation time, as 16 hex digits. The
+ * first 12 digits contain the current time in ms, the last 4 digits count
+ * the ids of the same ms. Ids stay strictly increasing, also if more than
+ * 65536 ids are generated within one ms or the clock is set back, and are
+ * kept above all ids that have been read from the store.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+    private static final int COUNTER_BITS = 16;
+    private static final int LENGTH = 16;
+
+    private final AtomicLong last = new AtomicLong();
+
+    @Override
+    public String nextId(Object obj) {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        long id = last.accumulateAndGet(now, (previous, time) -> Math.max(previous + 1, time));
+        String hex = Long.toHexString(id);
+        StringBuilder sb = new StringBuilder(LENGTH);
+        for (int i = hex.length(); i < LENGTH; i++) {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    @Override
+    public void idInUse(String id) {
+        if (id.length() != LENGTH) {
+            return;
+        }
+        try {
+            long value = Long.parseUnsignedLong(id, 16);
+            last.accumulateAndGet(value, Math::max);
+        } catch (NumberFormatException e) {
+            // not generated by this class
+        }
+    }
+
+}
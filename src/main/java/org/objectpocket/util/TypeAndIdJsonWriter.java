@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * {@link JsonWriter} that injects op_type and op_id as the first properties
+ * of the top level json object. This is the streaming counterpart of
+ * {@link JsonHelper#addTypeAndIdToJson(StringBuilder, String, String, boolean)}
+ * and produces the same output.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class TypeAndIdJsonWriter extends JsonWriter {
+
+    private String typeName;
+    private String id;
+    private boolean injected = false;
+
+    public TypeAndIdJsonWriter(Writer out, String typeName, String id) {
+        super(out);
+        this.typeName = typeName;
+        this.id = id;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        super.beginObject();
+        if (!injected) {
+            injected = true;
+            name(JsonHelper.TYPE).value(typeName);
+            name(JsonHelper.ID).value(id);
+        }
+        return this;
+    }
+
+}
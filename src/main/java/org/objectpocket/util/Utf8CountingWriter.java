@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Counts the number of bytes the characters written to it take in UTF-8. All
+ * characters will be passed through to the delegate.
+ * 
+ * @author Edmund Klaus
+ *
+ */
+public class Utf8CountingWriter extends Writer {
+
+    private Writer out;
+    private long count = 0;
+
+    public Utf8CountingWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        count += bytes((char) c);
+        out.write(c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            count += bytes(cbuf[i]);
+        }
+        out.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            count += bytes(str.charAt(i));
+        }
+        out.write(str, off, len);
+    }
+
+    /**
+     * Returns the number of bytes written since creation.
+     * 
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    private static int bytes(char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (Character.isSurrogate(c)) {
+            // a surrogate pair takes 4 bytes
+            return 2;
+        }
+        return 3;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Does not close the delegate.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+}
@@ -69,12 +69,35 @@ public class FileStoreTest {
      * @throws Exception
      */
     public ObjectPocket getObjectPocket() throws Exception {
+        return getObjectPocket(new ObjectPocketBuilder());
+    }
+
+    /**
+     * Always creates a new ObjectPocket instance with the configuration of the
+     * given builder!
+     * 
+     * @param objectPocketBuilder
+     * @return
+     * @throws Exception
+     */
+    protected ObjectPocket getObjectPocket(ObjectPocketBuilder objectPocketBuilder) throws Exception {
+        return getObjectPocket(objectPocketBuilder, new FileStore(FILESTORE));
+    }
+
+    /**
+     * Always creates a new ObjectPocket instance on the given object store!
+     * 
+     * @param objectPocketBuilder
+     * @param objectStore
+     * @return
+     * @throws Exception
+     */
+    protected ObjectPocket getObjectPocket(ObjectPocketBuilder objectPocketBuilder, FileStore objectStore)
+            throws Exception {
         if (objectPocket != null) {
             objectPocket.close();
         }
-        ObjectPocketBuilder objectPocketBuilder = new ObjectPocketBuilder();
         objectPocketBuilder.doNotWriteBackups(); // keep test footrpint/time low
-        FileStore objectStore = new FileStore(FILESTORE);
         blobStore = new FileBlobStore(FILESTORE);
         objectStore.setBlobStore(blobStore);
         objectPocket = objectPocketBuilder.createObjectPocket(objectStore);
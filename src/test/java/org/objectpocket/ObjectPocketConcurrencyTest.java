@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.objectpocket.annotations.Entity;
+import org.objectpocket.annotations.Id;
+import org.objectpocket.exception.ObjectPocketException;
+
+/**
+ * Stress test for concurrent access to one {@link ObjectPocket}. Writers add
+ * and remove objects while readers find them and another thread stores or
+ * loads continuously.
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketConcurrencyTest extends FileStoreTest {
+
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int OBJECTS_PER_WRITER = 2000;
+
+    @Override
+    public ObjectPocket getObjectPocket() throws Exception {
+        return getObjectPocket(new ObjectPocketBuilder().index(Bean.class, "name"));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        runConcurrently(objectPocket);
+        assertStored(objectPocket);
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertStored(objectPocket);
+    }
+
+    @Test
+    public void testConcurrentAccessWithLazyLoading() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("stored", new Owner("stored")));
+        objectPocket.store();
+        objectPocket = getObjectPocket(new ObjectPocketBuilder().index(Bean.class, "name").lazyLoading());
+        objectPocket.load();
+        runConcurrently(objectPocket);
+        assertTrue(objectPocket.find("name", "stored", Bean.class).size() == 1);
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.count(Bean.class) == expectedBeans() + 1);
+    }
+
+    @Test
+    public void testReadersDoNotSeePartialLoads() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < OBJECTS_PER_WRITER; i++) {
+            objectPocket.add(new Bean("bean" + i, new Owner("owner" + i)));
+        }
+        objectPocket.store();
+        ExecutorService executor = Executors.newFixedThreadPool(READERS);
+        AtomicBoolean done = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int r = 0; r < READERS; r++) {
+            futures.add(executor.submit(() -> {
+                int i = 0;
+                while (!done.get()) {
+                    // either the state before or after a load, never a part
+                    assertTrue(objectPocket.count(Bean.class) == OBJECTS_PER_WRITER);
+                    assertTrue(objectPocket.findAll(Owner.class).size() == OBJECTS_PER_WRITER);
+                    Collection<Bean> found = objectPocket.find("name", "bean" + (i++ % OBJECTS_PER_WRITER),
+                            Bean.class);
+                    assertTrue(found.size() == 1);
+                    assertTrue(found.iterator().next().owner != null);
+                }
+                return null;
+            }));
+        }
+        for (int i = 0; i < 20; i++) {
+            objectPocket.load();
+            objectPocket.store();
+        }
+        done.set(true);
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testReadersKeepTheirSnapshot() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 100; i++) {
+            objectPocket.add(new Bean("bean" + i, null));
+        }
+        Iterator<Bean> iterator = objectPocket.view(Bean.class).iterator();
+        AtomicInteger visited = new AtomicInteger();
+        objectPocket.iterate(Bean.class, bean -> {
+            visited.incrementAndGet();
+            try {
+                objectPocket.add(new Bean("added", null));
+            } catch (ObjectPocketException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(visited.get() == 100);
+        int iterated = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterated++;
+        }
+        assertTrue(iterated == 100);
+        assertTrue(objectPocket.count(Bean.class) == 200);
+    }
+
+    @Test
+    public void testReadersDoNotSeePartialIdChanges() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        List<Account> accounts = new ArrayList<Account>();
+        for (int i = 0; i < OBJECTS_PER_WRITER; i++) {
+            accounts.add(new Account("a" + i));
+            objectPocket.add(accounts.get(i));
+        }
+        objectPocket.store();
+        ExecutorService executor = Executors.newFixedThreadPool(READERS);
+        AtomicBoolean done = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int r = 0; r < READERS; r++) {
+            futures.add(executor.submit(() -> {
+                while (!done.get()) {
+                    // either the ids before or after a store, never both
+                    assertTrue(objectPocket.count(Account.class) == OBJECTS_PER_WRITER);
+                    assertTrue(objectPocket.findAll(Account.class).size() == OBJECTS_PER_WRITER);
+                }
+                return null;
+            }));
+        }
+        for (int i = 0; i < 20; i++) {
+            for (Account account : accounts) {
+                account.mail = (i % 2 == 0 ? "b" : "a") + account.mail.substring(1);
+            }
+            objectPocket.store();
+        }
+        done.set(true);
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertTrue(objectPocket.find("a1", Account.class) == accounts.get(1));
+    }
+
+    @Test
+    public void testFailedLoadKeepsState() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 10; i++) {
+            objectPocket.add(new Bean("bean" + i, new Owner("owner" + i)));
+        }
+        objectPocket.store();
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(FILESTORE + "/" + Bean.class.getName() + ".json"), "UTF-8")) {
+            out.write("[{\"broken\":");
+        }
+        try {
+            objectPocket.load();
+            fail();
+        } catch (ObjectPocketException e) {
+            // expected
+        }
+        assertTrue(objectPocket.count(Bean.class) == 10);
+        assertTrue(objectPocket.findAll(Owner.class).size() == 10);
+        assertTrue(objectPocket.find("name", "bean3", Bean.class).iterator().next().owner.name.equals("owner3"));
+        // the kept state can be stored again
+        objectPocket.add(new Bean("bean10", new Owner("owner10")));
+        objectPocket.store();
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.count(Bean.class) == 11);
+        assertTrue(objectPocket.find("name", "bean10", Bean.class).size() == 1);
+    }
+
+    private void runConcurrently(ObjectPocket objectPocket) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS + 1);
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        AtomicBoolean done = new AtomicBoolean();
+        Bean shared = new Bean("shared", new Owner("shared"));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int w = 0; w < WRITERS; w++) {
+            String writer = "writer" + w;
+            futures.add(executor.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < OBJECTS_PER_WRITER; i++) {
+                        Bean bean = new Bean(writer + "-" + i, new Owner(writer + "-" + i));
+                        objectPocket.add(bean);
+                        // the same object is added by every writer
+                        objectPocket.add(shared);
+                        if (i % 5 == 0) {
+                            objectPocket.remove(bean);
+                        }
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                } finally {
+                    writersDone.countDown();
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    start.await();
+                    int i = 0;
+                    while (!done.get()) {
+                        String name = "writer" + (i % WRITERS) + "-" + (i % OBJECTS_PER_WRITER);
+                        Collection<Bean> found = objectPocket.find("name", name, Bean.class);
+                        if (found != null) {
+                            for (Bean bean : found) {
+                                assertTrue(bean.name.equals(name));
+                            }
+                        }
+                        for (Bean bean : objectPocket.view(Bean.class)) {
+                            assertTrue(bean.name != null && bean.owner != null);
+                        }
+                        i += 7;
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }));
+        }
+        futures.add(executor.submit(() -> {
+            try {
+                start.await();
+                while (!done.get()) {
+                    objectPocket.store();
+                }
+            } catch (Throwable t) {
+                errors.add(t);
+            }
+        }));
+        start.countDown();
+        assertTrue(writersDone.await(60, TimeUnit.SECONDS));
+        done.set(true);
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        for (Throwable error : errors) {
+            error.printStackTrace();
+        }
+        assertTrue(errors.isEmpty());
+        objectPocket.store();
+    }
+
+    private int expectedBeans() {
+        // every 5th bean has been removed again, plus the shared bean
+        return WRITERS * (OBJECTS_PER_WRITER - OBJECTS_PER_WRITER / 5) + 1;
+    }
+
+    private void assertStored(ObjectPocket objectPocket) throws Exception {
+        assertTrue(objectPocket.count(Bean.class) == expectedBeans());
+        // owners of removed beans stay in the pocket
+        assertTrue(objectPocket.count(Owner.class) == WRITERS * OBJECTS_PER_WRITER + 1);
+        assertTrue(objectPocket.find("name", "shared", Bean.class).size() == 1);
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 0; i < OBJECTS_PER_WRITER; i++) {
+                Collection<Bean> found = objectPocket.find("name", "writer" + w + "-" + i, Bean.class);
+                if (i % 5 == 0) {
+                    assertTrue(found == null);
+                } else {
+                    assertTrue(found.size() == 1);
+                    assertTrue(found.iterator().next().owner.name.equals("writer" + w + "-" + i));
+                }
+            }
+        }
+    }
+
+    public class Bean {
+        String name;
+        Owner owner;
+
+        public Bean() {
+        }
+
+        public Bean(String name, Owner owner) {
+            this.name = name;
+            this.owner = owner;
+        }
+    }
+
+    public class Account {
+        @Id
+        String mail;
+
+        public Account() {
+        }
+
+        public Account(String mail) {
+            this.mail = mail;
+        }
+    }
+
+    @Entity
+    public class Owner {
+        String name;
+
+        public Owner() {
+        }
+
+        public Owner(String name) {
+            this.name = name;
+        }
+    }
+
+}
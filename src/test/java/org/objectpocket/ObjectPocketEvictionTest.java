@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.objectpocket.annotations.Entity;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketEvictionTest extends FileStoreTest {
+
+    private ObjectPocket getBoundedObjectPocket() throws Exception {
+        return getObjectPocket(new ObjectPocketBuilder().maxResidentObjects(15));
+    }
+
+    private void storeBeans() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 10; i++) {
+            objectPocket.add(new Bean("bean" + i));
+            objectPocket.add(new OtherBean("other" + i));
+            Owner owner = new Owner("owner" + i);
+            owner.owned = new Owned("owned" + i);
+            objectPocket.add(owner);
+        }
+        objectPocket.store();
+    }
+
+    @Test
+    public void testColdTypesAreEvicted() throws Exception {
+        storeBeans();
+        ObjectPocket objectPocket = getBoundedObjectPocket();
+        objectPocket.load();
+        Bean bean = objectPocket.query(Bean.class).where("name", "bean1").first();
+        assertTrue(objectPocket.count(OtherBean.class) == 10);
+        // beans have been evicted and are loaded again
+        Bean reloaded = objectPocket.query(Bean.class).where("name", "bean1").first();
+        assertTrue(reloaded != bean);
+        assertTrue(objectPocket.findAll(Bean.class).size() == 10);
+    }
+
+    @Test
+    public void testChangedTypesAreNotEvicted() throws Exception {
+        storeBeans();
+        ObjectPocket objectPocket = getBoundedObjectPocket();
+        objectPocket.load();
+        Bean bean = objectPocket.query(Bean.class).where("name", "bean1").first();
+        bean.name = "changed";
+        objectPocket.add(new Bean("added"));
+        assertTrue(objectPocket.count(OtherBean.class) == 10);
+        assertTrue(objectPocket.query(Bean.class).where("name", "changed").first() == bean);
+
+        // stored objects can be evicted
+        objectPocket.store();
+        assertTrue(objectPocket.count(OtherBean.class) == 10);
+        Bean reloaded = objectPocket.query(Bean.class).where("name", "changed").first();
+        assertTrue(reloaded != null && reloaded != bean);
+        assertTrue(objectPocket.count(Bean.class) == 11);
+    }
+
+    @Test
+    public void testReferencedTypesAreNotEvicted() throws Exception {
+        storeBeans();
+        ObjectPocket objectPocket = getBoundedObjectPocket();
+        objectPocket.load();
+        // loads the referenced objects as well
+        Owner owner = objectPocket.query(Owner.class).where("name", "owner1").first();
+        Owned owned = owner.owned;
+        assertTrue(objectPocket.count(Bean.class) == 10);
+        assertTrue(objectPocket.query(Owned.class).where("name", "owned1").first() == owned);
+        assertFalse(objectPocket.query(Owner.class).where("name", "owner1").first() == owner);
+    }
+
+    public class Bean {
+        String name;
+
+        public Bean() {
+        }
+
+        public Bean(String name) {
+            this.name = name;
+        }
+    }
+
+    public class OtherBean {
+        String name;
+
+        public OtherBean() {
+        }
+
+        public OtherBean(String name) {
+            this.name = name;
+        }
+    }
+
+    public class Owner {
+        String name;
+        Owned owned;
+
+        public Owner() {
+        }
+
+        public Owner(String name) {
+            this.name = name;
+        }
+    }
+
+    @Entity
+    public class Owned {
+        String name;
+
+        public Owned() {
+        }
+
+        public Owned(String name) {
+            this.name = name;
+        }
+    }
+
+}
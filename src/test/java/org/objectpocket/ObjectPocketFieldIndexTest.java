@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.objectpocket.annotations.Index;
+import org.objectpocket.exception.ObjectPocketException;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketFieldIndexTest extends FileStoreTest {
+
+    @Override
+    public ObjectPocket getObjectPocket() throws Exception {
+        return getObjectPocket(new ObjectPocketBuilder().sortedIndex(Bean.class, "age"));
+    }
+
+    @Test
+    public void testFindByIndexedField() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 100; i++) {
+            objectPocket.add(new Bean("bean" + i, i % 10));
+        }
+        Collection<Bean> beans = objectPocket.find("name", "bean42", Bean.class);
+        assertTrue(beans.size() == 1);
+        assertTrue(beans.iterator().next().age == 2);
+        assertTrue(objectPocket.find("age", 3, Bean.class).size() == 10);
+        assertNull(objectPocket.find("name", "unknown", Bean.class));
+
+        objectPocket.store();
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.find("name", "bean42", Bean.class).size() == 1);
+        assertTrue(objectPocket.find("age", 3, Bean.class).size() == 10);
+    }
+
+    @Test
+    public void testIndexIsMaintained() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Bean bean = new Bean("bean", 1);
+        objectPocket.add(bean);
+        objectPocket.add(new Bean("other", 1));
+        assertTrue(objectPocket.find("age", 1, Bean.class).size() == 2);
+
+        // changed values are not found by their old value
+        bean.name = "changed";
+        assertNull(objectPocket.find("name", "bean", Bean.class));
+        objectPocket.store();
+        assertTrue(objectPocket.find("name", "changed", Bean.class).iterator().next() == bean);
+
+        objectPocket.remove(bean);
+        assertNull(objectPocket.find("name", "changed", Bean.class));
+        assertTrue(objectPocket.find("age", 1, Bean.class).size() == 1);
+    }
+
+    @Test
+    public void testFindByNotIndexedField() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean", 1));
+        objectPocket.add(new Bean(null, 2));
+        assertTrue(objectPocket.find("comment", "none", Bean.class).size() == 2);
+        assertTrue(objectPocket.find("name", null, Bean.class).iterator().next().age == 2);
+    }
+
+    @Test(expected = ObjectPocketException.class)
+    public void testFindByUnknownField() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean", 1));
+        objectPocket.find("unknown", "value", Bean.class);
+    }
+
+    @Test
+    public void testFindRange() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 99; i >= 0; i--) {
+            objectPocket.add(new Bean("bean" + i, i));
+        }
+        Collection<Bean> beans = objectPocket.findRange("age", 30, 40, Bean.class);
+        assertTrue(beans.size() == 11);
+        assertOrdered(beans);
+        assertTrue(beans.iterator().next().age == 30);
+        assertTrue(objectPocket.findRange("age", 30, false, 40, false, Bean.class).size() == 9);
+        assertTrue(objectPocket.findRange("age", 90, null, Bean.class).size() == 10);
+        assertTrue(objectPocket.findRange("age", null, 9, Bean.class).size() == 10);
+        assertNull(objectPocket.findRange("age", 40, 30, Bean.class));
+
+        // annotated sorted index
+        assertTrue(objectPocket.findRange("created", new Date(50_000), false, null, false, Bean.class).size() == 49);
+
+        // changed values are found by their new value after store
+        Bean bean = objectPocket.find("name", "bean50", Bean.class).iterator().next();
+        bean.age = 35;
+        assertTrue(objectPocket.findRange("age", 50, 60, Bean.class).size() == 10);
+        objectPocket.store();
+        assertTrue(objectPocket.findRange("age", 30, 40, Bean.class).size() == 12);
+        assertOrdered(objectPocket.findRange("age", 30, 40, Bean.class));
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findRange("age", 30, 40, Bean.class).size() == 12);
+    }
+
+    @Test
+    public void testFindByPrefix() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("M\u00fcller", 1));
+        objectPocket.add(new Bean("M\u00fcnster", 2));
+        objectPocket.add(new Bean("Mueller", 3));
+        objectPocket.add(new Bean(null, 4));
+        Collection<Bean> beans = objectPocket.findByPrefix("name", "M\u00fc", Bean.class);
+        assertTrue(beans.size() == 2);
+        assertTrue(beans.iterator().next().name.equals("M\u00fcller"));
+        assertTrue(objectPocket.findByPrefix("name", "M", Bean.class).size() == 3);
+        assertNull(objectPocket.findByPrefix("name", "X", Bean.class));
+    }
+
+    @Test(expected = ObjectPocketException.class)
+    public void testFindRangeWithIncomparableBounds() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean", 1));
+        objectPocket.findRange("age", "a", "b", Bean.class);
+    }
+
+    @Test
+    public void testIndexesArePersisted() throws Exception {
+        File indexFile = new File(FILESTORE + "/_op_index." + Bean.class.getName() + ".name");
+        File ageIndexFile = new File(FILESTORE + "/_op_index." + Bean.class.getName() + ".age");
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 100; i++) {
+            objectPocket.add(new Bean("bean" + i, i % 10));
+        }
+        objectPocket.store();
+        assertTrue(indexFile.exists());
+        assertTrue(ageIndexFile.exists());
+
+        // the persisted index is used as long as the type file is unchanged
+        String json = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8);
+        Files.write(indexFile.toPath(), json.replace("\"bean42\"", "\"renamed\"").getBytes(StandardCharsets.UTF_8));
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertNull(objectPocket.find("name", "bean42", Bean.class));
+        assertNull(objectPocket.find("name", "renamed", Bean.class));
+        assertTrue(objectPocket.findRange("age", 3, 4, Bean.class).size() == 20);
+
+        // unchanged types do not rewrite their indexes
+        ageIndexFile.setLastModified(1_000_000_000_000L);
+        objectPocket.find("name", "bean1", Bean.class).iterator().next().name = "changed";
+        objectPocket.store();
+        assertTrue(ageIndexFile.lastModified() != 1_000_000_000_000L);
+        ageIndexFile.setLastModified(1_000_000_000_000L);
+        objectPocket.store();
+        assertTrue(ageIndexFile.lastModified() == 1_000_000_000_000L);
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.find("name", "bean42", Bean.class).size() == 1);
+        assertTrue(objectPocket.find("name", "changed", Bean.class).size() == 1);
+
+        // indexes of changed type files are rebuilt
+        objectPocket.add(new Bean("added", 3));
+        objectPocket.store();
+        Files.write(indexFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        Files.write(ageIndexFile.toPath(), "corrupt".getBytes(StandardCharsets.UTF_8));
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.find("name", "added", Bean.class).size() == 1);
+        assertTrue(objectPocket.find("name", "changed", Bean.class).size() == 1);
+        assertTrue(objectPocket.find("age", 3, Bean.class).size() == 11);
+    }
+
+    private void assertOrdered(Collection<Bean> beans) {
+        Iterator<Bean> iterator = beans.iterator();
+        int age = iterator.next().age;
+        while (iterator.hasNext()) {
+            int next = iterator.next().age;
+            assertTrue(age <= next);
+            age = next;
+        }
+    }
+
+    public class Bean {
+        @Index
+        String name;
+        int age;
+        @Index(sorted = true)
+        Date created;
+        String comment = "none";
+
+        public Bean() {
+        }
+
+        public Bean(String name, int age) {
+            this.name = name;
+            this.age = age;
+            this.created = new Date(age * 1000L);
+        }
+    }
+
+}
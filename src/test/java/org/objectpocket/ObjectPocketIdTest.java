@@ -16,10 +16,25 @@
 
 package org.objectpocket;
 
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
 import org.junit.Test;
 import org.objectpocket.annotations.Id;
+import org.objectpocket.util.RandomUuidGenerator;
+import org.objectpocket.util.SequenceIdGenerator;
+import org.objectpocket.util.TimeOrderedIdGenerator;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 
 /**
  * 
@@ -38,6 +53,102 @@ public class ObjectPocketIdTest extends FileStoreTest {
 	assertTrue(find.getCity().equals("Karlsruhe"));
     }
 
+    @Test
+    public void testSequenceIds() throws Exception {
+	ObjectPocket objectPocket = getObjectPocket(new SequenceIdGenerator());
+	objectPocket.add(new Bean("a"));
+	objectPocket.add(new Bean("b"));
+	objectPocket.add(new Address("Karlsruhe"));
+	objectPocket.store();
+	assertTrue(objectPocket.find("1", Bean.class) != null);
+	assertTrue(objectPocket.find("2", Bean.class) != null);
+	assertNull(objectPocket.find("3", Bean.class));
+
+	// the sequence continues after the stored ids
+	objectPocket = getObjectPocket(new SequenceIdGenerator());
+	objectPocket.load();
+	Bean bean = new Bean("c");
+	objectPocket.add(bean);
+	assertTrue(objectPocket.find("3", Bean.class) == bean);
+	assertTrue(objectPocket.find("Karlsruhe", Address.class) != null);
+    }
+
+    @Test
+    public void testStoredIdsAreKept() throws Exception {
+	ObjectPocket objectPocket = getObjectPocket();
+	objectPocket.add(new Bean("a"));
+	objectPocket.add(new Bean("b"));
+	objectPocket.store();
+	Set<String> ids = readIds();
+	assertTrue(ids.size() == 2);
+
+	objectPocket = getObjectPocket(new SequenceIdGenerator());
+	objectPocket.load();
+	objectPocket.add(new Bean("c"));
+	objectPocket.store();
+	ids.add("1");
+	assertTrue(readIds().equals(ids));
+    }
+
+    @Test
+    public void testTimeOrderedIds() throws Exception {
+	IdGenerator idGenerator = new TimeOrderedIdGenerator();
+	String last = idGenerator.nextId(null);
+	for (int i = 0; i < 200000; i++) {
+	    String id = idGenerator.nextId(null);
+	    assertTrue(id.length() == 16);
+	    assertTrue(id.compareTo(last) > 0);
+	    last = id;
+	}
+	// ids read from the store are skipped
+	String future = Long.toHexString(Long.MAX_VALUE >> 1);
+	idGenerator.idInUse(future);
+	assertTrue(idGenerator.nextId(null).compareTo(future) > 0);
+    }
+
+    @Test
+    public void testRandomUuids() throws Exception {
+	IdGenerator idGenerator = new RandomUuidGenerator();
+	Set<String> ids = new HashSet<String>();
+	for (int i = 0; i < 1000; i++) {
+	    String id = idGenerator.nextId(null);
+	    UUID uuid = UUID.fromString(id);
+	    assertTrue(uuid.version() == 4);
+	    assertTrue(uuid.variant() == 2);
+	    assertTrue(uuid.toString().equals(id));
+	    ids.add(id);
+	}
+	assertTrue(ids.size() == 1000);
+    }
+
+    private ObjectPocket getObjectPocket(IdGenerator idGenerator) throws Exception {
+	return getObjectPocket(new ObjectPocketBuilder().idGenerator(idGenerator));
+    }
+
+    private Set<String> readIds() throws Exception {
+	Set<String> ids = new HashSet<String>();
+	File file = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+	try (Reader reader = new InputStreamReader(new FileInputStream(file),
+		"UTF-8")) {
+	    for (JsonElement element : JsonParser.parseReader(reader)
+		    .getAsJsonArray()) {
+		ids.add(element.getAsJsonObject().get("op_id").getAsString());
+	    }
+	}
+	return ids;
+    }
+
+    public class Bean {
+	String name;
+
+	public Bean() {
+	}
+
+	public Bean(String name) {
+	    this.name = name;
+	}
+    }
+
     public class Address {
 	@Id
 	private String city;
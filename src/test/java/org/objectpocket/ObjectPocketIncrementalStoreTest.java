@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketIncrementalStoreTest extends FileStoreTest {
+
+    private static final long OLD_TIMESTAMP = 1_000_000_000_000L;
+
+    @Test
+    public void testOnlyChangedFilesAreWritten() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Bean bean = new Bean("bean");
+        OtherBean otherBean = new OtherBean("other");
+        objectPocket.add(bean);
+        objectPocket.add(otherBean);
+        objectPocket.store();
+
+        File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+        File otherBeanFile = new File(FILESTORE + "/" + OtherBean.class.getName() + ".json");
+        File indexFile = new File(FILESTORE + "/_op_index");
+        beanFile.setLastModified(OLD_TIMESTAMP);
+        otherBeanFile.setLastModified(OLD_TIMESTAMP);
+        indexFile.setLastModified(OLD_TIMESTAMP);
+
+        // nothing changed, nothing will be written
+        objectPocket.store();
+        assertTrue(beanFile.lastModified() == OLD_TIMESTAMP);
+        assertTrue(otherBeanFile.lastModified() == OLD_TIMESTAMP);
+        assertTrue(indexFile.lastModified() == OLD_TIMESTAMP);
+
+        // only the file of the changed object will be written
+        bean.name = "changed";
+        objectPocket.store();
+        assertFalse(beanFile.lastModified() == OLD_TIMESTAMP);
+        assertTrue(otherBeanFile.lastModified() == OLD_TIMESTAMP);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).iterator().next().name.equals("changed"));
+        assertTrue(objectPocket.findAll(OtherBean.class).iterator().next().name.equals("other"));
+    }
+
+    @Test
+    public void testUnchangedAfterLoad() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean"));
+        objectPocket.add(new OtherBean("other"));
+        objectPocket.store();
+
+        File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+        File otherBeanFile = new File(FILESTORE + "/" + OtherBean.class.getName() + ".json");
+        beanFile.setLastModified(OLD_TIMESTAMP);
+        otherBeanFile.setLastModified(OLD_TIMESTAMP);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        objectPocket.findAll(OtherBean.class).iterator().next().name = "changed";
+        objectPocket.store();
+        assertTrue(beanFile.lastModified() == OLD_TIMESTAMP);
+        assertFalse(otherBeanFile.lastModified() == OLD_TIMESTAMP);
+    }
+
+    @Test
+    public void testRemovedTypeFileIsDeleted() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.add(new OtherBean("other"));
+        objectPocket.store();
+        File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+        assertTrue(beanFile.exists());
+        objectPocket.remove(bean);
+        objectPocket.store();
+        assertFalse(beanFile.exists());
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertNull(objectPocket.findAll(Bean.class));
+        assertTrue(objectPocket.findAll(OtherBean.class).size() == 1);
+    }
+
+    @Test
+    public void testFileDeletedByHandIsRewritten() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean"));
+        objectPocket.store();
+        File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+        beanFile.delete();
+        objectPocket.store();
+        assertTrue(beanFile.exists());
+    }
+
+    @Test
+    public void testTrackedModifications() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(new ObjectPocketBuilder().trackModifications(Bean.class));
+        Bean bean = new Bean("bean");
+        OtherBean otherBean = new OtherBean("other");
+        objectPocket.add(bean);
+        objectPocket.add(otherBean);
+        objectPocket.store();
+
+        File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+        File otherBeanFile = new File(FILESTORE + "/" + OtherBean.class.getName() + ".json");
+        beanFile.setLastModified(OLD_TIMESTAMP);
+        otherBeanFile.setLastModified(OLD_TIMESTAMP);
+
+        // changes of tracked types count only when they are reported,
+        // other types are still compared
+        bean.name = "unreported";
+        otherBean.name = "changed";
+        objectPocket.store();
+        assertTrue(beanFile.lastModified() == OLD_TIMESTAMP);
+        assertFalse(otherBeanFile.lastModified() == OLD_TIMESTAMP);
+
+        bean.name = "reported";
+        objectPocket.markModified(bean);
+        objectPocket.store();
+        assertFalse(beanFile.lastModified() == OLD_TIMESTAMP);
+
+        objectPocket = getObjectPocket(new ObjectPocketBuilder().trackModifications());
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).iterator().next().name.equals("reported"));
+        assertTrue(objectPocket.findAll(OtherBean.class).iterator().next().name.equals("changed"));
+    }
+
+    @Test
+    public void testTrackedAddMoveAndRemove() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(new ObjectPocketBuilder().trackModifications());
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.add(new Bean("other"));
+        objectPocket.store();
+
+        // the object leaves the file of its type
+        File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+        File movedFile = new File(FILESTORE + "/moved.json");
+        beanFile.setLastModified(OLD_TIMESTAMP);
+        objectPocket.add(bean, "moved");
+        objectPocket.store();
+        assertFalse(beanFile.lastModified() == OLD_TIMESTAMP);
+        assertTrue(movedFile.exists());
+
+        objectPocket.remove(bean);
+        objectPocket.add(new Bean("added"));
+        objectPocket.store();
+        assertFalse(movedFile.exists());
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).size() == 2);
+        for (Bean b : objectPocket.findAll(Bean.class)) {
+            assertFalse(b.name.equals("bean"));
+        }
+    }
+
+    public class Bean {
+        String name;
+
+        public Bean(String name) {
+            this.name = name;
+        }
+    }
+
+    public class OtherBean {
+        String name;
+
+        public OtherBean(String name) {
+            this.name = name;
+        }
+    }
+
+}
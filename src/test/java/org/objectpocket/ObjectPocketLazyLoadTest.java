@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.objectpocket.annotations.Entity;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketLazyLoadTest extends FileStoreTest {
+
+    private static final long OLD_TIMESTAMP = 1_000_000_000_000L;
+
+    private File otherBeanFile = new File(FILESTORE + "/" + OtherBean.class.getName() + ".json");
+    private File unrelatedFile = new File(FILESTORE + "/" + Unrelated.class.getName() + ".json");
+
+    private ObjectPocket getLazyObjectPocket() throws Exception {
+        return getObjectPocket(new ObjectPocketBuilder().lazyLoading());
+    }
+
+    private void storeBeans() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 10; i++) {
+            Bean bean = new Bean("bean" + i);
+            bean.other = new OtherBean("other" + i);
+            objectPocket.add(bean);
+            objectPocket.add(new Unrelated("unrelated" + i));
+        }
+        objectPocket.store();
+    }
+
+    @Test
+    public void testTypesAreLoadedOnFirstAccess() throws Exception {
+        storeBeans();
+        // broken data of a type that is not accessed does not matter
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(unrelatedFile), "UTF-8")) {
+            out.write("{\"broken\":");
+        }
+        ObjectPocket objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+
+        Collection<Bean> beans = objectPocket.findAll(Bean.class);
+        assertTrue(beans.size() == 10);
+        // referenced objects have been loaded along with the beans
+        Collection<OtherBean> otherBeans = objectPocket.findAll(OtherBean.class);
+        assertTrue(otherBeans.size() == 10);
+        for (Bean bean : beans) {
+            assertTrue(otherBeans.contains(bean.other));
+            assertTrue(bean.other.name.equals("other" + bean.name.substring(4)));
+        }
+    }
+
+    @Test
+    public void testStoreKeepsUnloadedTypes() throws Exception {
+        storeBeans();
+        unrelatedFile.setLastModified(OLD_TIMESTAMP);
+        ObjectPocket objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        objectPocket.findAll(Bean.class).iterator().next().other.name = "changed";
+        objectPocket.add(new Bean("added"));
+        objectPocket.store();
+        assertTrue(unrelatedFile.lastModified() == OLD_TIMESTAMP);
+        assertTrue(otherBeanFile.lastModified() != OLD_TIMESTAMP);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Unrelated.class).size() == 10);
+        assertTrue(objectPocket.findAll(Bean.class).size() == 11);
+        assertTrue(objectPocket.query(OtherBean.class).where("name", "changed").count() == 1);
+    }
+
+    @Test
+    public void testRemovedType() throws Exception {
+        storeBeans();
+        ObjectPocket objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        for (Unrelated unrelated : objectPocket.findAll(Unrelated.class)) {
+            objectPocket.remove(unrelated);
+        }
+        objectPocket.store();
+        assertTrue(!unrelatedFile.exists());
+        objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        assertNull(objectPocket.findAll(Unrelated.class));
+        assertTrue(objectPocket.count(Bean.class) == 10);
+    }
+
+    public class Bean {
+        String name;
+        OtherBean other;
+
+        public Bean() {
+        }
+
+        public Bean(String name) {
+            this.name = name;
+        }
+    }
+
+    @Entity
+    public class OtherBean {
+        String name;
+
+        public OtherBean() {
+        }
+
+        public OtherBean(String name) {
+            this.name = name;
+        }
+    }
+
+    public class Unrelated {
+        String name;
+
+        public Unrelated() {
+        }
+
+        public Unrelated(String name) {
+            this.name = name;
+        }
+    }
+
+}
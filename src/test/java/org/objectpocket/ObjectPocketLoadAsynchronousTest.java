@@ -19,7 +19,15 @@ package org.objectpocket;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Test;
+import org.objectpocket.annotations.Index;
 
 /**
  * 
@@ -63,6 +71,131 @@ public class ObjectPocketLoadAsynchronousTest extends FileStoreTest {
 	assertTrue(dueAsync == objectPocket.findAll(BeanAsync.class).size());
     }
     
+    @Test
+    public void testAwaitType() throws Exception {
+	ObjectPocket objectPocket = getObjectPocket();
+	int due = 10000;
+	for (int i = 0; i < due; i++) {
+	    objectPocket.add(new BeanPreload("pre " + i));
+	    objectPocket.add(new BeanAsync("async " + i));
+	    objectPocket.add(new BeanOther("other " + i));
+	}
+	objectPocket.store();
+
+	objectPocket = getParallelObjectPocket();
+	objectPocket.loadAsynchronous(BeanPreload.class);
+	assertTrue(objectPocket.awaitType(BeanPreload.class).isDone());
+	AtomicInteger loaded = new AtomicInteger();
+	CountDownLatch called = new CountDownLatch(1);
+	objectPocket.onLoaded(BeanOther.class, beans -> {
+	    loaded.set(beans.size());
+	    called.countDown();
+	});
+	objectPocket.awaitType(BeanAsync.class).get(10, TimeUnit.SECONDS);
+	assertTrue(due == objectPocket.findAll(BeanAsync.class).size());
+	assertTrue(called.await(10, TimeUnit.SECONDS));
+	assertTrue(due == loaded.get());
+	// types that are not stored do not need to be awaited
+	assertTrue(objectPocket.awaitType(String.class).isDone());
+    }
+
+    @Test
+    public void testOnLoadedExecutor() throws Exception {
+	ObjectPocket objectPocket = getObjectPocket();
+	objectPocket.add(new BeanAsync("async"));
+	objectPocket.store();
+
+	// callbacks run on the configured executor
+	ExecutorService executor = Executors.newFixedThreadPool(2, r -> new Thread(r, "test-load"));
+	try {
+	    objectPocket = getObjectPocket(new ObjectPocketBuilder().parallelLoading(executor));
+	    objectPocket.loadAsynchronous();
+	    AtomicReference<String> thread = new AtomicReference<String>();
+	    CountDownLatch called = new CountDownLatch(1);
+	    objectPocket.onLoaded(BeanAsync.class, beans -> {
+		thread.set(Thread.currentThread().getName());
+		called.countDown();
+	    });
+	    assertTrue(called.await(10, TimeUnit.SECONDS));
+	    assertTrue(thread.get().equals("test-load"));
+	} finally {
+	    executor.shutdown();
+	}
+
+	// otherwise on a thread of the pocket, not of the common pool
+	objectPocket = getObjectPocket();
+	objectPocket.loadAsynchronous();
+	AtomicReference<String> thread = new AtomicReference<String>();
+	CountDownLatch called = new CountDownLatch(1);
+	objectPocket.onLoaded(BeanAsync.class, beans -> {
+	    thread.set(Thread.currentThread().getName());
+	    called.countDown();
+	});
+	assertTrue(called.await(10, TimeUnit.SECONDS));
+	assertTrue(thread.get().equals("ObjectPocket-callback"));
+    }
+
+    @Test
+    public void testStoreWaitsForLoad() throws Exception {
+	ObjectPocket objectPocket = getObjectPocket();
+	int due = 10000;
+	for (int i = 0; i < due; i++) {
+	    objectPocket.add(new BeanAsync("async " + i));
+	    objectPocket.add(new BeanOther("other " + i));
+	}
+	objectPocket.store();
+
+	objectPocket = getParallelObjectPocket();
+	objectPocket.loadAsynchronous();
+	objectPocket.store();
+	assertTrue(!objectPocket.isLoading());
+
+	objectPocket = getObjectPocket();
+	objectPocket.load();
+	assertTrue(due == objectPocket.findAll(BeanAsync.class).size());
+	assertTrue(due == objectPocket.findAll(BeanOther.class).size());
+    }
+
+    @Test
+    public void testAddWhileTypeIsLoading() throws Exception {
+	ObjectPocket objectPocket = getObjectPocket();
+	int due = 1000;
+	for (int i = 0; i < due; i++) {
+	    objectPocket.add(new BeanIndexed("indexed " + i));
+	}
+	objectPocket.store();
+
+	// the type is loaded after the objects have been added
+	objectPocket = getDelayedObjectPocket(200);
+	objectPocket.loadAsynchronous();
+	objectPocket.add(new BeanIndexed("added"));
+	objectPocket.remove(objectPocket.find("name", "indexed 0", BeanIndexed.class).iterator().next());
+	assertTrue(due == objectPocket.findAll(BeanIndexed.class).size());
+	assertTrue(objectPocket.find("name", "added", BeanIndexed.class).size() == 1);
+	objectPocket.store();
+
+	objectPocket = getObjectPocket();
+	objectPocket.load();
+	assertTrue(due == objectPocket.findAll(BeanIndexed.class).size());
+	assertTrue(objectPocket.find("name", "added", BeanIndexed.class).size() == 1);
+	assertNull(objectPocket.find("name", "indexed 0", BeanIndexed.class));
+    }
+
+    private ObjectPocket getDelayedObjectPocket(long delay) throws Exception {
+	return getObjectPocket(new ObjectPocketBuilder().parallelLoading(r -> new Thread(() -> {
+	    try {
+		Thread.sleep(delay);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    r.run();
+	}).start()));
+    }
+
+    private ObjectPocket getParallelObjectPocket() throws Exception {
+	return getObjectPocket(new ObjectPocketBuilder().parallelLoading(2));
+    }
+
     private class BeanPreload {
 	@SuppressWarnings("unused")
 	String name;
@@ -77,4 +210,18 @@ public class ObjectPocketLoadAsynchronousTest extends FileStoreTest {
 	}
     }
 
+    private class BeanOther extends BeanPreload {
+	public BeanOther(String name) {
+	    super(name);
+	}
+    }
+
+    private class BeanIndexed {
+	@Index
+	String name;
+	public BeanIndexed(String name) {
+	    this.name = name;
+	}
+    }
+
 }
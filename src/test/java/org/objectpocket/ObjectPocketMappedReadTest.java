@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.objectpocket.exception.ObjectPocketException;
+import org.objectpocket.storage.FileStore;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketMappedReadTest extends FileStoreTest {
+
+    private File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+
+    private ObjectPocket getObjectPocket(boolean memoryMappedReads) throws Exception {
+        FileStore objectStore = new FileStore(FILESTORE);
+        objectStore.setMemoryMappedReads(memoryMappedReads);
+        return getObjectPocket(new ObjectPocketBuilder(), objectStore);
+    }
+
+    private Map<String, String> storeBeans() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Map<String, String> texts = new HashMap<String, String>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            // structural characters inside strings must not confuse scanning
+            text.setLength(0);
+            text.append("line \u00fc\u20ac\n{[\"\\]}").append(i);
+            for (int j = 0; j < i % 100; j++) {
+                text.append(" text").append(j);
+            }
+            objectPocket.add(new Bean("bean" + i, text.toString()));
+            texts.put("bean" + i, text.toString());
+        }
+        objectPocket.store();
+        assertTrue(beanFile.length() > FileStore.MAPPED_READ_THRESHOLD);
+        return texts;
+    }
+
+    @Test
+    public void testMappedAndStreamedReadsAreEqual() throws Exception {
+        Map<String, String> texts = storeBeans();
+        for (boolean mapped : new boolean[] { true, false }) {
+            ObjectPocket objectPocket = getObjectPocket(mapped);
+            objectPocket.load();
+            Collection<Bean> beans = objectPocket.findAll(Bean.class);
+            assertTrue(beans.size() == texts.size());
+            for (Bean bean : beans) {
+                assertTrue(bean.text.equals(texts.get(bean.name)));
+            }
+        }
+    }
+
+    @Test(expected = ObjectPocketException.class)
+    public void testTruncatedFile() throws Exception {
+        storeBeans();
+        try (RandomAccessFile file = new RandomAccessFile(beanFile, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        getObjectPocket(true).load();
+    }
+
+    @Test
+    public void testPrettyPrintedFile() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean", "text"));
+        objectPocket.store();
+        // line breaks and braces inside of a string value
+        String text = "first\nsecond }";
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(beanFile), "UTF-8")) {
+            out.write("[\n{\n  \"op_type\": \"" + Bean.class.getName() + "\",\n  \"op_id\": \"1\",\n"
+                    + "  \"name\": \"bean\",\n  \"text\": \"" + text + "\"\n}\n]\n");
+        }
+
+        FileStore objectStore = new FileStore(FILESTORE);
+        objectStore.getAvailableObjectTypes();
+        Map<String, String> objects = objectStore.readJsonObjects(Bean.class.getName()).values().iterator().next();
+        assertTrue(objects.size() == 1);
+        JsonObject jsonObject = JsonParser.parseString(objects.keySet().iterator().next()).getAsJsonObject();
+        assertTrue(jsonObject.get("text").getAsString().equals(text));
+
+        objectPocket = getObjectPocket(true);
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).iterator().next().text.equals(text));
+    }
+
+    public class Bean {
+        String name;
+        String text;
+
+        public Bean() {
+        }
+
+        public Bean(String name, String text) {
+            this.name = name;
+            this.text = text;
+        }
+    }
+
+}
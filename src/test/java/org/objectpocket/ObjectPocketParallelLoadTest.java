@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.objectpocket.annotations.Entity;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketParallelLoadTest extends FileStoreTest {
+
+    private void storeTestData(int count) throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < count; i++) {
+            Address address = new Address("city" + i);
+            Person person = new Person("person" + i, address);
+            address.inhabitant = person;
+            objectPocket.add(person);
+            objectPocket.add(new Car("car" + i, person));
+        }
+        objectPocket.store();
+    }
+
+    private void assertTestData(ObjectPocket objectPocket, int count) throws Exception {
+        Collection<Person> persons = objectPocket.findAll(Person.class);
+        assertTrue(persons.size() == count);
+        assertTrue(objectPocket.findAll(Address.class).size() == count);
+        assertTrue(objectPocket.findAll(Car.class).size() == count);
+        for (Person person : persons) {
+            assertTrue(person.address.inhabitant == person);
+            assertTrue(objectPocket.findAll(Address.class).contains(person.address));
+        }
+        for (Car car : objectPocket.findAll(Car.class)) {
+            assertTrue(persons.contains(car.owner));
+        }
+    }
+
+    @Test
+    public void testParallelLoading() throws Exception {
+        int count = 1000;
+        storeTestData(count);
+        ObjectPocket objectPocket = getObjectPocket(new ObjectPocketBuilder().parallelLoading(4));
+        objectPocket.load();
+        assertTestData(objectPocket, count);
+    }
+
+    @Test
+    public void testParallelLoadingWithExecutor() throws Exception {
+        int count = 1000;
+        storeTestData(count);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ObjectPocket objectPocket = getObjectPocket(new ObjectPocketBuilder().parallelLoading(executor));
+            objectPocket.load();
+            assertTestData(objectPocket, count);
+            // executor can be reused
+            objectPocket.load();
+            assertTestData(objectPocket, count);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Entity
+    public class Person {
+        String name;
+        Address address;
+
+        public Person() {
+        }
+
+        public Person(String name, Address address) {
+            this.name = name;
+            this.address = address;
+        }
+    }
+
+    @Entity
+    public class Address {
+        String city;
+        Person inhabitant;
+
+        public Address() {
+        }
+
+        public Address(String city) {
+            this.city = city;
+        }
+    }
+
+    public class Car {
+        String name;
+        Person owner;
+
+        public Car() {
+        }
+
+        public Car(String name, Person owner) {
+            this.name = name;
+            this.owner = owner;
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.objectpocket.annotations.Entity;
+import org.objectpocket.annotations.Id;
+import org.objectpocket.storage.FileStore;
+
+import com.google.gson.JsonObject;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketPointReadTest extends FileStoreTest {
+
+    private static final long OLD_TIMESTAMP = 1_000_000_000_000L;
+
+    private File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+
+    private ObjectPocket getLazyObjectPocket() throws Exception {
+        return getObjectPocket(new ObjectPocketBuilder().lazyLoading());
+    }
+
+    private void storeBeans() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 100; i++) {
+            Bean bean = new Bean("key" + i, "b\u00fcrger\u20ac" + i);
+            bean.other = new OtherBean("other" + i);
+            objectPocket.add(bean);
+        }
+        objectPocket.store();
+    }
+
+    @Test
+    public void testReadSingleObjectFromStore() throws Exception {
+        storeBeans();
+        FileStore fileStore = new FileStore(FILESTORE);
+        fileStore.getAvailableObjectTypes();
+        AtomicReference<JsonObject> read = new AtomicReference<JsonObject>();
+        assertTrue(fileStore.readJsonObject(Bean.class.getName(), "key42", (filename, id, jsonObject) -> {
+            read.set(jsonObject);
+        }));
+        assertTrue(read.get().get("name").getAsString().equals("b\u00fcrger\u20ac42"));
+        read.set(null);
+        assertTrue(fileStore.readJsonObject(Bean.class.getName(), "unknown", (filename, id, jsonObject) -> {
+            read.set(jsonObject);
+        }));
+        assertNull(read.get());
+    }
+
+    @Test
+    public void testOffsetsAreKeptNextToTheFiles() throws Exception {
+        storeBeans();
+        File offsetsFile = new File(FILESTORE + "/_op_offsets." + Bean.class.getName());
+        assertTrue(offsetsFile.exists());
+        // the index does not grow with the number of objects
+        assertFalse(FileUtils.readFileToString(new File(FILESTORE + "/_op_index"), StandardCharsets.UTF_8)
+                .contains("key42"));
+
+        // offsets of unchanged files are not written again
+        offsetsFile.setLastModified(OLD_TIMESTAMP);
+        ObjectPocket objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        objectPocket.find("key7", Bean.class).other.name = "changed";
+        objectPocket.store();
+        assertTrue(offsetsFile.lastModified() == OLD_TIMESTAMP);
+        objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.find("key7", Bean.class).other.name.equals("changed"));
+    }
+
+    @Test
+    public void testFindDoesNotLoadType() throws Exception {
+        storeBeans();
+        // the file can not be read as a whole anymore
+        try (RandomAccessFile file = new RandomAccessFile(beanFile, "rw")) {
+            file.write('x');
+        }
+        ObjectPocket objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        Bean bean = objectPocket.find("key7", Bean.class);
+        assertTrue(bean.name.equals("b\u00fcrger\u20ac7"));
+        // references have been injected
+        assertTrue(bean.other.name.equals("other7"));
+        assertTrue(objectPocket.find("other", OtherBean.class) == null);
+        assertTrue(objectPocket.find("key7", Bean.class) == bean);
+        assertNull(objectPocket.find("unknown", Bean.class));
+    }
+
+    @Test
+    public void testReadObjectsAreKeptWhenLoadingType() throws Exception {
+        storeBeans();
+        ObjectPocket objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        Bean bean = objectPocket.find("key7", Bean.class);
+        bean.name = "changed";
+        assertTrue(objectPocket.findAll(Bean.class).size() == 100);
+        assertTrue(objectPocket.findAll(Bean.class).contains(bean));
+        assertTrue(objectPocket.query(Bean.class).where("name", "changed").first() == bean);
+
+        // changes of read objects are stored
+        objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        objectPocket.find("key8", Bean.class).name = "changed";
+        objectPocket.store();
+        objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.find("key8", Bean.class).name.equals("changed"));
+        assertTrue(objectPocket.findAll(Bean.class).size() == 100);
+    }
+
+    public class Bean {
+        @Id
+        String key;
+        String name;
+        OtherBean other;
+
+        public Bean() {
+        }
+
+        public Bean(String key, String name) {
+            this.key = key;
+            this.name = name;
+        }
+    }
+
+    @Entity
+    public class OtherBean {
+        String name;
+
+        public OtherBean() {
+        }
+
+        public OtherBean(String name) {
+            this.name = name;
+        }
+    }
+
+}
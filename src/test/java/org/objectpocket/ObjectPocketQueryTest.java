@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.objectpocket.Query.between;
+import static org.objectpocket.Query.equalTo;
+import static org.objectpocket.Query.greaterThan;
+import static org.objectpocket.Query.lessThan;
+import static org.objectpocket.Query.matches;
+import static org.objectpocket.Query.startsWith;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.objectpocket.annotations.Index;
+import org.objectpocket.exception.ObjectPocketException;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketQueryTest extends FileStoreTest {
+
+    private ObjectPocket createObjectPocket() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 1000; i++) {
+            objectPocket.add(new Bean("bean" + i, i % 100, i % 2 == 0 ? "Berlin" : "Hamburg"));
+        }
+        return objectPocket;
+    }
+
+    @Test
+    public void testWhereAndOr() throws Exception {
+        ObjectPocket objectPocket = createObjectPocket();
+        List<Bean> beans = objectPocket.query(Bean.class).where("city", "Berlin").and(between("age", 30, 39)).list();
+        assertTrue(beans.size() == 50);
+        for (Bean bean : beans) {
+            assertTrue(bean.city.equals("Berlin") && bean.age >= 30 && bean.age <= 39);
+        }
+        // and binds stronger than or
+        beans = objectPocket.query(Bean.class).where(equalTo("city", "Berlin")).and(equalTo("age", 30))
+                .or(equalTo("name", "bean1")).list();
+        assertTrue(beans.size() == 11);
+        assertTrue(objectPocket.query(Bean.class).where(equalTo("name", "bean1")).or(equalTo("name", "bean2"))
+                .or(equalTo("name", "bean1")).count() == 2);
+        assertTrue(objectPocket.query(Bean.class).where(greaterThan("age", 97)).or(lessThan("age", 2)).count() == 40);
+        assertTrue(objectPocket.query(Bean.class).where(startsWith("name", "bean99")).count() == 11);
+        assertTrue(objectPocket.query(Bean.class).count() == 1000);
+        assertTrue(objectPocket.query(OtherBean.class).list().isEmpty());
+    }
+
+    @Test
+    public void testOrderByLimitAndProject() throws Exception {
+        ObjectPocket objectPocket = createObjectPocket();
+        List<Bean> beans = objectPocket.query(Bean.class).where(between("age", 10, 20)).orderBy("age", false)
+                .orderBy("name").limit(3).list();
+        assertTrue(beans.size() == 3);
+        assertTrue(beans.get(0).name.equals("bean120"));
+        assertTrue(beans.get(1).name.equals("bean20"));
+        assertTrue(beans.get(2).name.equals("bean220"));
+        List<String> names = objectPocket.query(Bean.class).where("name", "bean5").project(bean -> bean.name);
+        assertTrue(names.size() == 1 && names.get(0).equals("bean5"));
+        assertTrue(objectPocket.query(Bean.class).orderBy("age").first().age == 0);
+        assertNull(objectPocket.query(Bean.class).where("name", "unknown").first());
+    }
+
+    @Test
+    public void testIndexAndLimitReduceEvaluations() throws Exception {
+        ObjectPocket objectPocket = createObjectPocket();
+        AtomicInteger evaluations = new AtomicInteger();
+        // indexed condition, only the candidates are evaluated
+        assertTrue(objectPocket.query(Bean.class).where("name", "bean7").and(matches(bean -> {
+            evaluations.incrementAndGet();
+            return true;
+        })).count() == 1);
+        assertTrue(evaluations.get() == 1);
+
+        // stops after the limit has been reached
+        evaluations.set(0);
+        assertTrue(objectPocket.query(Bean.class).where(matches(bean -> {
+            evaluations.incrementAndGet();
+            return true;
+        })).limit(5).list().size() == 5);
+        assertTrue(evaluations.get() == 5);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        ObjectPocket objectPocket = createObjectPocket();
+        assertTrue(objectPocket.query(Bean.class).where("city", "Hamburg").parallel().count() == 500);
+        List<Bean> beans = objectPocket.query(Bean.class).where("city", "Hamburg").orderBy("name").parallel()
+                .list();
+        for (int i = 1; i < beans.size(); i++) {
+            assertTrue(beans.get(i - 1).name.compareTo(beans.get(i).name) < 0);
+        }
+    }
+
+    @Test(expected = ObjectPocketException.class)
+    public void testUnknownField() throws Exception {
+        createObjectPocket().query(Bean.class).where("unknown", 1).list();
+    }
+
+    public class Bean {
+        @Index
+        String name;
+        @Index(sorted = true)
+        int age;
+        String city;
+
+        public Bean() {
+        }
+
+        public Bean(String name, int age, String city) {
+            this.name = name;
+            this.age = age;
+            this.city = city;
+        }
+    }
+
+    public class OtherBean {
+        String name;
+
+        public OtherBean() {
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+import org.objectpocket.annotations.Id;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketRefTest extends FileStoreTest {
+
+    private static final long OLD_TIMESTAMP = 1_000_000_000_000L;
+
+    private File addressFile = new File(FILESTORE + "/" + Address.class.getName() + ".json");
+
+    private ObjectPocket getLazyObjectPocket() throws Exception {
+        return getObjectPocket(new ObjectPocketBuilder().lazyLoading());
+    }
+
+    private void storePersons() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Address shared = new Address("shared");
+        for (int i = 0; i < 10; i++) {
+            Person person = new Person("person" + i);
+            person.address = Ref.of(new Address("address" + i));
+            person.other.add(Ref.of(shared));
+            objectPocket.add(person);
+        }
+        objectPocket.add(new Person("homeless"));
+        objectPocket.store();
+    }
+
+    @Test
+    public void testReferencedObjectsAreStored() throws Exception {
+        storePersons();
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.load();
+        Collection<Address> addresses = objectPocket.findAll(Address.class);
+        assertTrue(addresses.size() == 11);
+        Person person = objectPocket.query(Person.class).where("name", "person3").first();
+        assertFalse(person.address.isResolved());
+        assertTrue(person.address.get().name.equals("address3"));
+        assertTrue(addresses.contains(person.address.get()));
+        assertTrue(person.address.isResolved());
+        // all references point to the same object
+        Address shared = person.other.get(0).get();
+        for (Person p : objectPocket.findAll(Person.class)) {
+            assertTrue(p.other.isEmpty() || p.other.get(0).get() == shared);
+        }
+        assertNull(objectPocket.query(Person.class).where("name", "homeless").first().address);
+    }
+
+    @Test
+    public void testReferencesAreResolvedLazily() throws Exception {
+        storePersons();
+        addressFile.setLastModified(OLD_TIMESTAMP);
+        ObjectPocket objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        for (Person person : objectPocket.findAll(Person.class)) {
+            person.name = person.name + " changed";
+        }
+        // referenced type has not been loaded, so it stays untouched
+        objectPocket.store();
+        assertTrue(addressFile.lastModified() == OLD_TIMESTAMP);
+
+        objectPocket = getLazyObjectPocket();
+        objectPocket.load();
+        Person person = objectPocket.query(Person.class).where("name", "person5 changed").first();
+        assertTrue(person.address.get().name.equals("address5"));
+        person.address.get().name = "changed";
+        person.address = Ref.of(new Address("new"));
+        objectPocket.store();
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Address.class).size() == 12);
+        person = objectPocket.query(Person.class).where("name", "person5 changed").first();
+        assertTrue(person.address.get().name.equals("new"));
+        assertTrue(objectPocket.query(Address.class).where("name", "changed").count() == 1);
+    }
+
+    @Test
+    public void testIdsContainingAt() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Account account = new Account("someone@example.com");
+        Person person = new Person("person");
+        person.account = Ref.of(account);
+        objectPocket.add(person);
+        objectPocket.store();
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        person = objectPocket.query(Person.class).where("name", "person").first();
+        assertTrue(person.account.get().mail.equals("someone@example.com"));
+        assertTrue(objectPocket.find("someone@example.com", Account.class) == person.account.get());
+    }
+
+    public class Person {
+        String name;
+        Ref<Address> address;
+        List<Ref<Address>> other = new ArrayList<Ref<Address>>();
+        Ref<Account> account;
+
+        public Person() {
+        }
+
+        public Person(String name) {
+            this.name = name;
+        }
+    }
+
+    public class Account {
+        @Id
+        String mail;
+
+        public Account() {
+        }
+
+        public Account(String mail) {
+            this.mail = mail;
+        }
+    }
+
+    public class Address {
+        String name;
+
+        public Address() {
+        }
+
+        public Address(String name) {
+            this.name = name;
+        }
+    }
+
+}
@@ -100,6 +100,19 @@ public class ObjectPocketSimpleTest extends FileStoreTest {
 	assertTrue(found.getName().equals(bean.getName()));
     }
 
+    @Test
+    public void testBracesInsideStrings() throws Exception {
+	ObjectPocket objectPocket = getObjectPocket();
+	SimpleBean bean = new SimpleBean();
+	bean.setName("{ \"op_type\": \"x\" } }{ [");
+	objectPocket.add(bean);
+	objectPocket.store();
+	objectPocket.load();
+	Collection<SimpleBean> beans = objectPocket.findAll(SimpleBean.class);
+	assertTrue(beans.size() == 1);
+	assertTrue(beans.iterator().next().getName().equals(bean.getName()));
+    }
+
     @Test
     public void testBeanWithCustomConstrucor() throws Exception {
 	ObjectPocket objectPocket = getObjectPocket();
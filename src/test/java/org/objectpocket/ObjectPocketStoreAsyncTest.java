@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.objectpocket.exception.ObjectPocketException;
+import org.objectpocket.storage.FileStore;
+import org.objectpocket.storage.JsonObjectWriter;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketStoreAsyncTest extends FileStoreTest {
+
+    private AtomicInteger writes = new AtomicInteger();
+    private CountDownLatch writing = new CountDownLatch(1);
+    private CountDownLatch release = new CountDownLatch(0);
+
+    @Override
+    protected ObjectPocket getObjectPocket(ObjectPocketBuilder objectPocketBuilder) throws Exception {
+        FileStore objectStore = new FileStore(FILESTORE) {
+            @Override
+            public synchronized void writeJsonObjects(Map<String, Map<String, JsonObjectWriter>> changedFiles,
+                    Map<String, Set<String>> unchangedFiles) throws IOException {
+                writes.incrementAndGet();
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.writeJsonObjects(changedFiles, unchangedFiles);
+            }
+        };
+        return getObjectPocket(objectPocketBuilder, objectStore);
+    }
+
+    @Test
+    public void testStoreAsync() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean"));
+        objectPocket.storeAsync().get(10, TimeUnit.SECONDS);
+        assertTrue(writes.get() == 1);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).iterator().next().name.equals("bean"));
+    }
+
+    @Test
+    public void testCallsDuringWriteAreCoalesced() throws Exception {
+        release = new CountDownLatch(1);
+        ObjectPocket objectPocket = getObjectPocket();
+        List<Bean> beans = new ArrayList<Bean>();
+        for (int i = 0; i < 50; i++) {
+            Bean bean = new Bean("bean" + i);
+            beans.add(bean);
+            objectPocket.add(bean);
+        }
+        CompletableFuture<Void> first = objectPocket.storeAsync();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        // a burst of edits while the first write is in flight
+        List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        for (Bean bean : beans) {
+            bean.name = "changed";
+            futures.add(objectPocket.storeAsync());
+        }
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : futures) {
+            assertTrue(future == futures.get(0));
+        }
+        futures.get(0).get(10, TimeUnit.SECONDS);
+        assertTrue(writes.get() == 2);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        Collection<Bean> loaded = objectPocket.findAll(Bean.class);
+        assertTrue(loaded.size() == 50);
+        for (Bean bean : loaded) {
+            assertTrue(bean.name.equals("changed"));
+        }
+    }
+
+    @Test
+    public void testFailedStoreCompletesExceptionally() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean"));
+        objectPocket.store();
+
+        // the location contains data that has not been loaded
+        objectPocket = getObjectPocket();
+        try {
+            objectPocket.storeAsync().get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ObjectPocketException);
+        }
+    }
+
+    @Test
+    public void testAutoSaveAfterDebounce() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(
+                new ObjectPocketBuilder().autoSave(200, TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 20; i++) {
+            objectPocket.add(new Bean("bean" + i));
+        }
+        waitForWrites(1);
+        // the burst has been stored at once
+        Thread.sleep(400);
+        assertTrue(writes.get() == 1);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).size() == 20);
+    }
+
+    @Test
+    public void testAutoSaveAfterMaxLatency() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(
+                new ObjectPocketBuilder().autoSave(TimeUnit.HOURS.toMillis(1), 100, TimeUnit.MILLISECONDS));
+        // changes never pause for the debounce time
+        for (int i = 0; i < 50; i++) {
+            objectPocket.add(new Bean("bean" + i));
+            Thread.sleep(10);
+        }
+        waitForWrites(2);
+        assertTrue(writes.get() < 50);
+    }
+
+    @Test
+    public void testAutoSaveOnClose() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(
+                new ObjectPocketBuilder().autoSave(1, 1, TimeUnit.HOURS));
+        objectPocket.add(new Bean("bean"));
+        objectPocket.remove(objectPocket.findAll(Bean.class).iterator().next());
+        objectPocket.add(new Bean("other"));
+        assertTrue(writes.get() == 0);
+        objectPocket.close();
+        assertTrue(writes.get() == 1);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).iterator().next().name.equals("other"));
+    }
+
+    @Test
+    public void testNoStoresAfterClose() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(
+                new ObjectPocketBuilder().autoSave(10, 10, TimeUnit.MILLISECONDS));
+        objectPocket.add(new Bean("bean"));
+        objectPocket.close();
+        int writesOnClose = writes.get();
+        // changes of a closed pocket are not saved on a new writer thread
+        objectPocket.add(new Bean("other"));
+        Thread.sleep(200);
+        assertTrue(writes.get() == writesOnClose);
+        try {
+            objectPocket.storeAsync().get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ObjectPocketException);
+        }
+        assertTrue(writes.get() == writesOnClose);
+    }
+
+    private void waitForWrites(int count) throws Exception {
+        long time = System.currentTimeMillis();
+        while (writes.get() < count && System.currentTimeMillis() - time < 10_000) {
+            Thread.sleep(10);
+        }
+        assertTrue(writes.get() >= count);
+    }
+
+    public class Bean {
+        String name;
+
+        public Bean() {
+        }
+
+        public Bean(String name) {
+            this.name = name;
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketViewTest extends FileStoreTest {
+
+    @Test
+    public void testViewIsLive() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Collection<Bean> beans = objectPocket.view(Bean.class);
+        assertTrue(beans.isEmpty());
+        assertTrue(objectPocket.count(Bean.class) == 0);
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.add(new Bean("other"));
+        assertTrue(beans.size() == 2);
+        assertTrue(beans.contains(bean));
+        assertFalse(beans.contains(new Bean("bean")));
+        objectPocket.remove(bean);
+        assertTrue(beans.size() == 1);
+        assertFalse(beans.contains(bean));
+
+        // reflects loaded objects
+        objectPocket.store();
+        objectPocket.add(new Bean("not stored"));
+        assertTrue(beans.size() == 2);
+        objectPocket.load();
+        assertTrue(beans.size() == 1);
+        assertTrue(beans.iterator().next().name.equals("other"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testViewIsReadOnly() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new Bean("bean"));
+        objectPocket.view(Bean.class).clear();
+    }
+
+    @Test
+    public void testCountIterateAndStream() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 100; i++) {
+            objectPocket.add(new Bean("bean" + i));
+        }
+        assertTrue(objectPocket.count(Bean.class) == 100);
+        AtomicInteger count = new AtomicInteger();
+        objectPocket.iterate(Bean.class, bean -> count.incrementAndGet());
+        assertTrue(count.get() == 100);
+        assertTrue(objectPocket.stream(Bean.class).filter(bean -> bean.name.endsWith("9")).count() == 10);
+        objectPocket.iterate(String.class, s -> count.incrementAndGet());
+        assertTrue(count.get() == 100);
+    }
+
+    public class Bean {
+        String name;
+
+        public Bean() {
+        }
+
+        public Bean(String name) {
+            this.name = name;
+        }
+    }
+
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.objectpocket.annotations.Id;
+import org.objectpocket.storage.FileStore;
+import org.objectpocket.storage.WriteAheadLog;
+
+/**
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketWriteAheadLogTest extends FileStoreTest {
+
+    private static final long OLD_TIMESTAMP = 1_000_000_000_000L;
+
+    private File beanFile = new File(FILESTORE + "/" + Bean.class.getName() + ".json");
+    private File logFile = new File(FILESTORE + "/" + WriteAheadLog.FILE_NAME);
+
+    @Override
+    public ObjectPocket getObjectPocket() throws Exception {
+        // no compaction in the background
+        return getObjectPocket(new ObjectPocketBuilder().writeAheadLog().compactionThresholds(Long.MAX_VALUE,
+                Double.MAX_VALUE, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testChangesAreAppendedToLog() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.add(new Bean("other"));
+        objectPocket.store();
+        assertFalse(logFile.exists());
+        beanFile.setLastModified(OLD_TIMESTAMP);
+
+        bean.name = "changed";
+        objectPocket.store();
+        assertTrue(beanFile.lastModified() == OLD_TIMESTAMP);
+        assertTrue(logFile.exists());
+        long logSize = logFile.length();
+
+        // nothing changed, nothing will be appended
+        objectPocket.store();
+        assertTrue(logFile.length() == logSize);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        Collection<Bean> beans = objectPocket.findAll(Bean.class);
+        assertTrue(beans.size() == 2);
+        assertTrue(find(beans, "changed") != null);
+        assertTrue(find(beans, "bean") == null);
+
+        // loaded objects are not appended again
+        objectPocket.store();
+        assertTrue(logFile.length() == logSize);
+    }
+
+    @Test
+    public void testTrackedModificationsAreAppended() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(new ObjectPocketBuilder().writeAheadLog()
+                .compactionThresholds(Long.MAX_VALUE, Double.MAX_VALUE, 0, TimeUnit.MILLISECONDS)
+                .trackModifications());
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.add(new Bean("other"));
+        objectPocket.store();
+        objectPocket.add(new Bean("added"));
+        objectPocket.store();
+        long logSize = logFile.length();
+
+        // unreported changes are not appended
+        bean.name = "unreported";
+        objectPocket.store();
+        assertTrue(logFile.length() == logSize);
+
+        bean.name = "reported";
+        objectPocket.markModified(bean);
+        objectPocket.store();
+        assertTrue(logFile.length() > logSize);
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        Collection<Bean> beans = objectPocket.findAll(Bean.class);
+        assertTrue(beans.size() == 3);
+        assertTrue(find(beans, "reported") != null);
+    }
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.store();
+        objectPocket.remove(bean);
+        objectPocket.add(new Bean("added"));
+        objectPocket.add(new OtherBean("other"), "otherfile");
+        objectPocket.store();
+        assertTrue(beanFile.exists());
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        Collection<Bean> beans = objectPocket.findAll(Bean.class);
+        assertTrue(beans.size() == 1);
+        assertTrue(find(beans, "added") != null);
+        assertTrue(objectPocket.findAll(OtherBean.class).size() == 1);
+
+        objectPocket.remove(objectPocket.findAll(OtherBean.class).iterator().next());
+        objectPocket.store();
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertNull(objectPocket.findAll(OtherBean.class));
+    }
+
+    @Test
+    public void testCustomIds() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.add(new CustomIdBean("a", "1"));
+        objectPocket.add(new CustomIdBean("b", "2"));
+        objectPocket.store();
+        objectPocket.find("a", CustomIdBean.class).value = "changed";
+        objectPocket.remove(objectPocket.find("b", CustomIdBean.class));
+        objectPocket.store();
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(CustomIdBean.class).size() == 1);
+        assertTrue(objectPocket.find("a", CustomIdBean.class).value.equals("changed"));
+    }
+
+    @Test
+    public void testIncompleteBatchIsIgnored() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.store();
+        bean.name = "committed";
+        objectPocket.store();
+
+        // simulate a crash while appending
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(logFile, true), "UTF-8")) {
+            out.write("\n{\"op\":\"begin\"}\n{\"op\":\"remove\",\"type\":\"" + Bean.class.getName() + "\",\"id\":\"x\"}\n");
+            out.write("{\"op\":\"put\",\"file\":\"" + Bean.class.getName() + "\",\"object\":{\"op_type\":\"");
+        }
+
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).iterator().next().name.equals("committed"));
+
+        // appending after the torn batch works
+        objectPocket.findAll(Bean.class).iterator().next().name = "after crash";
+        objectPocket.store();
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).iterator().next().name.equals("after crash"));
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        ObjectPocket objectPocket = compactAlways();
+        Bean bean = new Bean("bean");
+        Bean removed = new Bean("removed");
+        objectPocket.add(bean);
+        objectPocket.add(removed);
+        objectPocket.store();
+        bean.name = "changed";
+        objectPocket.remove(removed);
+        objectPocket.add(new OtherBean("other"), "otherfile");
+        objectPocket.store();
+        // waits for the checkpoint
+        objectPocket.close();
+        assertFalse(logFile.exists());
+        assertTrue(new File(FILESTORE + "/otherfile.json").exists());
+
+        // checkpoint and log free store contain the same data
+        objectPocket = getObjectPocket(new ObjectPocketBuilder());
+        objectPocket.load();
+        Collection<Bean> beans = objectPocket.findAll(Bean.class);
+        assertTrue(beans.size() == 1);
+        assertTrue(beans.iterator().next().name.equals("changed"));
+        assertTrue(objectPocket.findAll(OtherBean.class).size() == 1);
+
+        // remove the last object of a file
+        objectPocket = compactAlways();
+        objectPocket.load();
+        objectPocket.remove(objectPocket.findAll(OtherBean.class).iterator().next());
+        objectPocket.store();
+        objectPocket.close();
+        assertFalse(new File(FILESTORE + "/otherfile.json").exists());
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertNull(objectPocket.findAll(OtherBean.class));
+        assertTrue(objectPocket.findAll(Bean.class).size() == 1);
+    }
+
+    @Test
+    public void testCheckpointKeepsFormat() throws Exception {
+        assertTrue(compactAndRead(new ObjectPocketBuilder()).contains("\n  \"name\""));
+        assertFalse(compactAndRead(new ObjectPocketBuilder().noPrettyPrinting()).contains("\n  \"name\""));
+    }
+
+    private String compactAndRead(ObjectPocketBuilder objectPocketBuilder) throws Exception {
+        FileUtils.deleteDirectory(new File(FILESTORE));
+        ObjectPocket objectPocket = getObjectPocket(
+                objectPocketBuilder.writeAheadLog().compactionThresholds(1, 0, 0, TimeUnit.MILLISECONDS));
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.add(new Bean("other"));
+        objectPocket.store();
+        bean.name = "changed";
+        objectPocket.store();
+        // waits for the checkpoint
+        objectPocket.close();
+        assertFalse(logFile.exists());
+        return FileUtils.readFileToString(beanFile, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCompactionDuringLazyLoad() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            FileUtils.deleteDirectory(new File(FILESTORE));
+            ObjectPocket objectPocket = getObjectPocket();
+            for (int i = 0; i < 50; i++) {
+                objectPocket.add(new Bean("bean" + i), "file" + i);
+            }
+            objectPocket.store();
+            for (Bean bean : objectPocket.findAll(Bean.class)) {
+                bean.name = bean.name.replace("bean", "changed");
+            }
+            objectPocket.store();
+            assertTrue(logFile.exists());
+
+            // the compaction starts while the beans are loaded lazily
+            objectPocket = getObjectPocket(new ObjectPocketBuilder().writeAheadLog().lazyLoading()
+                    .compactionThresholds(Long.MAX_VALUE, Double.MAX_VALUE, 1, TimeUnit.MILLISECONDS));
+            objectPocket.load();
+            Thread.sleep(round % 3);
+            Collection<Bean> beans = objectPocket.findAll(Bean.class);
+            assertTrue(beans.size() == 50);
+            for (Bean bean : beans) {
+                assertTrue(bean.name.startsWith("changed"));
+            }
+            objectPocket.close();
+            assertFalse(logFile.exists());
+        }
+    }
+
+    @Test
+    public void testNoCompactionAfterClose() throws Exception {
+        ObjectPocket objectPocket = compactAlways();
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.store();
+        bean.name = "changed";
+        objectPocket.store();
+        objectPocket.close();
+        assertFalse(logFile.exists());
+        // no new compaction thread is started for the closed pocket
+        bean.name = "after close";
+        objectPocket.store();
+        Thread.sleep(200);
+        assertTrue(logFile.exists());
+    }
+
+    @Test
+    public void testStoreDuringSlowCheckpoint() throws Exception {
+        CountDownLatch compacting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FileStore objectStore = new FileStore(FILESTORE) {
+            @Override
+            protected OutputStreamWriter getOutputStreamWriter(String filename) throws IOException {
+                // the checkpoint writes the compacted files aside
+                if (filename.endsWith(".json.tmp")) {
+                    compacting.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return super.getOutputStreamWriter(filename);
+            }
+        };
+        ObjectPocket compactingPocket = getObjectPocket(
+                new ObjectPocketBuilder().writeAheadLog().compactionThresholds(1, 0, 0, TimeUnit.MILLISECONDS),
+                objectStore);
+        Bean bean = new Bean("bean");
+        compactingPocket.add(bean);
+        compactingPocket.store();
+        bean.name = "changed";
+        compactingPocket.store();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(compacting.await(10, TimeUnit.SECONDS));
+            Future<?> writer = executor.submit(() -> {
+                compactingPocket.add(new Bean("added"));
+                bean.name = "during checkpoint";
+                compactingPocket.store();
+                return null;
+            });
+            writer.get(10, TimeUnit.SECONDS);
+            assertTrue(compactingPocket.findAll(Bean.class).size() == 2);
+            // changes go to a fresh log
+            assertTrue(logFile.exists());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        compactingPocket.close();
+
+        ObjectPocket objectPocket = getObjectPocket();
+        objectPocket.load();
+        Collection<Bean> beans = objectPocket.findAll(Bean.class);
+        assertTrue(beans.size() == 2);
+        assertTrue(find(beans, "during checkpoint") != null);
+        assertTrue(find(beans, "added") != null);
+    }
+
+    @Test
+    public void testInterruptedCheckpoint() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        Bean bean = new Bean("bean");
+        Bean other = new Bean("other");
+        objectPocket.add(bean);
+        objectPocket.add(other);
+        objectPocket.store();
+        bean.name = "moved";
+        other.name = "moved";
+        objectPocket.store();
+        objectPocket.close();
+        // the checkpoint moved the log aside and crashed
+        File checkpointLogFile = new File(FILESTORE + "/" + WriteAheadLog.CHECKPOINT_FILE_NAME);
+        assertTrue(logFile.renameTo(checkpointLogFile));
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(find(objectPocket.findAll(Bean.class), "moved") != null);
+        find(objectPocket.findAll(Bean.class), "moved").name = "current";
+        objectPocket.store();
+
+        // the current log is newer than the moved one
+        objectPocket = compactAlways();
+        objectPocket.load();
+        Collection<Bean> beans = objectPocket.findAll(Bean.class);
+        assertTrue(find(beans, "moved") != null);
+        assertTrue(find(beans, "current") != null);
+        find(beans, "moved").name = "compacted";
+        objectPocket.store();
+        // waits for the checkpoints
+        objectPocket.close();
+        assertFalse(checkpointLogFile.exists());
+        assertFalse(logFile.exists());
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        beans = objectPocket.findAll(Bean.class);
+        assertTrue(find(beans, "compacted") != null);
+        assertTrue(find(beans, "current") != null);
+    }
+
+    private ObjectPocket compactAlways() throws Exception {
+        return getObjectPocket(
+                new ObjectPocketBuilder().writeAheadLog().compactionThresholds(1, 0, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCompactionByGarbageRatio() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(new ObjectPocketBuilder().writeAheadLog()
+                .compactionThresholds(Long.MAX_VALUE, 0.5, 0, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 10; i++) {
+            objectPocket.add(new Bean("bean" + i));
+        }
+        objectPocket.store();
+        assertTrue(objectPocket.getLastCompactionDuration() == -1);
+        Iterator<Bean> beans = objectPocket.findAll(Bean.class).iterator();
+        for (int i = 0; i < 4; i++) {
+            beans.next().name = "changed" + i;
+        }
+        objectPocket.store();
+        assertTrue(objectPocket.getCompactionBacklog() == logFile.length());
+        assertTrue(objectPocket.getCompactionBacklog() > 0);
+        // 5 of 10 objects changed
+        beans.next().name = "changed";
+        objectPocket.store();
+        waitForCompaction(objectPocket);
+        assertTrue(objectPocket.getCompactionBacklog() == 0);
+        assertTrue(objectPocket.getLastCompactionDuration() >= 0);
+        assertFalse(logFile.exists());
+    }
+
+    @Test
+    public void testCompactionByTime() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket(new ObjectPocketBuilder().writeAheadLog()
+                .compactionThresholds(Long.MAX_VALUE, Double.MAX_VALUE, 100, TimeUnit.MILLISECONDS));
+        Bean bean = new Bean("bean");
+        objectPocket.add(bean);
+        objectPocket.store();
+        bean.name = "changed";
+        objectPocket.store();
+        assertTrue(logFile.exists());
+        waitForCompaction(objectPocket);
+        assertFalse(logFile.exists());
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).iterator().next().name.equals("changed"));
+    }
+
+    private void waitForCompaction(ObjectPocket objectPocket) throws Exception {
+        long time = System.currentTimeMillis();
+        while (objectPocket.getLastCompactionDuration() == -1 && System.currentTimeMillis() - time < 10_000) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Bean find(Collection<Bean> beans, String name) {
+        for (Bean bean : beans) {
+            if (bean.name.equals(name)) {
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    public class Bean {
+        String name;
+
+        public Bean() {
+        }
+
+        public Bean(String name) {
+            this.name = name;
+        }
+    }
+
+    public class OtherBean {
+        String name;
+
+        public OtherBean() {
+        }
+
+        public OtherBean(String name) {
+            this.name = name;
+        }
+    }
+
+    public class CustomIdBean {
+        @Id
+        String id;
+        String value;
+
+        public CustomIdBean() {
+        }
+
+        public CustomIdBean(String id, String value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+}
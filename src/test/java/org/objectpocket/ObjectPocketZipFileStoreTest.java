@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.objectpocket.annotations.Entity;
+
+/**
+ * Runs the entity tests against a {@link ObjectPocket} that stores its data
+ * in a single zip file.
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ObjectPocketZipFileStoreTest extends ObjectPocketEntityTest {
+
+    public static final String ZIPFILE = FILESTORE + "/objectpocket.zip";
+
+    @Override
+    public ObjectPocket getObjectPocket() throws Exception {
+        if (objectPocket != null) {
+            objectPocket.close();
+        }
+        ObjectPocketBuilder objectPocketBuilder = new ObjectPocketBuilder();
+        objectPocketBuilder.doNotWriteBackups(); // keep test footrpint/time low
+        objectPocket = objectPocketBuilder.createZipFileObjectPocket(ZIPFILE);
+        return objectPocket;
+    }
+
+    @Test
+    public void testExists() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        assertFalse(objectPocket.exists());
+        objectPocket.add(new Bean("bean"));
+        objectPocket.store();
+        assertTrue(new File(ZIPFILE).exists());
+        assertTrue(getObjectPocket().exists());
+    }
+
+    @Test
+    public void testStoreLoadManyTypes() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 100; i++) {
+            objectPocket.add(new Bean("bean" + i));
+            objectPocket.add(new OtherBean("other" + i));
+        }
+        objectPocket.add(new Bean("custom"), "customfile");
+        objectPocket.store();
+        objectPocket = getObjectPocket();
+        objectPocket.load();
+        assertTrue(objectPocket.findAll(Bean.class).size() == 101);
+        assertTrue(objectPocket.findAll(OtherBean.class).size() == 100);
+        // store again while the archive is open for reading
+        objectPocket.add(new Bean("another"));
+        objectPocket.store();
+        objectPocket.load();
+        Collection<Bean> beans = objectPocket.findAll(Bean.class);
+        assertTrue(beans.size() == 102);
+    }
+
+    @Test
+    public void testParallelLoadingKeepsReferences() throws Exception {
+        ObjectPocket objectPocket = getObjectPocket();
+        for (int i = 0; i < 500; i++) {
+            OtherBean otherBean = new OtherBean("other" + i);
+            Bean bean = new Bean("bean" + i);
+            bean.other = otherBean;
+            objectPocket.add(bean);
+        }
+        objectPocket.store();
+        objectPocket.close();
+        // zip pockets load in parallel unless configured otherwise
+        objectPocket = new ObjectPocketBuilder().createZipFileObjectPocket(ZIPFILE);
+        assertTrue(((ObjectPocketImpl) objectPocket).getLoadParallelism() == Runtime.getRuntime()
+                .availableProcessors());
+        objectPocket.load();
+        Collection<OtherBean> otherBeans = objectPocket.findAll(OtherBean.class);
+        assertTrue(otherBeans.size() == 500);
+        for (Bean bean : objectPocket.findAll(Bean.class)) {
+            assertTrue(otherBeans.contains(bean.other));
+        }
+        objectPocket.close();
+    }
+
+    public class Bean {
+        String name;
+        OtherBean other;
+
+        public Bean() {
+        }
+
+        public Bean(String name) {
+            this.name = name;
+        }
+    }
+
+    @Entity
+    public class OtherBean {
+        String name;
+
+        public OtherBean() {
+        }
+
+        public OtherBean(String name) {
+            this.name = name;
+        }
+    }
+
+}
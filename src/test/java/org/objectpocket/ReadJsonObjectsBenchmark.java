@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 Edmund Klaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.objectpocket;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.objectpocket.storage.FileStore;
+import org.objectpocket.util.JsonHelper;
+
+/**
+ * Compares reading a type file of about 100MB line by line, as done before,
+ * with the bulk read of {@link FileStore#readJsonObjects(String)} and with
+ * streaming the objects into the parser on {@link ObjectPocket#load()}.<br>
+ * Not part of the test suite, run the main method manually.
+ *
+ * @author Edmund Klaus
+ *
+ */
+public class ReadJsonObjectsBenchmark {
+
+    private static final String DIRECTORY = FileStoreTest.FILESTORE + "_benchmark";
+    private static final long FILE_SIZE = 100L << 20;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        FileUtils.deleteDirectory(new File(DIRECTORY));
+        String typeName = Bean.class.getName();
+        File file = writeFile();
+        System.out.println("File size: " + (file.length() >> 20) + " MB");
+        for (int run = 0; run < RUNS; run++) {
+            long time = System.nanoTime();
+            int count = readLines(file).size();
+            long lines = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            FileStore objectStore = new FileStore(DIRECTORY);
+            objectStore.getAvailableObjectTypes();
+            count = objectStore.readJsonObjects(typeName).values().iterator().next().size();
+            long bulk = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            ObjectPocket objectPocket = new ObjectPocketBuilder().createFileObjectPocket(DIRECTORY);
+            objectPocket.load();
+            count = objectPocket.findAll(Bean.class).size();
+            objectPocket.close();
+            long load = System.nanoTime() - time;
+
+            System.out.println("Run " + run + " (" + count + " objects): readLine " + lines / 1_000_000
+                    + " ms, bulk read " + bulk / 1_000_000 + " ms, load " + load / 1_000_000 + " ms");
+        }
+        FileUtils.deleteDirectory(new File(DIRECTORY));
+    }
+
+    private static File writeFile() throws Exception {
+        ObjectPocket objectPocket = new ObjectPocketBuilder().doNotWriteBackups().createFileObjectPocket(DIRECTORY);
+        File file = new File(DIRECTORY + "/" + Bean.class.getName() + ".json");
+        // pretty printed, every value on a line of its own
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 50; i++) {
+            values.add(i * 1000);
+        }
+        long objects = FILE_SIZE / 700;
+        for (long i = 0; i < objects; i++) {
+            objectPocket.add(new Bean("bean" + i, values));
+        }
+        objectPocket.store();
+        objectPocket.close();
+        return file;
+    }
+
+    /**
+     * The former read path, concatenates the lines of the file and splits it
+     * into top level objects afterwards.
+     */
+    private static Map<String, String> readLines(File file) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                sb.append(line);
+            }
+        }
+        String s = sb.substring(sb.indexOf("[") + 1, sb.length());
+        List<String> jsonObjects = new ArrayList<String>(1000000);
+        int start = 0;
+        int depth = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '{' && depth++ == 0) {
+                start = i;
+            } else if (c == '}' && --depth == 0) {
+                jsonObjects.add(s.substring(start, i + 1));
+            }
+        }
+        Map<String, String> objectAndIdMap = new HashMap<String, String>();
+        for (String jsonObject : jsonObjects) {
+            StringBuilder copy = new StringBuilder(jsonObject);
+            int startCut = copy.indexOf(JsonHelper.ID + "\"") + JsonHelper.ID.length() + 1;
+            startCut = copy.indexOf("\"", startCut) + 1;
+            objectAndIdMap.put(jsonObject, copy.substring(startCut, copy.indexOf("\"", startCut)));
+        }
+        return objectAndIdMap;
+    }
+
+    public static class Bean {
+        String name;
+        List<Integer> values;
+
+        public Bean() {
+        }
+
+        public Bean(String name, List<Integer> values) {
+            this.name = name;
+            this.values = values;
+        }
+    }
+
+}